@@ -5,14 +5,13 @@ import android.app.Activity;
 import android.app.AlertDialog;
 import android.app.LoaderManager;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.CursorLoader;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.Loader;
 import android.content.pm.PackageManager;
 import android.database.Cursor;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
@@ -38,10 +37,8 @@ import android.widget.Toast;
 
 import com.example.android.shopit.data.StockContract;
 import com.example.android.shopit.data.StockContract.StockEntry;
-
-import java.io.FileNotFoundException;
-import java.io.IOException;
-import java.io.InputStream;
+import com.example.android.shopit.data.StockImageStore;
+import com.example.android.shopit.data.StockWriter;
 
 /**
  * Allows user to create a new stork or edit an existing one.
@@ -58,6 +55,13 @@ public class EditorActivity extends AppCompatActivity implements
     private static final int STOCK_IMAGE = 0;
     private static final int PERMISSIONS_REQUEST = 2;
 
+    /**
+     * Bundle keys for the picture of the stock, which the loader doesn't know about until the
+     * stock is saved
+     */
+    private static final String STATE_IMAGE = "image";
+    private static final String STATE_IMPORTING_IMAGE = "importing_image";
+    private static final String STATE_IMAGE_PICKED = "image_picked";
 
     //Content URI for the existing stork (null if it's new)
     private Uri mCurrentStockUri;
@@ -65,7 +69,47 @@ public class EditorActivity extends AppCompatActivity implements
     //Image related
     private ImageView mStockImageView;
     private ImageButton mCameraButton;
-    private Uri mImageUri;
+
+    /**
+     * The picture of the stock as stored in {@link StockEntry#COLUMN_STOCK_IMAGE}, the hash of a
+     * picture in the {@link StockImageStore} (or the URI of an original for older stocks)
+     */
+    private String mImage;
+
+    /**
+     * The picture that was just picked and is being imported into the {@link StockImageStore},
+     * null if there is none
+     */
+    private Uri mImportingImage;
+
+    /**
+     * Whether a picture has been picked in this editor, so {@link #mImage} is no longer the one
+     * stored with the stock
+     */
+    private boolean mImagePicked;
+
+    /**
+     * Receives the hash of the picked picture once it is in the {@link StockImageStore}.
+     */
+    private final StockImageStore.ImportCallback mImageImportCallback =
+            new StockImageStore.ImportCallback() {
+                @Override
+                public void onImageImported(Uri source, String hash) {
+                    // Ignore the picture if another one has been picked since
+                    if (!source.equals(mImportingImage)) {
+                        return;
+                    }
+                    mImportingImage = null;
+
+                    if (hash == null) {
+                        Toast.makeText(EditorActivity.this, R.string.image_import_failed,
+                                Toast.LENGTH_SHORT).show();
+                    } else {
+                        mImage = hash;
+                    }
+                    loadStockImage();
+                }
+            };
 
     //EditText fields
     private EditText mNameEditText;
@@ -173,6 +217,53 @@ public class EditorActivity extends AppCompatActivity implements
         orderMore();
         reduceQuantity();
         increaseQuantity();
+
+        if (savedInstanceState != null) {
+            restoreImage(savedInstanceState);
+        }
+    }
+
+    /**
+     * Restore the picture picked before the editor was recreated, and pick up its import if it
+     * was still running.
+     */
+    private void restoreImage(Bundle savedInstanceState) {
+        mImage = savedInstanceState.getString(STATE_IMAGE);
+        mImportingImage = savedInstanceState.getParcelable(STATE_IMPORTING_IMAGE);
+        mImagePicked = savedInstanceState.getBoolean(STATE_IMAGE_PICKED);
+
+        if (mImportingImage == null) {
+            if (mImagePicked) {
+                loadStockImage();
+            }
+            return;
+        }
+        showImportingImage();
+        StockImageStore store = StockImageStore.getInstance(this);
+        if (!store.attach(mImportingImage, mImageImportCallback)) {
+            // The app has been restarted since the picture was picked, so import it again
+            store.importImage(mImportingImage, mImageImportCallback);
+        }
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putString(STATE_IMAGE, mImage);
+        outState.putParcelable(STATE_IMPORTING_IMAGE, mImportingImage);
+        outState.putBoolean(STATE_IMAGE_PICKED, mImagePicked);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+
+        // Don't let the import of a picture hold on to this editor. On rotation the next editor
+        // attaches to it again and gets its hash.
+        if (mImportingImage != null) {
+            StockImageStore.getInstance(this).detach(mImportingImage,
+                    isChangingConfigurations());
+        }
     }
 
     /**
@@ -335,64 +426,35 @@ public class EditorActivity extends AppCompatActivity implements
     @Override
     protected void onActivityResult(int requestCode, int resultCode, Intent data) {
         if (requestCode == STOCK_IMAGE && resultCode == Activity.RESULT_OK) {
-            if (data != null) {
-                mImageUri = data.getData();
-                Log.v(LOG_TAG, "Uri: " + mImageUri);
-
-                mStockImageView.setImageURI(mImageUri);
-                mStockImageView.setImageBitmap(getBitmapFromUri(mImageUri));
-                mStockImageView.invalidate();
+            if (data != null && data.getData() != null) {
+                Uri source = data.getData();
+                Log.v(LOG_TAG, "Uri: " + source);
+
+                // Show the original straight away while it is copied into the image store
+                mImportingImage = source;
+                mImagePicked = true;
+                showImportingImage();
+                StockImageStore.getInstance(this).importImage(source, mImageImportCallback);
             }
         }
     }
 
-    public Bitmap getBitmapFromUri(Uri uri) {
-        if (uri == null || uri.toString().isEmpty()) {
-            return null;
-        }
+    /**
+     * Show the picture of the stock in {@link #mStockImageView}. The picture is decoded in the
+     * background and scaled down to the size of the view, so even a very large photo doesn't
+     * hold up the UI.
+     */
+    private void loadStockImage() {
+        StockImageLoader.getInstance(this).load(mImage, mStockImageView,
+                getResources().getDimensionPixelSize(R.dimen.editor_image_size));
+    }
 
-        // Get the dimensions of the View
-        int targetWidth = mStockImageView.getWidth();
-        int targetHeight = mStockImageView.getHeight();
-
-        InputStream inputStream = null;
-        try {
-            inputStream = this.getContentResolver().openInputStream(uri);
-
-            // Get the size of the bitmap
-            BitmapFactory.Options bmOptions = new BitmapFactory.Options();
-            bmOptions.inJustDecodeBounds = true;
-            BitmapFactory.decodeStream(inputStream, null, bmOptions);
-            inputStream.close();
-
-            int photoWidth = bmOptions.outWidth;
-            int photoHeight = bmOptions.outHeight;
-
-            // Determine the image size
-            int scaleFactor = Math.min(photoWidth / targetWidth, photoHeight / targetHeight);
-
-            // Scale the image file into a Bitmap sized to fill the View
-            bmOptions.inJustDecodeBounds = false;
-            bmOptions.inSampleSize = scaleFactor;
-            bmOptions.inPurgeable = true;
-
-            inputStream = this.getContentResolver().openInputStream(uri);
-            Bitmap bitmap = BitmapFactory.decodeStream(inputStream, null, bmOptions);
-            inputStream.close();
-            return bitmap;
-
-        } catch (FileNotFoundException noFile) {
-            Log.e(LOG_TAG, "Failed to load image.", noFile);
-            return null;
-        } catch (Exception e) {
-            Log.e(LOG_TAG, "Failed to load image.", e);
-            return null;
-        } finally {
-            try {
-                inputStream.close();
-            } catch (IOException ioe) {
-            }
-        }
+    /**
+     * Show the original of the picture that is being imported in {@link #mStockImageView}.
+     */
+    private void showImportingImage() {
+        StockImageLoader.getInstance(this).load(mImportingImage.toString(), mStockImageView,
+                getResources().getDimensionPixelSize(R.dimen.editor_image_size));
     }
 
     private void openImageSelector() {
@@ -428,7 +490,7 @@ public class EditorActivity extends AppCompatActivity implements
                 TextUtils.isEmpty(quantityString) &&
                 TextUtils.isEmpty(priceString) &&
                 mType == StockEntry.TYPE_UNKNOWN &&
-                mImageUri == null) {
+                mImage == null && mImportingImage == null) {
             // Since no fields were modified, we can return early without creating a new stock.
             // No need to create ContentValues and no need to do any ContentProvider operations.
             Toast.makeText(this, getString(R.string.require_attributes),
@@ -440,13 +502,19 @@ public class EditorActivity extends AppCompatActivity implements
         // Create a ContentValues object where column names are the keys,
         // and stork attributes from the editor are the values.
         ContentValues values = new ContentValues();
-        if (mImageUri == null) {
+        if (mImportingImage != null) {
+            Toast.makeText(this, getString(R.string.image_importing),
+                    Toast.LENGTH_SHORT).show();
+            mStockSaved = false;
+            return mStockSaved;
+        }
+        if (mImage == null) {
             Toast.makeText(this, getString(R.string.require_image),
                     Toast.LENGTH_SHORT).show();
             mStockSaved = false;
             return mStockSaved;
         }
-        values.put(StockEntry.COLUMN_STOCK_IMAGE, mImageUri.toString());
+        values.put(StockEntry.COLUMN_STOCK_IMAGE, mImage);
 
         if (TextUtils.isEmpty(nameString)) {
             Toast.makeText(this, getString(R.string.require_name),
@@ -473,38 +541,19 @@ public class EditorActivity extends AppCompatActivity implements
         values.put(StockEntry.COLUMN_STOCK_PRICE, price);
 
         // Determine if this is a new or existing price by checking if mCurrentStockUri is null or not
+        // The write runs in the background, so the editor can close right away. A toast tells
+        // the user how it went once it is done.
+        StockWriter writer = StockWriter.getInstance(this);
         if (mCurrentStockUri == null) {
-            // This is a NEW stock, so insert a new stock into the provider,
-            // returning the content URI for the new stock.
-            Uri newUri = getContentResolver().insert(StockEntry.CONTENT_URI, values);
-
-            // Show a toast message depending on whether or not the insertion was successful.
-            if (newUri == null) {
-                // If the new content URI is null, then there was an error with insertion.
-                Toast.makeText(this, getString(R.string.editor_insert_stock_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the insertion was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_insert_stock_successful),
-                        Toast.LENGTH_SHORT).show();
-            }
+            // This is a NEW stock, so insert a new stock into the provider.
+            writer.insert(values, new WriteToast(this, R.string.editor_insert_stock_successful,
+                    R.string.editor_insert_stock_failed));
         } else {
-            // Otherwise this is an EXISTING stock, so update the stock with content URI: mCurrentStockUri
-            // and pass in the new ContentValues. Pass in null for the selection and selection args
-            // because mCurrentStockUri will already identify the correct row in the database that
-            // we want to modify.
-            int rowsAffected = getContentResolver().update(mCurrentStockUri, values, null, null);
-
-            // Show a toast message depending on whether or not the update was successful.
-            if (rowsAffected == 0) {
-                // If no rows were affected, then there was an error with the update.
-                Toast.makeText(this, getString(R.string.editor_update_stock_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the update was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_update_stock_successful),
-                        Toast.LENGTH_SHORT).show();
-            }
+            // Otherwise this is an EXISTING stock, so update the stock with content URI:
+            // mCurrentStockUri and pass in the new ContentValues. An update of the same stock
+            // that hasn't been written yet is replaced by this one.
+            writer.update(mCurrentStockUri, values, new WriteToast(this,
+                    R.string.editor_update_stock_successful, R.string.editor_update_stock_failed));
         }
         mStockSaved = true;
         return mStockSaved;
@@ -647,16 +696,19 @@ public class EditorActivity extends AppCompatActivity implements
             int priceColumnIndex = cursor.getColumnIndex(StockEntry.COLUMN_STOCK_PRICE);
 
             // Extract out the value from the Cursor for the given column index
-            String imageUriString = cursor.getString(imageColumnIndex);
+            String image = cursor.getString(imageColumnIndex);
             String name = cursor.getString(nameColumnIndex);
             String supplier = cursor.getString(supplierColumnIndex);
             int type = cursor.getInt(typeColumnIndex);
             quantity = cursor.getInt(quantityColumnIndex);
             int price = cursor.getInt(priceColumnIndex);
 
-            // Update the views on the screen with the values from the database
-            mImageUri = Uri.parse(imageUriString);
-            mStockImageView.setImageURI(mImageUri);
+            // Update the views on the screen with the values from the database. A picture picked
+            // before the editor was recreated replaces the stored one.
+            if (!mImagePicked) {
+                mImage = image;
+                loadStockImage();
+            }
             mNameEditText.setText(name);
             mSupplierEditText.setText(supplier);
             mQuantityTextView.setText(Integer.toString(quantity));
@@ -683,7 +735,7 @@ public class EditorActivity extends AppCompatActivity implements
     public void onLoaderReset(Loader<Cursor> loader) {
         Log.v(LOG_TAG, "Now is onLoaderReset called");
         // If the loader is invalidated, clear out all the data from the input fields.
-        mStockImageView.setImageURI(mImageUri);
+        loadStockImage();
         mNameEditText.setText("");
         mSupplierEditText.setText("");
         mQuantityTextView.setText("");
@@ -755,24 +807,35 @@ public class EditorActivity extends AppCompatActivity implements
     private void deleteStock() {
         // Only perform the delete if this is an existing stock.
         if (mCurrentStockUri != null) {
-            // Call the ContentResolver to delete the stock at the given content URI.
-            // Pass in null for the selection and selection args because the mCurrentStockUri
-            // content URI already identifies the stock item that we want.
-            int rowsDeleted = getContentResolver().delete(mCurrentStockUri, null, null);
-
-            // Show a toast message depending on whether or not the delete was successful.
-            if (rowsDeleted == 0) {
-                // If no rows were deleted, then there was an error with the delete.
-                Toast.makeText(this, getString(R.string.editor_delete_stock_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the delete was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_delete_stock_successful),
-                        Toast.LENGTH_SHORT).show();
-            }
+            // Delete the stock at the given content URI in the background, replacing an update
+            // of it that hasn't been written yet.
+            StockWriter.getInstance(this).delete(mCurrentStockUri, new WriteToast(this,
+                    R.string.editor_delete_stock_successful, R.string.editor_delete_stock_failed));
         }
 
         // Close the activity
         finish();
     }
+
+    /**
+     * Shows a toast message depending on whether or not a write of the stock was successful.
+     * Static, so a write that finishes after the editor has closed doesn't keep it in memory.
+     */
+    private static class WriteToast implements StockWriter.WriteCallback {
+        private final Context mContext;
+        private final int mSuccessMessage;
+        private final int mFailureMessage;
+
+        WriteToast(Context context, int successMessage, int failureMessage) {
+            mContext = context.getApplicationContext();
+            mSuccessMessage = successMessage;
+            mFailureMessage = failureMessage;
+        }
+
+        @Override
+        public void onWriteFinished(Uri uri, boolean success) {
+            Toast.makeText(mContext, success ? mSuccessMessage : mFailureMessage,
+                    Toast.LENGTH_SHORT).show();
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,195 @@
+package com.example.android.shopit;
+
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.Intent;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.support.v4.app.NotificationCompat;
+import android.util.Log;
+
+import com.example.android.shopit.data.StockContract.StockEntry;
+import com.example.android.shopit.data.StockContract.SummaryEntry;
+
+/**
+ * Watches for stocks going below their reorder threshold and tells the user about them with a
+ * notification.
+ * <p>
+ * The database queues every stock as it goes low (see {@link StockEntry#METHOD_TAKE_LOW_STOCK}),
+ * so a check only reads the stocks that have just gone low and never rescans the stocks table.
+ * Checks run at most once per {@link #CHECK_WINDOW_MILLIS}, after the first stock change of the
+ * window, and each check raises a single notification listing every stock that went low during
+ * that window.
+ */
+final class LowStockWatcher {
+
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = LowStockWatcher.class.getSimpleName();
+
+    /**
+     * How long stock changes are collected before the low stocks are checked
+     */
+    private static final long CHECK_WINDOW_MILLIS = 30 * 1000;
+
+    /**
+     * Maximum number of stocks listed in the notification
+     */
+    private static final int MAX_LISTED_STOCKS = 10;
+
+    /**
+     * Id of the low stock notification, replaced by every check that finds low stocks
+     */
+    private static final int NOTIFICATION_ID = 1;
+
+    private static LowStockWatcher sInstance;
+
+    /**
+     * Returns the low stock watcher shared by the whole app.
+     */
+    static synchronized LowStockWatcher getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new LowStockWatcher(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private final Context mContext;
+    private final ContentResolver mResolver;
+    private final Handler mHandler;
+    private boolean mStarted;
+
+    /**
+     * Whether a check is waiting to run. Only used on the watcher thread.
+     */
+    private boolean mCheckScheduled;
+
+    private final Runnable mCheck = new Runnable() {
+        @Override
+        public void run() {
+            mCheckScheduled = false;
+            check();
+        }
+    };
+
+    private LowStockWatcher(Context context) {
+        mContext = context;
+        mResolver = context.getContentResolver();
+
+        HandlerThread thread = new HandlerThread(LOG_TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Start watching the stocks, if not already watching. Stocks that went low while the app
+     * wasn't running are reported straight away.
+     */
+    synchronized void start() {
+        if (mStarted) {
+            return;
+        }
+        mStarted = true;
+
+        mResolver.registerContentObserver(StockEntry.CONTENT_URI, true,
+                new ContentObserver(mHandler) {
+                    @Override
+                    public void onChange(boolean selfChange) {
+                        scheduleCheck();
+                    }
+                });
+        mHandler.post(mCheck);
+    }
+
+    /**
+     * Check the low stocks at the end of the current window, unless a check is already waiting.
+     */
+    private void scheduleCheck() {
+        if (!mCheckScheduled) {
+            mCheckScheduled = true;
+            mHandler.postDelayed(mCheck, CHECK_WINDOW_MILLIS);
+        }
+    }
+
+    /**
+     * Take the stocks that have gone low since the last check and notify the user of them.
+     */
+    private void check() {
+        Bundle lowStock;
+        try {
+            lowStock = mResolver.call(StockEntry.CONTENT_URI, StockEntry.METHOD_TAKE_LOW_STOCK,
+                    String.valueOf(MAX_LISTED_STOCKS), null);
+        } catch (RuntimeException e) {
+            Log.e(LOG_TAG, "Failed to check for low stock", e);
+            return;
+        }
+        if (lowStock == null || lowStock.getInt(StockEntry.EXTRA_TOTAL) == 0) {
+            return;
+        }
+        showNotification(lowStock.getInt(StockEntry.EXTRA_TOTAL),
+                lowStock.getStringArray(StockEntry.EXTRA_NAMES),
+                lowStock.getIntArray(StockEntry.EXTRA_QUANTITIES));
+    }
+
+    /**
+     * Show the notification listing the given stocks that have gone low.
+     */
+    private void showNotification(int total, String[] names, int[] quantities) {
+        String title = mContext.getResources().getQuantityString(R.plurals.low_stock_title,
+                total, total);
+        int lowStockCount = queryLowStockCount();
+        String text = mContext.getResources().getQuantityString(R.plurals.low_stock_text,
+                lowStockCount, lowStockCount);
+
+        NotificationCompat.InboxStyle style = new NotificationCompat.InboxStyle()
+                .setBigContentTitle(title);
+        for (int i = 0; i < names.length; i++) {
+            style.addLine(mContext.getString(R.string.low_stock_line, names[i], quantities[i]));
+        }
+        if (total > names.length) {
+            style.setSummaryText(mContext.getString(R.string.low_stock_more,
+                    total - names.length));
+        }
+
+        Intent intent = new Intent(mContext, MainActivity.class);
+        PendingIntent contentIntent = PendingIntent.getActivity(mContext, 0, intent,
+                PendingIntent.FLAG_UPDATE_CURRENT);
+
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(mContext)
+                .setSmallIcon(R.mipmap.ic_launcher)
+                .setContentTitle(title)
+                .setContentText(text)
+                .setStyle(style)
+                .setNumber(total)
+                .setContentIntent(contentIntent)
+                .setAutoCancel(true);
+
+        NotificationManager manager =
+                (NotificationManager) mContext.getSystemService(Context.NOTIFICATION_SERVICE);
+        manager.notify(NOTIFICATION_ID, builder.build());
+    }
+
+    /**
+     * Returns the number of stocks that are low on stock right now, read from the inventory
+     * summary.
+     */
+    private int queryLowStockCount() {
+        Cursor cursor = mResolver.query(SummaryEntry.CONTENT_URI,
+                new String[]{SummaryEntry.COLUMN_LOW_STOCK_COUNT}, null, null, null);
+        if (cursor == null) {
+            return 0;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+}
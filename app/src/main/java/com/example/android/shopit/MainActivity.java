@@ -3,25 +3,39 @@ package com.example.android.shopit;
 import android.app.LoaderManager;
 import android.content.ContentUris;
 import android.content.ContentValues;
-import android.content.CursorLoader;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.Loader;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
 import android.support.design.widget.FloatingActionButton;
+import android.support.v4.view.MenuItemCompat;
 import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
+import android.text.TextUtils;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
+import android.widget.EditText;
 import android.widget.Toast;
 
 import com.example.android.shopit.data.StockContract;
+import com.example.android.shopit.data.StockContract.StockEntry;
+import com.example.android.shopit.data.StockExporter;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
 
 /**
  * Displays list of stocks that were entered and stored in the app.
@@ -30,20 +44,183 @@ public class MainActivity extends AppCompatActivity implements
         LoaderManager.LoaderCallbacks<Cursor> {
     public static final String LOG_TAG = MainActivity.class.getSimpleName();
     /**
-     * Identifier for the stock data loader
+     * Identifier for the loader of the first page of stock data. Page n uses STOCK_LOADER + n.
      */
     private static final int STOCK_LOADER = 0;
 
     /**
-     * Adapter for the ListView
+     * Identifier for the stock search loader
+     */
+    private static final int SEARCH_LOADER = -1;
+
+    /**
+     * How long the search text has to stay unchanged before it is searched for, so typing a word
+     * runs one search instead of one per keystroke.
+     */
+    private static final long SEARCH_DELAY_MILLIS = 250;
+
+    /**
+     * Bundle key for the text to search for
+     */
+    private static final String ARG_QUERY = "query";
+
+    /**
+     * Number of stocks loaded per page
+     */
+    private static final int PAGE_SIZE = 50;
+
+    /**
+     * The next page is requested once the user scrolls within this many rows of the end
+     */
+    private static final int PREFETCH_DISTANCE = PAGE_SIZE / 2;
+
+    /**
+     * Bundle key for the {@link StockContract.StockEntry#_ID} a page starts after
+     */
+    private static final String ARG_AFTER_ID = "after_id";
+
+    /**
+     * Bundle key for the value of the sort column a page starts after
+     */
+    private static final String ARG_AFTER_VALUE = "after_value";
+
+    /**
+     * Value of {@link #mTypeFilter} when stocks of every type are shown
+     */
+    private static final int NO_TYPE_FILTER = -1;
+
+    /**
+     * Request code for picking a document to import
+     */
+    private static final int IMPORT_REQUEST = 1;
+
+    /**
+     * MIME types offered when picking a document to import
+     */
+    private static final String[] IMPORT_MIME_TYPES = {
+            "text/*", "application/csv", "application/vnd.ms-excel"};
+
+    /**
+     * Request code for creating the document to export to
+     */
+    private static final int EXPORT_REQUEST = 2;
+
+    /**
+     * Bundle key for the export format chosen while the document is being created
+     */
+    private static final String STATE_EXPORT_FORMAT = "export_format";
+
+    /**
+     * Bundle keys for the sort order and filters of the list
+     */
+    private static final String STATE_SORT_COLUMN = "sort_column";
+    private static final String STATE_SORT_DESCENDING = "sort_descending";
+    private static final String STATE_TYPE_FILTER = "type_filter";
+    private static final String STATE_SUPPLIER_FILTER = "supplier_filter";
+    private static final String STATE_IN_STOCK_ONLY = "in_stock_only";
+
+    /**
+     * Bundle key for the text being searched for
+     */
+    private static final String STATE_SEARCH_QUERY = "search_query";
+
+    /**
+     * Adapter for the RecyclerView
      */
     StockCursorAdapter mCursorAdapter;
 
+    /**
+     * Shown instead of the list when there are no stocks to show
+     */
+    private View mEmptyView;
+
+    /**
+     * The pages of stock data, in list order. Page n is loaded by loader STOCK_LOADER + n.
+     */
+    private final List<Page> mPages = new ArrayList<>();
+
+    /**
+     * The text being searched for, or null when the full stock list is shown
+     */
+    private String mSearchQuery;
+
+    /**
+     * The results of the current search, or null while they are loading
+     */
+    private StockList mSearchResults;
+
+    /**
+     * Used to run the search once the user stops typing
+     */
+    private final Handler mSearchHandler = new Handler();
+
+    /**
+     * The running import, or null
+     */
+    private StockImportTask mImportTask;
+
+    /**
+     * The running export, or null
+     */
+    private StockExportTask mExportTask;
+
+    /**
+     * The running purchase order generation, or null
+     */
+    private PurchaseOrderTask mPurchaseOrderTask;
+
+    /**
+     * The chosen entry of {@link R.array#array_export_formats}: CSV, CSV (gzip), JSON or
+     * JSON (gzip)
+     */
+    private int mExportFormat;
+
+    /**
+     * The column the list is sorted by, one of the columns accepted by
+     * {@link StockEntry#QUERY_PARAMETER_SORT}
+     */
+    private String mSortColumn = StockEntry._ID;
+
+    /**
+     * Whether the list is sorted from the largest value down
+     */
+    private boolean mSortDescending;
+
+    /**
+     * The only type of stock shown, or {@link #NO_TYPE_FILTER}
+     */
+    private int mTypeFilter = NO_TYPE_FILTER;
+
+    /**
+     * The only supplier whose stocks are shown, or null
+     */
+    private String mSupplierFilter;
+
+    /**
+     * Whether only stocks with a quantity left are shown
+     */
+    private boolean mInStockOnly;
+
+    /**
+     * Searches for {@link #mSearchQuery}
+     */
+    private final Runnable mSearchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Bundle args = new Bundle();
+            args.putString(ARG_QUERY, mSearchQuery);
+            getLoaderManager().restartLoader(SEARCH_LOADER, args, MainActivity.this);
+        }
+    };
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
+        // Tell the user about stocks going below their reorder threshold from now on
+        LowStockWatcher.getInstance(this).start();
+
         // Setup FAB to open EditorActivity
         FloatingActionButton fab = (FloatingActionButton) findViewById(R.id.fab);
         fab.setOnClickListener(new View.OnClickListener() {
@@ -54,22 +231,19 @@ public class MainActivity extends AppCompatActivity implements
             }
         });
 
-        // Find the ListView which will be populated with the stock data
-        ListView stockListView = (ListView) findViewById(R.id.list);
+        // Find the RecyclerView which will be populated with the stock data
+        RecyclerView stockListView = (RecyclerView) findViewById(R.id.list);
+        final LinearLayoutManager layoutManager =
+                (LinearLayoutManager) stockListView.getLayoutManager();
 
-        // Find and set empty view on the ListView, so that it only shows when the list has 0 items.
-        View emptyView = findViewById(R.id.empty_view);
-        stockListView.setEmptyView(emptyView);
-
-        // Setup an Adapter to create a list item for each row of stock data in the Cursor.
-        // There is no stock data yet (until the loader finishes) so pass in null for the Cursor.
-        mCursorAdapter = new StockCursorAdapter(this, null);
-        stockListView.setAdapter(mCursorAdapter);
+        // Find the empty view, so that it only shows when the list has 0 items.
+        mEmptyView = findViewById(R.id.empty_view);
 
-        // Setup the item click listener
-        stockListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        // Setup an Adapter to create a list item for each row of stock data.
+        // There is no stock data yet (until the loader finishes) so the list starts out empty.
+        mCursorAdapter = new StockCursorAdapter(this, new StockCursorAdapter.OnStockClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int position, long id) {
+            public void onStockClick(long id) {
                 // Create new intent to go to {@link EditorActivity}
                 Intent intent = new Intent(MainActivity.this, EditorActivity.class);
 
@@ -87,9 +261,204 @@ public class MainActivity extends AppCompatActivity implements
                 startActivity(intent);
             }
         });
+        mCursorAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onChanged() {
+                updateEmptyView();
+            }
+
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+        });
+        stockListView.setAdapter(mCursorAdapter);
+        updateEmptyView();
+
+        // Load the next page of stocks as the user scrolls towards the end of the list
+        stockListView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                int lastVisibleItem = layoutManager.findLastVisibleItemPosition();
+                if (lastVisibleItem >= mCursorAdapter.getItemCount() - PREFETCH_DISTANCE) {
+                    loadNextPage();
+                }
+            }
+        });
+
+        if (savedInstanceState != null) {
+            mExportFormat = savedInstanceState.getInt(STATE_EXPORT_FORMAT);
+            mSortColumn = savedInstanceState.getString(STATE_SORT_COLUMN, StockEntry._ID);
+            mSortDescending = savedInstanceState.getBoolean(STATE_SORT_DESCENDING);
+            mTypeFilter = savedInstanceState.getInt(STATE_TYPE_FILTER, NO_TYPE_FILTER);
+            mSupplierFilter = savedInstanceState.getString(STATE_SUPPLIER_FILTER);
+            mInStockOnly = savedInstanceState.getBoolean(STATE_IN_STOCK_ONLY);
+            mSearchQuery = savedInstanceState.getString(STATE_SEARCH_QUERY);
+        }
+
+        // The loaders of the pages after the first are kept across a configuration change with
+        // the position the old first page ended at, which may have moved since. Drop them, so
+        // they are loaded again from the new first page as the user scrolls.
+        LoaderManager loaderManager = getLoaderManager();
+        for (int id = STOCK_LOADER + 1; loaderManager.getLoader(id) != null; id++) {
+            loaderManager.destroyLoader(id);
+        }
+
+        // Kick off the loader for the first page
+        mPages.add(new Page(null));
+        loaderManager.initLoader(STOCK_LOADER, null, this);
+
+        // Search again for the text that was being searched for
+        if (mSearchQuery != null) {
+            mSearchRunnable.run();
+        }
+    }
+
+    /**
+     * Start loading the page after the last loaded one, unless a page is still loading or the
+     * last page wasn't full (which means there are no more stocks to load).
+     */
+    private void loadNextPage() {
+        // Search results aren't paged
+        if (mSearchQuery != null) {
+            return;
+        }
+
+        Page lastPage = mPages.get(mPages.size() - 1);
+        if (lastPage.stocks == null || lastPage.stale || lastPage.stocks.size() < PAGE_SIZE) {
+            return;
+        }
+
+        Bundle args = buildPageArgs(lastPage.stocks);
+        mPages.add(new Page(args));
+        getLoaderManager().initLoader(STOCK_LOADER + mPages.size() - 1, args, this);
+    }
+
+    /**
+     * Returns the loader arguments of the page after the given one: it starts right after the
+     * last stock of the given page, in the order the list is sorted in.
+     */
+    private Bundle buildPageArgs(StockList page) {
+        int last = page.size() - 1;
+        Bundle args = new Bundle();
+        args.putLong(ARG_AFTER_ID, page.ids[last]);
+        args.putString(ARG_AFTER_VALUE, getSortValue(page, last));
+        return args;
+    }
+
+    /**
+     * Make sure the page after the given one starts right after the stock the given page now
+     * ends at. Every page loads again on its own when the stocks change, and a stock that was
+     * added, removed, or moved in the sort order by a sale shifts every page after it, so the
+     * pages are followed along the list until they line up again.
+     */
+    private void followPage(int index) {
+        int next = index + 1;
+        if (next >= mPages.size()) {
+            return;
+        }
+
+        StockList stocks = mPages.get(index).stocks;
+        LoaderManager loaderManager = getLoaderManager();
+        if (stocks.size() < PAGE_SIZE) {
+            // The list ends on this page now
+            int pages = mPages.size();
+            mPages.subList(next, pages).clear();
+            for (int i = pages - 1; i >= next; i--) {
+                loaderManager.destroyLoader(STOCK_LOADER + i);
+            }
+            return;
+        }
+
+        Bundle args = buildPageArgs(stocks);
+        Page page = mPages.get(next);
+        if (page.args.getLong(ARG_AFTER_ID) != args.getLong(ARG_AFTER_ID)
+                || !TextUtils.equals(page.args.getString(ARG_AFTER_VALUE),
+                args.getString(ARG_AFTER_VALUE))) {
+            page.args = args;
+            page.stale = page.stocks != null;
+            loaderManager.restartLoader(STOCK_LOADER + next, args, this);
+        }
+    }
+
+    /**
+     * Returns the value of the sort column of the stock at the given position of a page, or null
+     * if the list is sorted by {@link StockEntry#_ID} or the stock has no value.
+     */
+    private String getSortValue(StockList page, int position) {
+        switch (mSortColumn) {
+            case StockEntry.COLUMN_STOCK_NAME:
+                return page.names[position];
+            case StockEntry.COLUMN_STOCK_SUPPLIER:
+                return page.suppliers[position];
+            case StockEntry.COLUMN_STOCK_QUANTITY:
+                return String.valueOf(page.quantities[position]);
+            case StockEntry.COLUMN_STOCK_PRICE:
+                return String.valueOf(page.prices[position]);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Load the list again from the first page, after its sort order or filters changed.
+     */
+    private void reloadPages() {
+        // Drop the pages before destroying their loaders, so each destroyed loader doesn't
+        // rebuild the list. The rows on screen stay until the new first page comes in.
+        int pages = mPages.size();
+        mPages.clear();
+        mPages.add(new Page(null));
+
+        LoaderManager loaderManager = getLoaderManager();
+        for (int i = pages - 1; i > 0; i--) {
+            loaderManager.destroyLoader(STOCK_LOADER + i);
+        }
+        loaderManager.restartLoader(STOCK_LOADER, null, this);
+    }
+
+    /**
+     * Show the search results while searching. Otherwise show all loaded pages in the list, up
+     * to the first page that is still loading. While a page is loading again after a different
+     * stock, the list stays as it is.
+     */
+    private void showPages() {
+        if (mSearchQuery != null) {
+            // Keep showing the current rows until the first results come in
+            if (mSearchResults != null) {
+                mCursorAdapter.swapStockList(mSearchResults);
+            }
+            return;
+        }
 
-        // Kick off the loader
-        getLoaderManager().initLoader(STOCK_LOADER, null, this);
+        List<StockList> loaded = new ArrayList<>();
+        for (Page page : mPages) {
+            if (page.stocks == null) {
+                break;
+            }
+            if (page.stale) {
+                // Showing it would show a stock twice, or leave one out
+                return;
+            }
+            loaded.add(page.stocks);
+        }
+        if (loaded.isEmpty()) {
+            mCursorAdapter.swapStockList(null);
+        } else {
+            mCursorAdapter.swapStockList(StockList.concat(loaded));
+        }
+    }
+
+    /**
+     * Show the empty view instead of the list when there are no stocks in it.
+     */
+    private void updateEmptyView() {
+        mEmptyView.setVisibility(mCursorAdapter.getItemCount() == 0 ? View.VISIBLE : View.GONE);
     }
 
     @Override
@@ -97,17 +466,232 @@ public class MainActivity extends AppCompatActivity implements
         // Inflate the menu options from the res/menu/menu_inventory.xml file.
         // This adds menu items to the app bar.
         getMenuInflater().inflate(R.menu.menu_inventory, menu);
+
+        // Search the stocks as the user types in the search box
+        MenuItem searchItem = menu.findItem(R.id.action_search);
+        SearchView searchView = (SearchView) MenuItemCompat.getActionView(searchItem);
+        searchView.setQueryHint(getString(R.string.search_hint));
+
+        // Show the text of a search carried over from before the activity was recreated.
+        // Expanding clears the text, and the listener isn't set yet so neither runs a search.
+        if (mSearchQuery != null) {
+            MenuItemCompat.expandActionView(searchItem);
+            searchView.setQuery(mSearchQuery, false);
+        }
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                search(query, 0);
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                search(newText, SEARCH_DELAY_MILLIS);
+                return true;
+            }
+        });
         return true;
     }
 
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        // Check the current sort order and filters
+        int sortItem;
+        switch (mSortColumn) {
+            case StockEntry.COLUMN_STOCK_NAME:
+                sortItem = R.id.sort_name;
+                break;
+            case StockEntry.COLUMN_STOCK_SUPPLIER:
+                sortItem = R.id.sort_supplier;
+                break;
+            case StockEntry.COLUMN_STOCK_QUANTITY:
+                sortItem = R.id.sort_quantity;
+                break;
+            case StockEntry.COLUMN_STOCK_PRICE:
+                sortItem = mSortDescending ? R.id.sort_price_high : R.id.sort_price_low;
+                break;
+            default:
+                sortItem = R.id.sort_date_added;
+        }
+        menu.findItem(sortItem).setChecked(true);
+
+        int typeItem;
+        switch (mTypeFilter) {
+            case StockEntry.TYPE_ONE:
+                typeItem = R.id.filter_type_one;
+                break;
+            case StockEntry.TYPE_TWO:
+                typeItem = R.id.filter_type_two;
+                break;
+            default:
+                typeItem = R.id.filter_type_all;
+        }
+        menu.findItem(typeItem).setChecked(true);
+        menu.findItem(R.id.filter_in_stock).setChecked(mInStockOnly);
+        menu.findItem(R.id.filter_supplier).setTitle(mSupplierFilter == null
+                ? getString(R.string.filter_supplier)
+                : getString(R.string.filter_supplier_value, mSupplierFilter));
+        return super.onPrepareOptionsMenu(menu);
+    }
+
+    /**
+     * Sort the list by the given column, unless it already is.
+     */
+    private void sortBy(String column, boolean descending) {
+        if (!column.equals(mSortColumn) || descending != mSortDescending) {
+            mSortColumn = column;
+            mSortDescending = descending;
+            reloadPages();
+        }
+    }
+
+    /**
+     * Only show stocks of the given type, or of every type for {@link #NO_TYPE_FILTER}.
+     */
+    private void filterType(int type) {
+        if (type != mTypeFilter) {
+            mTypeFilter = type;
+            reloadPages();
+        }
+    }
+
+    /**
+     * Let the user enter the supplier to show the stocks of. Leaving it empty shows every
+     * supplier again.
+     */
+    private void showSupplierFilterDialog() {
+        final EditText supplierText = new EditText(this);
+        supplierText.setHint(R.string.hint_supplier);
+        supplierText.setSingleLine();
+        supplierText.setText(mSupplierFilter);
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(R.string.filter_supplier);
+        builder.setView(supplierText);
+        builder.setPositiveButton(android.R.string.ok, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                String supplier = supplierText.getText().toString().trim();
+                supplier = TextUtils.isEmpty(supplier) ? null : supplier;
+                if (!TextUtils.equals(supplier, mSupplierFilter)) {
+                    mSupplierFilter = supplier;
+                    reloadPages();
+                }
+            }
+        });
+        builder.setNegativeButton(R.string.cancel, null);
+        builder.create().show();
+    }
+
+    /**
+     * Search for the given text after the given delay, replacing any search that hasn't run yet.
+     * Empty text goes back to showing the full stock list.
+     */
+    private void search(String query, long delayMillis) {
+        mSearchHandler.removeCallbacks(mSearchRunnable);
+        query = query == null ? "" : query.trim();
+
+        if (TextUtils.isEmpty(query)) {
+            if (mSearchQuery != null) {
+                mSearchQuery = null;
+                mSearchResults = null;
+                getLoaderManager().destroyLoader(SEARCH_LOADER);
+                showPages();
+            }
+            return;
+        }
+
+        mSearchQuery = query;
+        mSearchHandler.postDelayed(mSearchRunnable, delayMillis);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mSearchHandler.removeCallbacks(mSearchRunnable);
+
+        // Let a running import finish without its progress dialog
+        if (mImportTask != null) {
+            mImportTask.detach();
+        }
+        if (mExportTask != null) {
+            mExportTask.detach();
+        }
+        if (mPurchaseOrderTask != null) {
+            mPurchaseOrderTask.detach();
+        }
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putInt(STATE_EXPORT_FORMAT, mExportFormat);
+        outState.putString(STATE_SORT_COLUMN, mSortColumn);
+        outState.putBoolean(STATE_SORT_DESCENDING, mSortDescending);
+        outState.putInt(STATE_TYPE_FILTER, mTypeFilter);
+        outState.putString(STATE_SUPPLIER_FILTER, mSupplierFilter);
+        outState.putBoolean(STATE_IN_STOCK_ONLY, mInStockOnly);
+        outState.putString(STATE_SEARCH_QUERY, mSearchQuery);
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         // User clicked on a menu option in the app bar overflow menu
         switch (item.getItemId()) {
+            // Respond to a click on one of the "Sort by" options
+            case R.id.sort_date_added:
+                sortBy(StockEntry._ID, false);
+                return true;
+            case R.id.sort_name:
+                sortBy(StockEntry.COLUMN_STOCK_NAME, false);
+                return true;
+            case R.id.sort_supplier:
+                sortBy(StockEntry.COLUMN_STOCK_SUPPLIER, false);
+                return true;
+            case R.id.sort_quantity:
+                sortBy(StockEntry.COLUMN_STOCK_QUANTITY, false);
+                return true;
+            case R.id.sort_price_low:
+                sortBy(StockEntry.COLUMN_STOCK_PRICE, false);
+                return true;
+            case R.id.sort_price_high:
+                sortBy(StockEntry.COLUMN_STOCK_PRICE, true);
+                return true;
+            // Respond to a click on one of the "Filter" options
+            case R.id.filter_type_all:
+                filterType(NO_TYPE_FILTER);
+                return true;
+            case R.id.filter_type_one:
+                filterType(StockEntry.TYPE_ONE);
+                return true;
+            case R.id.filter_type_two:
+                filterType(StockEntry.TYPE_TWO);
+                return true;
+            case R.id.filter_in_stock:
+                mInStockOnly = !mInStockOnly;
+                reloadPages();
+                return true;
+            case R.id.filter_supplier:
+                showSupplierFilterDialog();
+                return true;
             // Respond to a click on the "Insert dummy data" menu option
             case R.id.action_insert_dummy_data:
                 insertStock();
                 return true;
+            // Respond to a click on the "Import stock" menu option
+            case R.id.action_import:
+                openImportSelector();
+                return true;
+            // Respond to a click on the "Export stock" menu option
+            case R.id.action_export:
+                showExportFormatDialog();
+                return true;
+            // Respond to a click on the "Order low stock" menu option
+            case R.id.action_purchase_orders:
+                mPurchaseOrderTask = new PurchaseOrderTask(this);
+                mPurchaseOrderTask.execute();
+                return true;
             // Respond to a click on the "Delete all entries" menu option
             case R.id.action_delete_all_entries:
                 showDeleteConfirmationDialog();
@@ -116,6 +700,101 @@ public class MainActivity extends AppCompatActivity implements
         return super.onOptionsItemSelected(item);
     }
 
+    /**
+     * Let the user pick a CSV or TSV document of stocks to import.
+     */
+    private void openImportSelector() {
+        Intent intent;
+        if (Build.VERSION.SDK_INT < 19) {
+            intent = new Intent(Intent.ACTION_GET_CONTENT);
+            intent.setType("text/*");
+        } else {
+            intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+            intent.setType("*/*");
+            intent.putExtra(Intent.EXTRA_MIME_TYPES, IMPORT_MIME_TYPES);
+        }
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        startActivityForResult(Intent.createChooser(intent, getString(R.string.action_import)),
+                IMPORT_REQUEST);
+    }
+
+    /**
+     * Let the user pick the format to export the stock in, then where to export it to.
+     */
+    private void showExportFormatDialog() {
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(R.string.action_export);
+        builder.setItems(R.array.array_export_formats, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                mExportFormat = which;
+                openExportDestination();
+            }
+        });
+        builder.create().show();
+    }
+
+    /**
+     * Let the user create the document to export to. Before document creation was available
+     * the stock is exported to the app's own folder on external storage.
+     */
+    private void openExportDestination() {
+        boolean json = isJsonExport();
+        boolean gzip = isGzipExport();
+        String fileName = "stock-" + new SimpleDateFormat("yyyyMMdd", Locale.US).format(new Date())
+                + (json ? ".json" : ".csv") + (gzip ? ".gz" : "");
+
+        if (Build.VERSION.SDK_INT < 19) {
+            File exportDir = getExternalFilesDir(null);
+            if (exportDir == null) {
+                exportDir = getFilesDir();
+            }
+            exportStock(Uri.fromFile(new File(exportDir, fileName)));
+            return;
+        }
+
+        Intent intent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType(gzip ? "application/gzip" : (json ? "application/json" : "text/csv"));
+        intent.putExtra(Intent.EXTRA_TITLE, fileName);
+        startActivityForResult(intent, EXPORT_REQUEST);
+    }
+
+    private boolean isJsonExport() {
+        return mExportFormat >= 2;
+    }
+
+    private boolean isGzipExport() {
+        return mExportFormat % 2 == 1;
+    }
+
+    /**
+     * Export all stock to the given document in the background.
+     */
+    private void exportStock(Uri destination) {
+        mExportTask = new StockExportTask(this, destination,
+                isJsonExport() ? StockExporter.FORMAT_JSON : StockExporter.FORMAT_CSV,
+                isGzipExport());
+        mExportTask.execute();
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (requestCode == IMPORT_REQUEST && resultCode == RESULT_OK && data != null
+                && data.getData() != null) {
+            // Import in the background, the list reloads as the stocks are inserted
+            mImportTask = new StockImportTask(this);
+            mImportTask.execute(data.getData());
+            return;
+        }
+        if (requestCode == EXPORT_REQUEST && resultCode == RESULT_OK && data != null
+                && data.getData() != null) {
+            exportStock(data.getData());
+            return;
+        }
+        super.onActivityResult(requestCode, resultCode, data);
+    }
+
     /**
      * Helper method to insert hardcoded stock data into the database. For debugging purposes only.
      */
@@ -192,27 +871,120 @@ public class MainActivity extends AppCompatActivity implements
                 StockContract.StockEntry.COLUMN_STOCK_QUANTITY,
                 StockContract.StockEntry.COLUMN_STOCK_TYPE,
                 StockContract.StockEntry.COLUMN_STOCK_PRICE,
-                StockContract.StockEntry.COLUMN_STOCK_SUPPLIER};
+                StockContract.StockEntry.COLUMN_STOCK_SUPPLIER,
+                StockContract.StockEntry.COLUMN_STOCK_VERSION};
 
+        if (i == SEARCH_LOADER) {
+            // This loader will search the stocks on a background thread
+            return new StockListLoader(this,
+                    StockContract.StockEntry.buildSearchUri(bundle.getString(ARG_QUERY)),
+                    projection,
+                    null,
+                    null,
+                    null);
+        }
 
         // This loader will execute the ContentProvider's query method on a background thread
-        return new CursorLoader(this,   // Parent activity context
-                StockContract.StockEntry.CONTENT_URI,   // Provider content URI to query
+        return new StockListLoader(this,   // Parent activity context
+                buildPageUri(bundle),   // One page of stocks
                 projection,             // Columns to include in the resulting Cursor
                 null,                   // No selection clause
                 null,                   // No selection arguments
-                null);                  // Default sort order
+                null);                  // Sort order is part of the URI
+    }
+
+    /**
+     * Returns the URI of a page of stocks in the current sort order and with the current
+     * filters. Each page starts after the last stock of the page before it, given by the
+     * bundle. The first page has no bundle and starts at the beginning of the list.
+     */
+    private Uri buildPageUri(Bundle bundle) {
+        Uri.Builder builder = StockEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(StockEntry.QUERY_PARAMETER_LIMIT,
+                        String.valueOf(PAGE_SIZE))
+                .appendQueryParameter(StockEntry.QUERY_PARAMETER_SORT, mSortColumn)
+                .appendQueryParameter(StockEntry.QUERY_PARAMETER_DESCENDING,
+                        String.valueOf(mSortDescending));
+        if (bundle != null) {
+            builder.appendQueryParameter(StockEntry.QUERY_PARAMETER_AFTER_ID,
+                    String.valueOf(bundle.getLong(ARG_AFTER_ID)));
+            String afterValue = bundle.getString(ARG_AFTER_VALUE);
+            if (afterValue != null) {
+                builder.appendQueryParameter(StockEntry.QUERY_PARAMETER_AFTER_VALUE, afterValue);
+            }
+        }
+
+        // The provider only accepts sort columns and filters it has an index for
+        if (mTypeFilter != NO_TYPE_FILTER) {
+            builder.appendQueryParameter(StockEntry.QUERY_PARAMETER_TYPE,
+                    String.valueOf(mTypeFilter));
+        }
+        if (mSupplierFilter != null) {
+            builder.appendQueryParameter(StockEntry.QUERY_PARAMETER_SUPPLIER, mSupplierFilter);
+        }
+        if (mInStockOnly) {
+            builder.appendQueryParameter(StockEntry.QUERY_PARAMETER_IN_STOCK, "true");
+        }
+        return builder.build();
     }
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        // Update {@link StockCursorAdapter} with this new cursor containing updated stock data
-        mCursorAdapter.swapCursor(data);
+        // Update {@link StockCursorAdapter} with this new page of stock data or search results
+        // The rows were already read into a snapshot by the loader, in the background
+        StockList stockList = StockListLoader.getStockList(data);
+        if (loader.getId() == SEARCH_LOADER) {
+            mSearchResults = stockList;
+        } else {
+            int index = loader.getId() - STOCK_LOADER;
+            Page page = mPages.get(index);
+            page.stocks = stockList;
+            page.stale = false;
+            followPage(index);
+        }
+        showPages();
     }
 
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
         // Callback called when the data needs to be deleted
-        mCursorAdapter.swapCursor(null);
+        if (loader.getId() == SEARCH_LOADER) {
+            mSearchResults = null;
+        } else {
+            // Pages dropped from the list are no longer shown anyway
+            int page = loader.getId() - STOCK_LOADER;
+            if (page >= mPages.size()) {
+                return;
+            }
+            mPages.get(page).stocks = null;
+        }
+        showPages();
+    }
+
+    /**
+     * A page of the stock list
+     */
+    private static final class Page {
+
+        /**
+         * The arguments of the page's loader, the last stock of the page before it, or null for
+         * the first page
+         */
+        Bundle args;
+
+        /**
+         * The stocks of the page, or null while it is loading
+         */
+        StockList stocks;
+
+        /**
+         * Whether the stocks were loaded after a different stock than the one the page before
+         * now ends at, while the page loads again
+         */
+        boolean stale;
+
+        Page(Bundle args) {
+            this.args = args;
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,130 @@
+package com.example.android.shopit;
+
+import android.app.Activity;
+import android.app.ProgressDialog;
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.support.v4.content.FileProvider;
+import android.util.Log;
+import android.widget.Toast;
+
+import com.example.android.shopit.data.PurchaseOrderGenerator;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Writes the purchase orders of every supplier in the background with a
+ * {@link PurchaseOrderGenerator}, then offers to send them all at once.
+ */
+class PurchaseOrderTask extends AsyncTask<Void, Void, PurchaseOrderGenerator.Result> {
+
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = PurchaseOrderTask.class.getSimpleName();
+
+    /**
+     * Authority of the {@link FileProvider} declared in the manifest
+     */
+    private static final String FILE_PROVIDER_AUTHORITY = "com.example.android.fileprovider";
+
+    private final Context mContext;
+    private final PurchaseOrderGenerator mGenerator;
+    private final File mDirectory;
+    private ProgressDialog mDialog;
+
+    /**
+     * Constructs a new {@link PurchaseOrderTask} showing its progress over the given activity.
+     */
+    PurchaseOrderTask(Activity activity) {
+        mContext = activity.getApplicationContext();
+        mGenerator = new PurchaseOrderGenerator(mContext,
+                mContext.getString(R.string.unknown_type));
+
+        // Keep the orders where they can be shared from if possible
+        File ordersDir = mContext.getExternalFilesDir(null);
+        if (ordersDir == null) {
+            ordersDir = mContext.getFilesDir();
+        }
+        mDirectory = new File(ordersDir, "purchase-orders-" + System.currentTimeMillis());
+
+        mDialog = new ProgressDialog(activity);
+        mDialog.setMessage(activity.getString(R.string.purchase_orders_progress));
+        mDialog.setIndeterminate(true);
+        mDialog.setCancelable(false);
+    }
+
+    /**
+     * Stop showing progress, for when the activity goes away. The orders are still written and
+     * offered for sending.
+     */
+    void detach() {
+        if (mDialog != null) {
+            mDialog.dismiss();
+            mDialog = null;
+        }
+    }
+
+    @Override
+    protected void onPreExecute() {
+        mDialog.show();
+    }
+
+    @Override
+    protected PurchaseOrderGenerator.Result doInBackground(Void... params) {
+        try {
+            return mGenerator.generate(mDirectory);
+        } catch (IOException | RuntimeException e) {
+            Log.e(LOG_TAG, "Failed to write the purchase orders to " + mDirectory, e);
+            return null;
+        }
+    }
+
+    @Override
+    protected void onPostExecute(PurchaseOrderGenerator.Result result) {
+        detach();
+
+        String message;
+        if (result == null) {
+            message = mContext.getString(R.string.purchase_orders_failed);
+        } else if (result.lines == 0) {
+            message = mContext.getString(R.string.purchase_orders_none);
+        } else {
+            message = mContext.getString(R.string.purchase_orders_finished, result.orders.size(),
+                    result.lines);
+            sendOrders(result);
+        }
+        Toast.makeText(mContext, message, Toast.LENGTH_LONG).show();
+    }
+
+    /**
+     * Let the user send all of the orders in one go, through an email app for example.
+     */
+    private void sendOrders(PurchaseOrderGenerator.Result result) {
+        ArrayList<Uri> uris = new ArrayList<>(result.orders.size());
+        try {
+            for (File order : result.orders) {
+                uris.add(FileProvider.getUriForFile(mContext, FILE_PROVIDER_AUTHORITY, order));
+            }
+        } catch (IllegalArgumentException e) {
+            // Orders in internal storage can't be shared, they stay where they were written
+            Log.w(LOG_TAG, "Can't share the purchase orders in " + mDirectory, e);
+            return;
+        }
+
+        Intent intent = new Intent(Intent.ACTION_SEND_MULTIPLE);
+        intent.setType("text/csv");
+        intent.putExtra(Intent.EXTRA_SUBJECT, mContext.getString(R.string.email_subject));
+        intent.putParcelableArrayListExtra(Intent.EXTRA_STREAM, uris);
+        intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+
+        Intent chooser = Intent.createChooser(intent,
+                mContext.getString(R.string.action_purchase_orders));
+        chooser.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        mContext.startActivity(chooser);
+    }
+}
@@ -4,139 +4,325 @@ package com.example.android.shopit;
  * Created by FEY-AGAPE on 20/07/2017.
  */
 
-import android.content.ContentUris;
-import android.content.ContentValues;
 import android.content.Context;
-import android.database.Cursor;
-import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
 import android.text.TextUtils;
-import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.CursorAdapter;
 import android.widget.ImageButton;
+import android.widget.ImageView;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.example.android.shopit.data.Metrics;
 import com.example.android.shopit.data.StockContract.StockEntry;
+import com.example.android.shopit.data.StockWriter;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 import static com.example.android.shopit.R.string.quantity;
 import static java.lang.Integer.parseInt;
 
 /**
- * {@link StockCursorAdapter} is an adapter for a list or grid view
- * that uses a {@link Cursor} of stock data as its data source. This adapter knows
- * how to create list items for each row of stock data in the {@link Cursor}.
+ * {@link StockCursorAdapter} is an adapter for a {@link RecyclerView} that uses stock data
+ * loaded from a {@link android.database.Cursor} as its data source. This adapter knows how to
+ * create list items for each row of stock data.
+ * <p>
+ * Each time new stock data is loaded it is compared with the data on screen on a background
+ * thread, and only the rows that were added, removed or changed are rebound.
  */
-public class StockCursorAdapter extends CursorAdapter {
+public class StockCursorAdapter extends RecyclerView.Adapter<StockCursorAdapter.ViewHolder> {
+
+    /**
+     * Interface for receiving clicks on a stock in the list.
+     */
+    public interface OnStockClickListener {
+        /**
+         * Called when the stock with the given {@link StockEntry#_ID} has been clicked.
+         */
+        void onStockClick(long id);
+    }
+
+    /**
+     * Executor that compares stock data in the background. A single thread is enough, only the
+     * latest comparison is ever applied.
+     */
+    private static final Executor sDiffExecutor = Executors.newSingleThreadExecutor();
+
+    private final Context mContext;
+    private final OnStockClickListener mOnStockClickListener;
+    private final StockImageLoader mImageLoader;
+    private final int mThumbnailSize;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * The stock data currently shown in the list
+     */
+    private StockList mStockList = StockList.EMPTY;
+
+    /**
+     * Incremented every time new stock data is swapped in, so a comparison that finishes after
+     * newer data has arrived is thrown away.
+     */
+    private int mGeneration;
+
+    /**
+     * Click listener shared by the sale buttons of all rows. The row a button belongs to is read
+     * from the {@link ViewHolder} set as the button's tag.
+     */
+    private final View.OnClickListener mSaleClickListener = new View.OnClickListener() {
+
+        @Override
+        public void onClick(View view) {
+            ViewHolder holder = (ViewHolder) view.getTag();
+
+            // The quantity on screen already includes sales that are still being written
+            int stockQuantity = parseInt(holder.quantityTextView.getText().toString());
+            if (stockQuantity <= 0) {
+                Toast.makeText(mContext, R.string.sale_unsuccessful, Toast.LENGTH_SHORT).show();
+                return;
+            }
+            holder.quantityTextView.setText(Integer.toString(stockQuantity - 1));
+
+            // Sell the item in the background, taps that come in quickly become one write
+            StockWriter.getInstance(mContext).sell(holder.id, mSaleCallback);
+        }
+    };
+
+    /**
+     * Receives the outcome of the sales started from the sale buttons.
+     */
+    private final StockWriter.SaleCallback mSaleCallback = new StockWriter.SaleCallback() {
+
+        @Override
+        public void onSaleFinished(long id, int count, int sold, int quantity) {
+            if (sold == count) {
+                Toast.makeText(mContext, R.string.sale_successful, Toast.LENGTH_SHORT).show();
+                return;
+            }
+            Toast.makeText(mContext, R.string.sale_unsuccessful, Toast.LENGTH_SHORT).show();
+            if (sold > 0) {
+                // The stock ran out part way, the list is reloaded with the quantity left
+                return;
+            }
+
+            // Nothing was written, so the list won't be reloaded. Rebind the row to undo the
+            // quantity that was taken off on screen.
+            long[] ids = mStockList.ids;
+            for (int position = 0; position < ids.length; position++) {
+                if (ids[position] == id) {
+                    notifyItemChanged(position);
+                    break;
+                }
+            }
+        }
+    };
+
+    /**
+     * Click listener shared by all rows, reports the clicked stock to
+     * {@link #mOnStockClickListener}.
+     */
+    private final View.OnClickListener mItemClickListener = new View.OnClickListener() {
+
+        @Override
+        public void onClick(View view) {
+            ViewHolder holder = (ViewHolder) view.getTag();
+            mOnStockClickListener.onStockClick(holder.id);
+        }
+    };
 
     /**
      * Constructs a new {@link StockCursorAdapter}.
      *
-     * @param context The context
-     * @param c       The cursor from which to get the data.
+     * @param context  The context
+     * @param listener The listener to notify when a stock is clicked
      */
-    public StockCursorAdapter(Context context, Cursor c) {
-        super(context, c, 0 /* flags */);
+    public StockCursorAdapter(Context context, OnStockClickListener listener) {
+        mContext = context;
+        mOnStockClickListener = listener;
+        mImageLoader = StockImageLoader.getInstance(context);
+        mThumbnailSize = context.getResources().getDimensionPixelSize(R.dimen.thumbnail_size);
+    }
+
+    /**
+     * Show the given stock data. The new data is compared with the data on screen on a
+     * background thread, and the list is then updated with just the rows that differ.
+     *
+     * @param stockList The new stock data, or null to clear the list.
+     */
+    void swapStockList(StockList stockList) {
+        final StockList newList = stockList == null ? StockList.EMPTY : stockList;
+        final StockList oldList = mStockList;
+        final int generation = ++mGeneration;
+
+        // Nothing to compare against, so just show the new data
+        if (oldList.size() == 0 || newList.size() == 0) {
+            mStockList = newList;
+            notifyDataSetChanged();
+            return;
+        }
+
+        sDiffExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final DiffUtil.DiffResult result =
+                        DiffUtil.calculateDiff(new StockDiffCallback(oldList, newList), false);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != mGeneration) {
+                            return;
+                        }
+                        mStockList = newList;
+                        result.dispatchUpdatesTo(StockCursorAdapter.this);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Returns the stock data currently shown in the list.
+     */
+    StockList getStockList() {
+        return mStockList;
+    }
+
+    @Override
+    public int getItemCount() {
+        return mStockList.size();
     }
 
     /**
      * Makes a new blank list item view. No data is set (or bound) to the views yet.
      *
-     * @param context app context
-     * @param cursor  The cursor from which to get the data. The cursor is already
-     *                moved to the correct position.
-     * @param parent  The parent to which the new view is attached to
-     * @return the newly created list item view.
+     * @param parent   The parent to which the new view is attached to
+     * @param viewType The view type of the new view
+     * @return a holder for the newly created list item view.
      */
     @Override
-    public View newView(Context context, Cursor cursor, ViewGroup parent) {
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
         // Inflate a list item view using the layout specified in list_item.xml
-        return LayoutInflater.from(context).inflate(R.layout.list_item, parent, false);
+        View view = LayoutInflater.from(parent.getContext())
+                .inflate(R.layout.list_item, parent, false);
+
+        // The listeners are shared by all rows, they find the row through the view tags
+        ViewHolder holder = new ViewHolder(view);
+        view.setTag(holder);
+        view.setOnClickListener(mItemClickListener);
+        holder.saleButton.setTag(holder);
+        holder.saleButton.setOnClickListener(mSaleClickListener);
+        return holder;
     }
 
     /**
-     * This method binds the stock data (in the current row pointed to by cursor) to the given
-     * list item layout. For example, the name for the current stock iten can be set on the name TextView
-     * in the list item layout.
+     * This method binds the stock data at the given position to the given list item. For
+     * example, the name for the current stock iten can be set on the name TextView in the list
+     * item layout.
      *
-     * @param view    Existing view, returned earlier by newView() method
-     * @param context app context
-     * @param cursor  The cursor from which to get the data. The cursor is already moved to the
-     *                correct row.
+     * @param holder   Holder of the list item, returned earlier by onCreateViewHolder()
+     * @param position The position of the stock in the list
      */
     @Override
-    public void bindView(View view, final Context context, Cursor cursor) {
-        // Find individual views that we want to modify in the list item layout
-        TextView nameTextView = (TextView) view.findViewById(R.id.name);
-        TextView supplierTextView = (TextView) view.findViewById(R.id.supplier);
-        TextView priceTextView = (TextView) view.findViewById(R.id.item_price);
-        final TextView quantityTextView = (TextView) view.findViewById(R.id.item_quantity);
-        ImageButton saleButton = (ImageButton) view.findViewById(R.id.sale_button);
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        long start = Metrics.begin(Metrics.LIST_BIND);
+        try {
+            bindStock(holder, position);
+        } finally {
+            Metrics.end(Metrics.LIST_BIND, start);
+        }
+    }
 
+    private void bindStock(ViewHolder holder, int position) {
+        StockList stockList = mStockList;
 
-        // Find the columns of stock attributes that we're interested in
-        final String nameColumnIndex = cursor.getString(cursor.getColumnIndex(StockEntry.COLUMN_STOCK_NAME));
-        int supplierColumnIndex = cursor.getColumnIndex(StockEntry.COLUMN_STOCK_SUPPLIER);
-        final String quantityColumnIndex = cursor.getString(cursor.getColumnIndex(StockEntry.COLUMN_STOCK_QUANTITY));
-        int priceColumnIndex = cursor.getColumnIndex(StockEntry.COLUMN_STOCK_PRICE);
-        final long id = cursor.getLong(cursor.getColumnIndex(StockEntry._ID));
+        // Read the stock attributes for the current stock
+        holder.id = stockList.ids[position];
+        String stockName = stockList.names[position];
+        String stockSupplier = stockList.suppliers[position];
+        String stockQuantity = Integer.toString(stockList.quantities[position]);
+        String stockPrice = Integer.toString(stockList.prices[position]);
 
-        // buy button listener
+        // If the stock supplier is empty string or null, then use some default text
+        // that says "Unknown supplier", so the TextView isn't blank.
+        if (TextUtils.isEmpty(stockSupplier)) {
+            stockSupplier = mContext.getString(R.string.unknown_type);
 
-        saleButton.setOnClickListener(new View.OnClickListener() {
+            if (TextUtils.isEmpty(stockPrice))
+                stockPrice = mContext.getString(quantity);
 
-            @Override
-            public void onClick(View view) {
+        }
 
-                int stockQuantity = parseInt(quantityTextView.getText().toString());
-                stockQuantity -= 1;
+        // Update the TextViews with the attributes for the current stock
+        holder.nameTextView.setText(stockName);
+        holder.supplierTextView.setText(stockSupplier);
+        holder.quantityTextView.setText(stockQuantity);
+        holder.priceTextView.setText(stockPrice);
 
-                if (stockQuantity < 0) {
-                    stockQuantity = 0;
-                }
-                quantityTextView.setText(Integer.toString(stockQuantity));
-
-                // find values to update in database
-                ContentValues values = new ContentValues();
-                values.put(StockEntry.COLUMN_STOCK_QUANTITY, stockQuantity);
-
-                // find current stork URI
-                Uri currentStockUri = ContentUris.withAppendedId(StockEntry.CONTENT_URI, id);
-
-                // update affected row in database
-                int rowAffected = context.getContentResolver().update(currentStockUri, values, null, null);
-                Log.v("StockCursor", "Number of rows affected: " + rowAffected);
-                if (rowAffected != 0 && stockQuantity != 0) {
-                    Toast.makeText(context, R.string.sale_successful, Toast.LENGTH_SHORT).show();
-                } else {
-                    Toast.makeText(context, R.string.sale_unsuccessful, Toast.LENGTH_SHORT).show();
-                }
-            }
-        });
+        // The thumbnail is decoded in the background, the row shows it once it's ready
+        mImageLoader.load(stockList.images[position], holder.thumbnailImageView, mThumbnailSize);
+    }
 
+    /**
+     * Holds the child views of a list item, and the id of the stock it currently shows.
+     */
+    static class ViewHolder extends RecyclerView.ViewHolder {
+        final TextView nameTextView;
+        final TextView supplierTextView;
+        final TextView priceTextView;
+        final TextView quantityTextView;
+        final ImageButton saleButton;
+        final ImageView thumbnailImageView;
+        long id;
 
-        // Read the stock attributes from the Cursor for the current stock
-        String stockName = (nameColumnIndex);
-        String stockSupplier = cursor.getString(supplierColumnIndex);
-        String stockQuantity = (quantityColumnIndex);
-        String stockPrice = cursor.getString(priceColumnIndex);
+        ViewHolder(View view) {
+            super(view);
+            nameTextView = (TextView) view.findViewById(R.id.name);
+            supplierTextView = (TextView) view.findViewById(R.id.supplier);
+            priceTextView = (TextView) view.findViewById(R.id.item_price);
+            quantityTextView = (TextView) view.findViewById(R.id.item_quantity);
+            saleButton = (ImageButton) view.findViewById(R.id.sale_button);
+            thumbnailImageView = (ImageView) view.findViewById(R.id.thumbnail);
+        }
+    }
 
-        // If the stock supplier is empty string or null, then use some default text
-        // that says "Unknown supplier", so the TextView isn't blank.
-        if (TextUtils.isEmpty(stockSupplier)) {
-            stockSupplier = context.getString(R.string.unknown_type);
+    /**
+     * Compares two snapshots of stock data. Rows are the same stock if they have the same
+     * {@link StockEntry#_ID}, and their contents are unchanged if the row version is the same.
+     */
+    private static class StockDiffCallback extends DiffUtil.Callback {
 
-            if (TextUtils.isEmpty(stockPrice))
-                stockPrice = context.getString(quantity);
+        private final StockList mOldList;
+        private final StockList mNewList;
 
+        StockDiffCallback(StockList oldList, StockList newList) {
+            mOldList = oldList;
+            mNewList = newList;
         }
 
-        // Update the TextViews with the attributes for the current stock
-        nameTextView.setText(stockName);
-        supplierTextView.setText(stockSupplier);
-        quantityTextView.setText(stockQuantity);
-        priceTextView.setText(stockPrice);
+        @Override
+        public int getOldListSize() {
+            return mOldList.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewList.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldList.ids[oldItemPosition] == mNewList.ids[newItemPosition];
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldList.versions[oldItemPosition] == mNewList.versions[newItemPosition];
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,161 @@
+package com.example.android.shopit;
+
+import android.app.Activity;
+import android.app.ProgressDialog;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.DialogInterface;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Build;
+import android.provider.DocumentsContract;
+import android.util.Log;
+import android.widget.Toast;
+
+import com.example.android.shopit.data.StockExporter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Exports all stocks to a document in the background with a {@link StockExporter}, showing the
+ * progress in a dialog that lets the user cancel the export. A cancelled or failed export
+ * removes the incomplete document.
+ */
+class StockExportTask extends AsyncTask<Void, Integer, StockExporter.Result> {
+
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = StockExportTask.class.getSimpleName();
+
+    private final Context mContext;
+    private final StockExporter mExporter;
+    private final Uri mDestination;
+    private final int mFormat;
+    private final boolean mGzip;
+    private ProgressDialog mDialog;
+
+    /**
+     * Constructs a new {@link StockExportTask} showing its progress over the given activity.
+     *
+     * @param destination the document to write, a document or file URI
+     * @param format      {@link StockExporter#FORMAT_CSV} or {@link StockExporter#FORMAT_JSON}
+     * @param gzip        whether to compress the document
+     */
+    StockExportTask(Activity activity, Uri destination, int format, boolean gzip) {
+        mContext = activity.getApplicationContext();
+        mExporter = new StockExporter(mContext);
+        mDestination = destination;
+        mFormat = format;
+        mGzip = gzip;
+
+        mDialog = new ProgressDialog(activity);
+        mDialog.setMessage(activity.getString(R.string.export_progress));
+        mDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+        mDialog.setIndeterminate(true);
+        mDialog.setCancelable(false);
+        mDialog.setButton(DialogInterface.BUTTON_NEGATIVE, activity.getString(R.string.cancel),
+                new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        mExporter.cancel();
+                        cancel(false);
+                    }
+                });
+    }
+
+    /**
+     * Stop showing progress, for when the activity goes away. The export itself carries on and
+     * its outcome is still reported.
+     */
+    void detach() {
+        if (mDialog != null) {
+            mDialog.dismiss();
+            mDialog = null;
+        }
+    }
+
+    @Override
+    protected void onPreExecute() {
+        mDialog.show();
+    }
+
+    @Override
+    protected StockExporter.Result doInBackground(Void... params) {
+        StockExporter.Result result = null;
+        try {
+            OutputStream output = mContext.getContentResolver().openOutputStream(mDestination);
+            if (output == null) {
+                throw new IOException("Can't open " + mDestination);
+            }
+            result = mExporter.export(output, mFormat, mGzip,
+                    new StockExporter.ProgressListener() {
+                        @Override
+                        public void onProgress(int exported, int total) {
+                            publishProgress(exported, total);
+                        }
+                    });
+        } catch (IOException | RuntimeException e) {
+            Log.e(LOG_TAG, "Failed to export stock to " + mDestination, e);
+        }
+
+        // Don't leave a partial document behind
+        if (result == null || result.cancelled) {
+            deleteDestination();
+        }
+        return result;
+    }
+
+    /**
+     * Remove the document being written.
+     */
+    private void deleteDestination() {
+        try {
+            if (ContentResolver.SCHEME_FILE.equals(mDestination.getScheme())) {
+                new File(mDestination.getPath()).delete();
+            } else if (Build.VERSION.SDK_INT >= 19) {
+                DocumentsContract.deleteDocument(mContext.getContentResolver(), mDestination);
+            }
+        } catch (RuntimeException e) {
+            Log.w(LOG_TAG, "Failed to delete " + mDestination, e);
+        }
+    }
+
+    @Override
+    protected void onProgressUpdate(Integer... values) {
+        if (mDialog != null && values[1] > 0) {
+            mDialog.setIndeterminate(false);
+            mDialog.setMax(values[1]);
+            mDialog.setProgress(values[0]);
+        }
+    }
+
+    @Override
+    protected void onPostExecute(StockExporter.Result result) {
+        detach();
+        showResult(result);
+    }
+
+    @Override
+    protected void onCancelled(StockExporter.Result result) {
+        detach();
+        showResult(result);
+    }
+
+    /**
+     * Tell the user how the export went.
+     */
+    private void showResult(StockExporter.Result result) {
+        String message;
+        if (result == null) {
+            message = mContext.getString(R.string.export_failed);
+        } else if (result.cancelled) {
+            message = mContext.getString(R.string.export_cancelled);
+        } else {
+            message = mContext.getString(R.string.export_finished, result.exported);
+        }
+        Toast.makeText(mContext, message, Toast.LENGTH_LONG).show();
+    }
+}
@@ -0,0 +1,359 @@
+package com.example.android.shopit;
+
+import android.app.ActivityManager;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.TextUtils;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import com.example.android.shopit.data.StockImageStore;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Loads stock pictures into {@link ImageView}s. Pictures are decoded on background threads,
+ * already scaled down to the size they are shown at, and kept in an in-memory cache of decoded
+ * bitmaps sized from the memory class of the device.
+ * <p>
+ * Pictures in the {@link StockImageStore} are decoded from the stored copy closest to the size
+ * they are shown at. Stocks saved before the store existed still hold the URI of the original
+ * picture, so those are read from their (possibly huge) original file once and then kept in a
+ * disk cache of scaled down copies.
+ * <p>
+ * Both caches are keyed by the
+ * {@link com.example.android.shopit.data.StockContract.StockEntry#COLUMN_STOCK_IMAGE} of the
+ * picture and the size it is shown at.
+ */
+final class StockImageLoader {
+
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = StockImageLoader.class.getSimpleName();
+
+    /**
+     * Name of the directory in the app cache that holds the scaled down pictures
+     */
+    private static final String DISK_CACHE_DIR = "thumbnails";
+
+    /**
+     * Maximum size of the disk cache. Once it grows past this the oldest pictures are removed.
+     */
+    private static final long DISK_CACHE_MAX_BYTES = 20 * 1024 * 1024;
+
+    /**
+     * The disk cache is trimmed once every this many pictures written to it
+     */
+    private static final int DISK_CACHE_TRIM_INTERVAL = 16;
+
+    /**
+     * How much of a picture is buffered while reading its dimensions, so it can be decoded
+     * afterwards without opening it a second time.
+     */
+    private static final int BOUNDS_MARK_LIMIT = 256 * 1024;
+
+    /**
+     * Quality used to compress the scaled down pictures in the disk cache
+     */
+    private static final int DISK_CACHE_QUALITY = 85;
+
+    private static StockImageLoader sInstance;
+
+    /**
+     * Returns the image loader shared by the whole app.
+     */
+    static synchronized StockImageLoader getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new StockImageLoader(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private final ContentResolver mResolver;
+    private final StockImageStore mImageStore;
+    private final File mDiskCacheDir;
+    private final LruCache<String, Bitmap> mMemoryCache;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Decodes pictures in the background. Two threads keep a slow picture from holding up the
+     * rest of the list without decoding so many at once that memory runs short.
+     */
+    private final Executor mDecodeExecutor = Executors.newFixedThreadPool(2);
+
+    /**
+     * Number of pictures written to the disk cache since it was last trimmed
+     */
+    private int mDiskWritesSinceTrim;
+
+    private StockImageLoader(Context context) {
+        mResolver = context.getContentResolver();
+        mImageStore = StockImageStore.getInstance(context);
+        mDiskCacheDir = new File(context.getCacheDir(), DISK_CACHE_DIR);
+
+        // Use an eighth of the memory available to the app for decoded pictures
+        ActivityManager activityManager =
+                (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        int cacheSizeKb = activityManager.getMemoryClass() * 1024 / 8;
+        mMemoryCache = new LruCache<String, Bitmap>(cacheSizeKb) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getRowBytes() * bitmap.getHeight() / 1024;
+            }
+        };
+    }
+
+    /**
+     * Show the given picture, the hash of a picture in the {@link StockImageStore} or the URI
+     * of an original, in the given view, scaled down to at most {@code size} pixels wide and
+     * high. The view is cleared until the picture has loaded. If the view is asked to show
+     * another picture in the meantime (for example because it was reused for another row) this
+     * picture is not shown in it.
+     */
+    void load(final String image, final ImageView view, final int size) {
+        if (TextUtils.isEmpty(image) || size <= 0) {
+            view.setTag(R.id.stock_image_key, null);
+            view.setImageDrawable(null);
+            return;
+        }
+
+        final String key = size + "@" + image;
+        view.setTag(R.id.stock_image_key, key);
+
+        Bitmap cached = mMemoryCache.get(key);
+        if (cached != null) {
+            view.setImageBitmap(cached);
+            return;
+        }
+
+        view.setImageDrawable(null);
+        mDecodeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Bitmap bitmap = loadInBackground(image, key, size);
+                if (bitmap == null) {
+                    return;
+                }
+                mMemoryCache.put(key, bitmap);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        // Only show the picture if the view still wants it
+                        if (key.equals(view.getTag(R.id.stock_image_key))) {
+                            view.setImageBitmap(bitmap);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Load a picture from the image store or, for an original, from the disk cache or, if it
+     * isn't there yet, from its original file. Runs on a decode thread.
+     */
+    private Bitmap loadInBackground(String image, String key, int size) {
+        if (StockImageStore.isHash(image)) {
+            return decodeScaled(Uri.fromFile(mImageStore.getFile(image, size)), size);
+        }
+
+        Uri uri = Uri.parse(image);
+        File cacheFile = new File(mDiskCacheDir, hash(key) + ".jpg");
+        if (cacheFile.exists()) {
+            Bitmap bitmap = BitmapFactory.decodeFile(cacheFile.getPath());
+            if (bitmap != null) {
+                return bitmap;
+            }
+        }
+
+        Bitmap bitmap = decodeScaled(uri, size);
+        if (bitmap != null) {
+            writeToDiskCache(cacheFile, bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Decode the picture with the given URI, scaled down so that it is no bigger than needed to
+     * fill {@code size} by {@code size} pixels. Returns null if the picture can't be read.
+     */
+    private Bitmap decodeScaled(Uri uri, int size) {
+        InputStream inputStream = null;
+        try {
+            inputStream = new BufferedInputStream(mResolver.openInputStream(uri));
+
+            // Get the size of the bitmap, keeping what was read so the stream can be rewound
+            inputStream.mark(BOUNDS_MARK_LIMIT);
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeStream(inputStream, null, options);
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                return null;
+            }
+
+            // Decode a power of two fraction of the picture that still covers the target size
+            int sampleSize = 1;
+            while (options.outWidth / (sampleSize * 2) >= size
+                    && options.outHeight / (sampleSize * 2) >= size) {
+                sampleSize *= 2;
+            }
+            options.inJustDecodeBounds = false;
+            options.inSampleSize = sampleSize;
+
+            try {
+                inputStream.reset();
+            } catch (IOException e) {
+                // The header was bigger than the buffer, so open the picture again
+                inputStream.close();
+                inputStream = new BufferedInputStream(mResolver.openInputStream(uri));
+            }
+            Bitmap bitmap = BitmapFactory.decodeStream(inputStream, null, options);
+            if (bitmap == null) {
+                return null;
+            }
+
+            // Scale the rest of the way so the cached copy is no larger than it needs to be
+            float scale = Math.max((float) size / bitmap.getWidth(),
+                    (float) size / bitmap.getHeight());
+            if (scale < 1f) {
+                Bitmap scaled = Bitmap.createScaledBitmap(bitmap,
+                        Math.max(1, Math.round(bitmap.getWidth() * scale)),
+                        Math.max(1, Math.round(bitmap.getHeight() * scale)), true);
+                if (scaled != bitmap) {
+                    bitmap.recycle();
+                }
+                bitmap = scaled;
+            }
+            return bitmap;
+        } catch (IOException | SecurityException e) {
+            Log.e(LOG_TAG, "Failed to load image " + uri, e);
+            return null;
+        } catch (OutOfMemoryError e) {
+            Log.e(LOG_TAG, "Not enough memory to load image " + uri, e);
+            return null;
+        } finally {
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (IOException ioe) {
+                    // Nothing more to do with the stream
+                }
+            }
+        }
+    }
+
+    /**
+     * Save a scaled down picture in the disk cache. The picture is written to a temporary file
+     * first, so a half-written file is never read back.
+     */
+    private void writeToDiskCache(File cacheFile, Bitmap bitmap) {
+        if (!mDiskCacheDir.isDirectory() && !mDiskCacheDir.mkdirs()) {
+            return;
+        }
+        File tempFile = new File(mDiskCacheDir, cacheFile.getName() + ".tmp");
+        OutputStream outputStream = null;
+        try {
+            outputStream = new FileOutputStream(tempFile);
+            bitmap.compress(Bitmap.CompressFormat.JPEG, DISK_CACHE_QUALITY, outputStream);
+            outputStream.close();
+            outputStream = null;
+            if (!tempFile.renameTo(cacheFile)) {
+                tempFile.delete();
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to cache image " + cacheFile, e);
+            tempFile.delete();
+        } finally {
+            if (outputStream != null) {
+                try {
+                    outputStream.close();
+                } catch (IOException ioe) {
+                    // Nothing more to do with the stream
+                }
+            }
+        }
+
+        boolean trim;
+        synchronized (this) {
+            trim = ++mDiskWritesSinceTrim >= DISK_CACHE_TRIM_INTERVAL;
+            if (trim) {
+                mDiskWritesSinceTrim = 0;
+            }
+        }
+        if (trim) {
+            trimDiskCache();
+        }
+    }
+
+    /**
+     * Remove the least recently written pictures until the disk cache fits its maximum size.
+     */
+    private void trimDiskCache() {
+        File[] files = mDiskCacheDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        long totalBytes = 0;
+        for (File file : files) {
+            totalBytes += file.length();
+        }
+        if (totalBytes <= DISK_CACHE_MAX_BYTES) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long difference = a.lastModified() - b.lastModified();
+                return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+            }
+        });
+        for (File file : files) {
+            if (totalBytes <= DISK_CACHE_MAX_BYTES) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                totalBytes -= length;
+            }
+        }
+    }
+
+    /**
+     * Returns a hex encoded hash of the given key, used as the file name in the disk cache.
+     */
+    private static String hash(String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            byte[] bytes = digest.digest(key.getBytes("UTF-8"));
+            StringBuilder builder = new StringBuilder(bytes.length * 2);
+            for (byte b : bytes) {
+                builder.append(Character.forDigit((b >> 4) & 0xf, 16));
+                builder.append(Character.forDigit(b & 0xf, 16));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            // Every Android device has MD5 and UTF-8
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.android.shopit;
+
+import android.app.Activity;
+import android.app.ProgressDialog;
+import android.content.Context;
+import android.content.DialogInterface;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.util.Log;
+import android.widget.Toast;
+
+import com.example.android.shopit.data.StockImporter;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Imports a CSV or TSV document of stocks in the background with a {@link StockImporter},
+ * showing the progress in a dialog that lets the user cancel the import.
+ */
+class StockImportTask extends AsyncTask<Uri, Integer, StockImporter.Result> {
+
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = StockImportTask.class.getSimpleName();
+
+    private final Context mContext;
+    private final StockImporter mImporter;
+    private final File mRejectReport;
+    private ProgressDialog mDialog;
+
+    /**
+     * Constructs a new {@link StockImportTask} showing its progress over the given activity.
+     */
+    StockImportTask(Activity activity) {
+        mContext = activity.getApplicationContext();
+        mImporter = new StockImporter(mContext, mContext.getString(R.string.dummy_picture_uri));
+
+        // Keep the reject report where the user can get to it if possible
+        File reportDir = mContext.getExternalFilesDir(null);
+        if (reportDir == null) {
+            reportDir = mContext.getFilesDir();
+        }
+        mRejectReport = new File(reportDir, "import-rejects-" + System.currentTimeMillis() + ".csv");
+
+        mDialog = new ProgressDialog(activity);
+        mDialog.setMessage(activity.getString(R.string.import_progress));
+        mDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+        mDialog.setIndeterminate(true);
+        mDialog.setMax(100);
+        mDialog.setCancelable(false);
+        mDialog.setButton(DialogInterface.BUTTON_NEGATIVE, activity.getString(R.string.cancel),
+                new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        mImporter.cancel();
+                        cancel(false);
+                    }
+                });
+    }
+
+    /**
+     * Stop showing progress, for when the activity goes away. The import itself carries on and
+     * its outcome is still reported.
+     */
+    void detach() {
+        if (mDialog != null) {
+            mDialog.dismiss();
+            mDialog = null;
+        }
+    }
+
+    @Override
+    protected void onPreExecute() {
+        mDialog.show();
+    }
+
+    @Override
+    protected StockImporter.Result doInBackground(Uri... uris) {
+        try {
+            return mImporter.importStocks(uris[0], mRejectReport,
+                    new StockImporter.ProgressListener() {
+                        @Override
+                        public void onProgress(long bytesRead, long totalBytes,
+                                               int imported, int rejected) {
+                            if (totalBytes > 0) {
+                                publishProgress((int) (bytesRead * 100 / totalBytes));
+                            }
+                        }
+                    });
+        } catch (IOException | RuntimeException e) {
+            Log.e(LOG_TAG, "Failed to import stock from " + uris[0], e);
+            return null;
+        }
+    }
+
+    @Override
+    protected void onProgressUpdate(Integer... values) {
+        if (mDialog != null) {
+            mDialog.setIndeterminate(false);
+            mDialog.setProgress(values[0]);
+        }
+    }
+
+    @Override
+    protected void onPostExecute(StockImporter.Result result) {
+        detach();
+        showResult(result);
+    }
+
+    @Override
+    protected void onCancelled(StockImporter.Result result) {
+        detach();
+        showResult(result);
+    }
+
+    /**
+     * Tell the user how the import went.
+     */
+    private void showResult(StockImporter.Result result) {
+        String message;
+        if (result == null) {
+            message = mContext.getString(R.string.import_failed);
+        } else if (result.cancelled) {
+            message = mContext.getString(R.string.import_cancelled, result.imported);
+        } else if (result.rejectReport != null) {
+            message = mContext.getString(R.string.import_finished_with_rejects, result.imported,
+                    result.rejected, result.rejectReport.getPath());
+        } else {
+            message = mContext.getString(R.string.import_finished, result.imported);
+        }
+        Toast.makeText(mContext, message, Toast.LENGTH_LONG).show();
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.android.shopit;
+
+import android.database.Cursor;
+
+import com.example.android.shopit.data.StockContract.StockEntry;
+
+import java.util.List;
+
+/**
+ * An immutable snapshot of rows of stock data, read from a {@link Cursor} on a background
+ * thread. The stock list is bound from snapshots instead of a live {@link Cursor}, so a new
+ * snapshot can be compared with the one on screen off the main thread, and the loader is free to
+ * close its cursors at any time.
+ */
+final class StockList {
+
+    /**
+     * A snapshot without any rows
+     */
+    static final StockList EMPTY = new StockList(0);
+
+    /**
+     * The stock attributes, one array entry per row
+     */
+    final long[] ids;
+    final long[] versions;
+    final String[] names;
+    final String[] suppliers;
+    final int[] types;
+    final int[] quantities;
+    final int[] prices;
+    final String[] images;
+
+    private StockList(int size) {
+        ids = new long[size];
+        versions = new long[size];
+        names = new String[size];
+        suppliers = new String[size];
+        types = new int[size];
+        quantities = new int[size];
+        prices = new int[size];
+        images = new String[size];
+    }
+
+    /**
+     * Returns the number of rows in this snapshot.
+     */
+    int size() {
+        return ids.length;
+    }
+
+    /**
+     * Read every row of the given cursor into a new snapshot. The cursor must contain the
+     * {@link StockEntry#_ID} and {@link StockEntry#COLUMN_STOCK_VERSION} columns, other columns
+     * that are missing are left empty.
+     */
+    static StockList fromCursor(Cursor cursor) {
+        if (cursor == null || cursor.getCount() == 0) {
+            return EMPTY;
+        }
+
+        // Find the columns of stock attributes that we're interested in
+        int idColumnIndex = cursor.getColumnIndexOrThrow(StockEntry._ID);
+        int versionColumnIndex = cursor.getColumnIndexOrThrow(StockEntry.COLUMN_STOCK_VERSION);
+        int nameColumnIndex = cursor.getColumnIndex(StockEntry.COLUMN_STOCK_NAME);
+        int supplierColumnIndex = cursor.getColumnIndex(StockEntry.COLUMN_STOCK_SUPPLIER);
+        int typeColumnIndex = cursor.getColumnIndex(StockEntry.COLUMN_STOCK_TYPE);
+        int quantityColumnIndex = cursor.getColumnIndex(StockEntry.COLUMN_STOCK_QUANTITY);
+        int priceColumnIndex = cursor.getColumnIndex(StockEntry.COLUMN_STOCK_PRICE);
+        int imageColumnIndex = cursor.getColumnIndex(StockEntry.COLUMN_STOCK_IMAGE);
+
+        StockList list = new StockList(cursor.getCount());
+        cursor.moveToPosition(-1);
+        for (int i = 0; cursor.moveToNext(); i++) {
+            list.ids[i] = cursor.getLong(idColumnIndex);
+            list.versions[i] = cursor.getLong(versionColumnIndex);
+            if (nameColumnIndex != -1) {
+                list.names[i] = cursor.getString(nameColumnIndex);
+            }
+            if (supplierColumnIndex != -1) {
+                list.suppliers[i] = cursor.getString(supplierColumnIndex);
+            }
+            if (typeColumnIndex != -1) {
+                list.types[i] = cursor.getInt(typeColumnIndex);
+            }
+            if (quantityColumnIndex != -1) {
+                list.quantities[i] = cursor.getInt(quantityColumnIndex);
+            }
+            if (priceColumnIndex != -1) {
+                list.prices[i] = cursor.getInt(priceColumnIndex);
+            }
+            if (imageColumnIndex != -1) {
+                list.images[i] = cursor.getString(imageColumnIndex);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Join the given snapshots into one, in order.
+     */
+    static StockList concat(List<StockList> lists) {
+        if (lists.size() == 1) {
+            return lists.get(0);
+        }
+
+        int size = 0;
+        for (StockList list : lists) {
+            size += list.size();
+        }
+        if (size == 0) {
+            return EMPTY;
+        }
+
+        StockList joined = new StockList(size);
+        int position = 0;
+        for (StockList list : lists) {
+            int length = list.size();
+            System.arraycopy(list.ids, 0, joined.ids, position, length);
+            System.arraycopy(list.versions, 0, joined.versions, position, length);
+            System.arraycopy(list.names, 0, joined.names, position, length);
+            System.arraycopy(list.suppliers, 0, joined.suppliers, position, length);
+            System.arraycopy(list.types, 0, joined.types, position, length);
+            System.arraycopy(list.quantities, 0, joined.quantities, position, length);
+            System.arraycopy(list.prices, 0, joined.prices, position, length);
+            System.arraycopy(list.images, 0, joined.images, position, length);
+            position += length;
+        }
+        return joined;
+    }
+}
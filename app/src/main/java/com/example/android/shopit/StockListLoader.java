@@ -0,0 +1,87 @@
+package com.example.android.shopit;
+
+import android.content.Context;
+import android.content.CursorLoader;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.net.Uri;
+
+import com.example.android.shopit.data.Metrics;
+import com.example.android.shopit.data.StockCache;
+
+/**
+ * A {@link CursorLoader} for the stock list. Besides running the query on a background thread it
+ * also reads the result into a {@link StockList} snapshot there, so the main thread never has
+ * to walk the cursor. The stocks it has read are added to the {@link StockCache}, so opening one
+ * of them in the editor doesn't query the database again.
+ */
+class StockListLoader extends CursorLoader {
+
+    /**
+     * Constructs a new {@link StockListLoader}. The projection must include the
+     * {@link com.example.android.shopit.data.StockContract.StockEntry#_ID} and
+     * {@link com.example.android.shopit.data.StockContract.StockEntry#COLUMN_STOCK_VERSION}
+     * columns.
+     */
+    StockListLoader(Context context, Uri uri, String[] projection, String selection,
+                    String[] selectionArgs, String sortOrder) {
+        super(context, uri, projection, selection, selectionArgs, sortOrder);
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        long start = Metrics.begin(Metrics.LIST_LOAD);
+        try {
+            StockCache cache = StockCache.getInstance();
+            long generation = cache.getGeneration();
+            Cursor cursor = super.loadInBackground();
+            if (cursor == null) {
+                return null;
+            }
+            StockList stockList = StockList.fromCursor(cursor);
+            if (StockCache.canFill(getProjection())) {
+                cache.putAll(toCachedStocks(stockList, cache.maxSize()), generation);
+            }
+            return new SnapshotCursor(cursor, stockList);
+        } finally {
+            Metrics.end(Metrics.LIST_LOAD, start);
+        }
+    }
+
+    /**
+     * Returns the first stocks of the given snapshot, at most the given number of them, as
+     * cached stocks.
+     */
+    private static StockCache.Stock[] toCachedStocks(StockList stockList, int max) {
+        StockCache.Stock[] stocks = new StockCache.Stock[Math.min(stockList.size(), max)];
+        for (int i = 0; i < stocks.length; i++) {
+            stocks[i] = new StockCache.Stock(stockList.ids[i], stockList.versions[i],
+                    stockList.names[i], stockList.suppliers[i], stockList.types[i],
+                    stockList.quantities[i], stockList.prices[i], stockList.images[i]);
+        }
+        return stocks;
+    }
+
+    /**
+     * Returns the snapshot of the rows in a cursor delivered by a {@link StockListLoader}.
+     */
+    static StockList getStockList(Cursor cursor) {
+        if (cursor instanceof SnapshotCursor) {
+            return ((SnapshotCursor) cursor).mStockList;
+        }
+        return StockList.EMPTY;
+    }
+
+    /**
+     * The loaded cursor together with the snapshot of its rows.
+     */
+    private static class SnapshotCursor extends CursorWrapper {
+
+        private final StockList mStockList;
+
+        SnapshotCursor(Cursor cursor, StockList stockList) {
+            super(cursor);
+            mStockList = stockList;
+        }
+    }
+}
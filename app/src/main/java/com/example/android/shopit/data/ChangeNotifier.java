@@ -0,0 +1,190 @@
+package com.example.android.shopit.data;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Coalesces the change notifications sent by {@link StockProvider}.
+ * <p>
+ * Notifications are not sent right away but collected for {@link #WINDOW_MILLIS}, then sent
+ * together with every URI sent only once, so observers reload at most once per window however
+ * many writes there were. Changes made inside a transaction (see {@link #beginTransaction()})
+ * are only queued once the transaction commits, and dropped if it rolls back.
+ * <p>
+ * Writes that touch a single stock should notify its row URI ({@code stock/#}): observers of
+ * the whole table still hear about it, because they observe descendant URIs too, while
+ * observers of other single stocks don't. Once too many rows have changed in one window they
+ * are replaced by a single notification of the table URI.
+ * <p>
+ * Each notifier sends from its own thread, which runs until {@link #quit()} is called.
+ */
+final class ChangeNotifier {
+
+    /**
+     * How long notifications are collected before they are sent
+     */
+    static final long WINDOW_MILLIS = 100;
+
+    /**
+     * Once more distinct URIs than this are waiting, they are replaced by the parent URI
+     */
+    private static final int MAX_PENDING_URIS = 16;
+
+    private final ContentResolver mResolver;
+    private final Uri mParentUri;
+    private final Handler mHandler;
+
+    /**
+     * URIs waiting to be notified. Guarded by this.
+     */
+    private final Set<Uri> mPending = new LinkedHashSet<>();
+
+    /**
+     * Whether {@link #quit()} was called, after which URIs are sent right away. Guarded by this.
+     */
+    private boolean mQuit;
+
+    /**
+     * The URIs changed by the transaction running on the current thread, null outside of one
+     */
+    private final ThreadLocal<Set<Uri>> mTransaction = new ThreadLocal<>();
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * Constructs a new {@link ChangeNotifier}.
+     *
+     * @param parentUri the URI all notified URIs are under, sent instead of them once there are
+     *                  too many
+     */
+    ChangeNotifier(ContentResolver resolver, Uri parentUri) {
+        mResolver = resolver;
+        mParentUri = parentUri;
+
+        HandlerThread thread = new HandlerThread("ChangeNotifier", Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Notify observers that the data at the given URI has changed, at the end of the current
+     * window. Inside a transaction the URI is held back until the transaction ends.
+     */
+    void notifyChange(Uri uri) {
+        Set<Uri> transaction = mTransaction.get();
+        if (transaction != null) {
+            transaction.add(uri);
+            return;
+        }
+        synchronized (this) {
+            add(uri);
+        }
+    }
+
+    /**
+     * Start holding back the notifications made on the current thread, until
+     * {@link #endTransaction(boolean)} is called. Transactions don't nest.
+     */
+    void beginTransaction() {
+        mTransaction.set(new LinkedHashSet<Uri>());
+    }
+
+    /**
+     * Stop holding back notifications on the current thread. The notifications made since
+     * {@link #beginTransaction()} are queued if the transaction was committed and dropped if it
+     * wasn't.
+     */
+    void endTransaction(boolean committed) {
+        if (committed) {
+            commitTransaction();
+        }
+        mTransaction.remove();
+    }
+
+    /**
+     * Queue the notifications made on the current thread since the transaction began, or since
+     * it was last committed, and keep holding back the ones made from now on. Called when a
+     * transaction commits part of its work and carries on, as a yielding transaction does.
+     */
+    void commitTransaction() {
+        Set<Uri> transaction = mTransaction.get();
+        if (transaction == null || transaction.isEmpty()) {
+            return;
+        }
+        mTransaction.set(new LinkedHashSet<Uri>());
+        synchronized (this) {
+            for (Uri uri : transaction) {
+                add(uri);
+            }
+        }
+    }
+
+    /**
+     * Queue the given URI and make sure the window it falls into gets sent. Called with this
+     * locked.
+     */
+    private void add(Uri uri) {
+        // There is no thread left to send a window from
+        if (mQuit) {
+            mResolver.notifyChange(uri, null);
+            return;
+        }
+
+        // The first change of a window schedules it to be sent
+        if (mPending.isEmpty()) {
+            mHandler.postDelayed(mFlush, WINDOW_MILLIS);
+        }
+
+        // The parent URI covers every other URI
+        if (mPending.contains(mParentUri)) {
+            return;
+        }
+        if (uri.equals(mParentUri) || mPending.size() >= MAX_PENDING_URIS) {
+            mPending.clear();
+            mPending.add(mParentUri);
+        } else {
+            mPending.add(uri);
+        }
+    }
+
+    /**
+     * Send all waiting notifications now.
+     */
+    void flush() {
+        Uri[] uris;
+        synchronized (this) {
+            mHandler.removeCallbacks(mFlush);
+            if (mPending.isEmpty()) {
+                return;
+            }
+            uris = mPending.toArray(new Uri[mPending.size()]);
+            mPending.clear();
+        }
+        for (Uri uri : uris) {
+            mResolver.notifyChange(uri, null);
+        }
+    }
+
+    /**
+     * Send all waiting notifications now and stop the thread they are sent from. Notifications
+     * made afterwards are sent as soon as they are made.
+     */
+    void quit() {
+        synchronized (this) {
+            mQuit = true;
+        }
+        flush();
+        mHandler.getLooper().quit();
+    }
+}
@@ -0,0 +1,311 @@
+package com.example.android.shopit.data;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads delimiter separated records (CSV, TSV) from a {@link Reader} one record at a time.
+ * <p>
+ * Input is read through a fixed size buffer and each record is copied into a single reusable
+ * character array, fields are only turned into {@link String}s when asked for. Memory use
+ * therefore doesn't depend on the size of the input, and skipping or parsing numeric fields
+ * creates no garbage. Records longer than {@link #MAX_RECORD_LENGTH} characters are read
+ * to their end but flagged with {@link #isTooLong()} instead of being buffered.
+ * <p>
+ * Fields may be quoted with {@code "}, quoted fields can contain delimiters, line breaks and
+ * doubled quotes. Blank lines are skipped and a leading byte order mark is ignored.
+ */
+public final class CsvReader implements Closeable {
+
+    /**
+     * Size of the buffer input is read through
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Records longer than this many characters are not kept, see {@link #isTooLong()}
+     */
+    public static final int MAX_RECORD_LENGTH = 16 * 1024;
+
+    private static final char QUOTE = '"';
+    private static final char BYTE_ORDER_MARK = '\uFEFF';
+
+    private final Reader mReader;
+    private final char mDelimiter;
+    private final char[] mBuffer = new char[BUFFER_SIZE];
+    private int mPosition;
+    private int mLimit;
+    private boolean mStarted;
+
+    /**
+     * The characters of the current record, and where each of its fields starts and ends
+     */
+    private char[] mRecord = new char[256];
+    private int mRecordLength;
+    private int[] mFieldStarts = new int[16];
+    private int[] mFieldEnds = new int[16];
+    private int mFieldCount;
+    private boolean mTooLong;
+
+    /**
+     * Line the next record starts on, and the line the current record started on
+     */
+    private long mLine = 1;
+    private long mRecordLine;
+
+    /**
+     * Constructs a new {@link CsvReader}.
+     *
+     * @param reader    the input, it is closed when this reader is closed
+     * @param delimiter the character between fields, for example ',' or '\t'
+     */
+    public CsvReader(Reader reader, char delimiter) {
+        if (delimiter == QUOTE || delimiter == '\r' || delimiter == '\n') {
+            throw new IllegalArgumentException("Invalid delimiter " + delimiter);
+        }
+        mReader = reader;
+        mDelimiter = delimiter;
+    }
+
+    /**
+     * Move to the next record. Returns false once the end of the input has been reached.
+     */
+    public boolean nextRecord() throws IOException {
+        do {
+            if (!readRecord()) {
+                return false;
+            }
+        } while (mFieldCount == 1 && mFieldEnds[0] == mFieldStarts[0] && !mTooLong);
+        return true;
+    }
+
+    /**
+     * Read the next record, which may be a blank line. Returns false at the end of the input.
+     */
+    private boolean readRecord() throws IOException {
+        mRecordLength = 0;
+        mFieldCount = 0;
+        mTooLong = false;
+        mRecordLine = mLine;
+
+        int c = read();
+        if (c == -1) {
+            return false;
+        }
+
+        int fieldStart = 0;
+        boolean quoted = false;
+        boolean atFieldStart = true;
+        while (true) {
+            if (quoted) {
+                if (c == -1) {
+                    // Unterminated quote, take what we have as the last field
+                    endField(fieldStart);
+                    return true;
+                }
+                if (c == QUOTE) {
+                    c = read();
+                    if (c == QUOTE) {
+                        // A doubled quote is a quote character inside the field
+                        append(QUOTE);
+                    } else {
+                        quoted = false;
+                        continue;
+                    }
+                } else {
+                    if (c == '\n') {
+                        mLine++;
+                    }
+                    append((char) c);
+                }
+            } else if (c == -1 || c == '\n' || c == '\r') {
+                endField(fieldStart);
+                if (c == '\r') {
+                    // Treat \r\n as a single line break
+                    c = read();
+                    if (c != '\n' && c != -1) {
+                        mPosition--;
+                    }
+                }
+                if (c != -1) {
+                    mLine++;
+                }
+                return true;
+            } else if (c == mDelimiter) {
+                endField(fieldStart);
+                fieldStart = mRecordLength;
+                atFieldStart = true;
+                c = read();
+                continue;
+            } else if (c == QUOTE && atFieldStart) {
+                quoted = true;
+            } else {
+                append((char) c);
+            }
+            atFieldStart = false;
+            c = read();
+        }
+    }
+
+    /**
+     * Returns the next character of the input, or -1 at its end.
+     */
+    private int read() throws IOException {
+        if (mPosition == mLimit) {
+            int count = mReader.read(mBuffer, 0, mBuffer.length);
+            if (count <= 0) {
+                return -1;
+            }
+            mPosition = 0;
+            mLimit = count;
+            if (!mStarted) {
+                mStarted = true;
+                if (mBuffer[0] == BYTE_ORDER_MARK) {
+                    mPosition = 1;
+                    return read();
+                }
+            }
+        }
+        return mBuffer[mPosition++];
+    }
+
+    private void append(char c) {
+        if (mRecordLength == mRecord.length) {
+            if (mRecordLength >= MAX_RECORD_LENGTH) {
+                mTooLong = true;
+                return;
+            }
+            char[] record = new char[Math.min(mRecord.length * 2, MAX_RECORD_LENGTH)];
+            System.arraycopy(mRecord, 0, record, 0, mRecordLength);
+            mRecord = record;
+        }
+        mRecord[mRecordLength++] = c;
+    }
+
+    private void endField(int fieldStart) {
+        if (mFieldCount == MAX_RECORD_LENGTH) {
+            mTooLong = true;
+            return;
+        }
+        if (mFieldCount == mFieldStarts.length) {
+            int[] starts = new int[mFieldCount * 2];
+            int[] ends = new int[mFieldCount * 2];
+            System.arraycopy(mFieldStarts, 0, starts, 0, mFieldCount);
+            System.arraycopy(mFieldEnds, 0, ends, 0, mFieldCount);
+            mFieldStarts = starts;
+            mFieldEnds = ends;
+        }
+        mFieldStarts[mFieldCount] = fieldStart;
+        mFieldEnds[mFieldCount] = mRecordLength;
+        mFieldCount++;
+    }
+
+    /**
+     * Returns the number of fields in the current record.
+     */
+    public int getFieldCount() {
+        return mFieldCount;
+    }
+
+    /**
+     * Returns whether the current record was longer than {@link #MAX_RECORD_LENGTH}. The fields
+     * of such a record are incomplete and should not be used.
+     */
+    public boolean isTooLong() {
+        return mTooLong;
+    }
+
+    /**
+     * Returns the line of the input the current record starts on, counting from 1.
+     */
+    public long getLineNumber() {
+        return mRecordLine;
+    }
+
+    /**
+     * Returns whether the given field of the current record is missing or contains nothing but
+     * white space.
+     */
+    public boolean isBlank(int field) {
+        if (field >= mFieldCount) {
+            return true;
+        }
+        for (int i = mFieldStarts[field]; i < mFieldEnds[field]; i++) {
+            if (mRecord[i] > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the given field of the current record without surrounding white space, or null if
+     * the record doesn't have that many fields.
+     */
+    public String getField(int field) {
+        if (field >= mFieldCount) {
+            return null;
+        }
+        int start = mFieldStarts[field];
+        int end = mFieldEnds[field];
+        while (start < end && mRecord[start] <= ' ') {
+            start++;
+        }
+        while (end > start && mRecord[end - 1] <= ' ') {
+            end--;
+        }
+        return new String(mRecord, start, end - start);
+    }
+
+    /**
+     * Returns the given field of the current record parsed as a decimal integer, without
+     * creating a {@link String} for it. Surrounding white space is ignored.
+     *
+     * @throws NumberFormatException if the field is missing, blank or not a valid integer
+     */
+    public int getInt(int field) {
+        if (field >= mFieldCount) {
+            throw new NumberFormatException("Missing field " + field);
+        }
+        int start = mFieldStarts[field];
+        int end = mFieldEnds[field];
+        while (start < end && mRecord[start] <= ' ') {
+            start++;
+        }
+        while (end > start && mRecord[end - 1] <= ' ') {
+            end--;
+        }
+
+        boolean negative = false;
+        if (start < end && (mRecord[start] == '-' || mRecord[start] == '+')) {
+            negative = mRecord[start] == '-';
+            start++;
+        }
+        if (start == end) {
+            throw new NumberFormatException("Not a number in field " + field);
+        }
+
+        // Accumulate negatively so Integer.MIN_VALUE can be represented
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = mRecord[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("Not a number in field " + field);
+            }
+            value = value * 10 - digit;
+            if (value < Integer.MIN_VALUE) {
+                throw new NumberFormatException("Number too large in field " + field);
+            }
+        }
+        if (!negative && value == Integer.MIN_VALUE) {
+            throw new NumberFormatException("Number too large in field " + field);
+        }
+        return (int) (negative ? value : -value);
+    }
+
+    @Override
+    public void close() throws IOException {
+        mReader.close();
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.android.shopit.data;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes delimiter separated records (CSV, TSV) to a {@link Writer}, in the format read by
+ * {@link CsvReader}. Fields that contain the delimiter, a quote or a line break are quoted.
+ * Nothing is buffered here, wrap the output in a {@link java.io.BufferedWriter}.
+ */
+public final class CsvWriter implements Closeable, Flushable {
+
+    private static final char QUOTE = '"';
+
+    private final Writer mWriter;
+    private final char mDelimiter;
+
+    /**
+     * Whether the next field is the first of its record
+     */
+    private boolean mAtRecordStart = true;
+
+    /**
+     * Constructs a new {@link CsvWriter}.
+     *
+     * @param writer    the output, it is closed when this writer is closed
+     * @param delimiter the character between fields, for example ',' or '\t'
+     */
+    public CsvWriter(Writer writer, char delimiter) {
+        mWriter = writer;
+        mDelimiter = delimiter;
+    }
+
+    /**
+     * Write a text field. A null value is written as an empty field.
+     */
+    public void writeField(String value) throws IOException {
+        startField();
+        if (value == null) {
+            return;
+        }
+
+        boolean quote = false;
+        int length = value.length();
+        for (int i = 0; i < length && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == mDelimiter || c == QUOTE || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            mWriter.write(value);
+            return;
+        }
+
+        mWriter.write(QUOTE);
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c == QUOTE) {
+                mWriter.write(QUOTE);
+            }
+            mWriter.write(c);
+        }
+        mWriter.write(QUOTE);
+    }
+
+    /**
+     * Write a numeric field.
+     */
+    public void writeField(long value) throws IOException {
+        startField();
+        mWriter.write(Long.toString(value));
+    }
+
+    /**
+     * End the current record.
+     */
+    public void endRecord() throws IOException {
+        mWriter.write('\n');
+        mAtRecordStart = true;
+    }
+
+    private void startField() throws IOException {
+        if (!mAtRecordStart) {
+            mWriter.write(mDelimiter);
+        }
+        mAtRecordStart = false;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        mWriter.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mWriter.close();
+    }
+}
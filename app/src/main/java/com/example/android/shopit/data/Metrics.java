@@ -0,0 +1,291 @@
+package com.example.android.shopit.data;
+
+import android.support.v4.os.TraceCompat;
+
+import com.example.android.shopit.BuildConfig;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts and times the hot paths of the app: the {@link StockProvider} operations, the loads
+ * of the stock list and the binding of its rows. The dump also counts the hits and misses of
+ * the {@link StockCache}.
+ * <p>
+ * A timed operation is wrapped in {@link #begin(int)} and {@link #end(int, long)}, which also
+ * mark it as a trace section for systrace. Every operation keeps a count and a histogram of
+ * its latencies, read back with {@link #dump(PrintWriter, boolean)}:
+ * <pre>
+ * adb shell dumpsys activity provider com.example.android.shopit/.data.StockProvider [--json]
+ * </pre>
+ * Metrics are on in debug builds and can be switched with {@link #setEnabled(boolean)}, or the
+ * {@code --enable}, {@code --disable} and {@code --reset} dump arguments. While they are off,
+ * {@link #begin(int)} and {@link #end(int, long)} only read a flag.
+ */
+public final class Metrics {
+
+    /**
+     * The timed operations
+     */
+    public static final int PROVIDER_QUERY = 0;
+    public static final int PROVIDER_INSERT = 1;
+    public static final int PROVIDER_BULK_INSERT = 2;
+    public static final int PROVIDER_UPDATE = 3;
+    public static final int PROVIDER_DELETE = 4;
+    public static final int PROVIDER_CALL = 5;
+    public static final int LIST_LOAD = 6;
+    public static final int LIST_BIND = 7;
+
+    /**
+     * Names of the timed operations, also used for their trace sections
+     */
+    private static final String[] NAMES = {
+            "StockProvider.query",
+            "StockProvider.insert",
+            "StockProvider.bulkInsert",
+            "StockProvider.update",
+            "StockProvider.delete",
+            "StockProvider.call",
+            "StockListLoader.load",
+            "StockCursorAdapter.bind"};
+
+    /**
+     * Returned by {@link #begin(int)} when metrics are off
+     */
+    private static final long NOT_STARTED = Long.MIN_VALUE;
+
+    private static final Histogram[] sHistograms = new Histogram[NAMES.length];
+
+    static {
+        for (int i = 0; i < sHistograms.length; i++) {
+            sHistograms[i] = new Histogram();
+        }
+    }
+
+    private static volatile boolean sEnabled = BuildConfig.DEBUG;
+
+    private Metrics() {
+    }
+
+    /**
+     * Returns whether operations are being counted and timed.
+     */
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * Start or stop counting and timing operations. Metrics collected so far are kept.
+     */
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    /**
+     * Start timing the given operation on the current thread. The result must be passed to
+     * {@link #end(int, long)} on the same thread once the operation has finished, usually in a
+     * {@code finally} block.
+     */
+    public static long begin(int operation) {
+        if (!sEnabled) {
+            return NOT_STARTED;
+        }
+        TraceCompat.beginSection(NAMES[operation]);
+        return System.nanoTime();
+    }
+
+    /**
+     * Stop timing the given operation and count it.
+     *
+     * @param start the value returned by {@link #begin(int)}
+     */
+    public static void end(int operation, long start) {
+        if (start == NOT_STARTED) {
+            return;
+        }
+        long elapsed = System.nanoTime() - start;
+        TraceCompat.endSection();
+        sHistograms[operation].record(elapsed);
+    }
+
+    /**
+     * Forget all of the metrics collected so far.
+     */
+    public static void reset() {
+        for (Histogram histogram : sHistograms) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * Handle the arguments of a dump: switch metrics on or off, reset them, and write them as a
+     * table or as JSON.
+     */
+    static void dump(PrintWriter writer, String[] args) {
+        boolean json = false;
+        for (String arg : args == null ? new String[0] : args) {
+            switch (arg) {
+                case "--enable":
+                    setEnabled(true);
+                    break;
+                case "--disable":
+                    setEnabled(false);
+                    break;
+                case "--reset":
+                    reset();
+                    break;
+                case "--json":
+                    json = true;
+                    break;
+                default:
+                    writer.println("Unknown argument " + arg);
+            }
+        }
+        dump(writer, json);
+    }
+
+    /**
+     * Write the count, median, 99th percentile and maximum latency of every operation, in
+     * microseconds, followed by the use of the {@link StockCache}.
+     *
+     * @param json whether to write JSON instead of a table
+     */
+    public static void dump(PrintWriter writer, boolean json) {
+        if (json) {
+            writer.println("{\"enabled\": " + sEnabled + ", \"operations\": [");
+        } else {
+            writer.println("Metrics " + (sEnabled ? "enabled" : "disabled")
+                    + ", latencies in us");
+            writer.println(String.format(Locale.US, "%-26s %10s %10s %10s %10s",
+                    "operation", "count", "p50", "p99", "max"));
+        }
+
+        for (int i = 0; i < NAMES.length; i++) {
+            Histogram histogram = sHistograms[i];
+            long count = histogram.getCount();
+            double p50 = histogram.getPercentile(50) / 1000.0;
+            double p99 = histogram.getPercentile(99) / 1000.0;
+            double max = histogram.getMax() / 1000.0;
+            if (json) {
+                writer.println(String.format(Locale.US,
+                        "  {\"name\": \"%s\", \"count\": %d, \"p50_us\": %.1f, "
+                                + "\"p99_us\": %.1f, \"max_us\": %.1f}%s",
+                        NAMES[i], count, p50, p99, max, i < NAMES.length - 1 ? "," : ""));
+            } else {
+                writer.println(String.format(Locale.US, "%-26s %10d %10.1f %10.1f %10.1f",
+                        NAMES[i], count, p50, p99, max));
+            }
+        }
+
+        StockCache cache = StockCache.getInstance();
+        if (json) {
+            writer.println(String.format(Locale.US,
+                    "], \"cache\": {\"size\": %d, \"hits\": %d, \"misses\": %d}}",
+                    cache.size(), cache.getHitCount(), cache.getMissCount()));
+        } else {
+            writer.println(String.format(Locale.US,
+                    "Stock cache: %d of %d stocks, %d hits, %d misses",
+                    cache.size(), cache.maxSize(), cache.getHitCount(), cache.getMissCount()));
+        }
+        writer.flush();
+    }
+
+    /**
+     * A histogram of latencies in nanoseconds that can be recorded from any thread without
+     * locking.
+     * <p>
+     * Values are counted in buckets that grow with the value: every power of two is split into
+     * {@link #SUB_BUCKETS} buckets, so a percentile is off by at most a quarter of its value
+     * while the whole range of a long fits in a few hundred counters.
+     */
+    static final class Histogram {
+
+        private static final int SUB_BUCKET_BITS = 2;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+        private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mMax = new AtomicLong();
+
+        void record(long value) {
+            if (value < 0) {
+                value = 0;
+            }
+            mBuckets.incrementAndGet(getBucket(value));
+            mCount.incrementAndGet();
+
+            long max = mMax.get();
+            while (value > max && !mMax.compareAndSet(max, value)) {
+                max = mMax.get();
+            }
+        }
+
+        long getCount() {
+            return mCount.get();
+        }
+
+        long getMax() {
+            return mMax.get();
+        }
+
+        /**
+         * Returns the largest value of the bucket holding the given percentile, 0 if nothing
+         * has been recorded.
+         */
+        long getPercentile(double percentile) {
+            long count = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                count += mBuckets.get(i);
+            }
+            if (count == 0) {
+                return 0;
+            }
+
+            long rank = (long) Math.ceil(count * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += mBuckets.get(i);
+                if (seen >= Math.max(rank, 1)) {
+                    return Math.min(getBucketEnd(i), mMax.get());
+                }
+            }
+            return mMax.get();
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                mBuckets.set(i, 0);
+            }
+            mCount.set(0);
+            mMax.set(0);
+        }
+
+        /**
+         * Returns the bucket counting the given value, which must not be negative.
+         */
+        static int getBucket(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int highestBit = 63 - Long.numberOfLeadingZeros(value);
+            int shift = highestBit - SUB_BUCKET_BITS;
+            int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+            return (shift + 1) * SUB_BUCKETS + subBucket;
+        }
+
+        /**
+         * Returns the largest value counted by the given bucket.
+         */
+        static long getBucketEnd(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int shift = bucket / SUB_BUCKETS - 1;
+            long start = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+            return start + (1L << shift) - 1;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.example.android.shopit.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.example.android.shopit.data.StockContract.StockEntry;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Writes a purchase order for every supplier with stocks that need reordering.
+ * <p>
+ * The stocks below their reorder threshold are read in a single query of
+ * {@link StockEntry#REORDER_URI}, which SQLite returns sorted by supplier. The orders are written
+ * while the rows stream by, a new CSV document starting every time the supplier changes, so only
+ * the order being written is ever open however many stocks and suppliers there are.
+ */
+public final class PurchaseOrderGenerator {
+
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = PurchaseOrderGenerator.class.getSimpleName();
+
+    /**
+     * The columns of an order line, in the order they are written
+     */
+    private static final String[] COLUMNS = {
+            StockEntry.COLUMN_STOCK_SUPPLIER,
+            StockEntry._ID,
+            StockEntry.COLUMN_STOCK_NAME,
+            StockEntry.COLUMN_ORDER_QUANTITY,
+            StockEntry.COLUMN_STOCK_QUANTITY,
+            StockEntry.COLUMN_STOCK_REORDER_THRESHOLD,
+            StockEntry.COLUMN_STOCK_PRICE};
+
+    /**
+     * Index of the supplier in {@link #COLUMNS}
+     */
+    private static final int SUPPLIER = 0;
+
+    /**
+     * The outcome of generating the purchase orders.
+     */
+    public static final class Result {
+        /**
+         * One document per supplier, in supplier order
+         */
+        public final List<File> orders;
+
+        /**
+         * Number of stocks ordered over all documents
+         */
+        public final int lines;
+
+        Result(List<File> orders, int lines) {
+            this.orders = orders;
+            this.lines = lines;
+        }
+    }
+
+    private final ContentResolver mResolver;
+    private final String mUnknownSupplier;
+
+    /**
+     * Constructs a new {@link PurchaseOrderGenerator}.
+     *
+     * @param unknownSupplier the name used for the order of stocks without a supplier
+     */
+    public PurchaseOrderGenerator(Context context, String unknownSupplier) {
+        mResolver = context.getContentResolver();
+        mUnknownSupplier = unknownSupplier;
+    }
+
+    /**
+     * Write the purchase orders into the given directory, which is created if needed. Must not
+     * be called on the main thread.
+     *
+     * @throws IOException if the orders can't be written
+     */
+    public Result generate(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create " + directory);
+        }
+
+        Cursor cursor = mResolver.query(StockEntry.REORDER_URI, COLUMNS, null, null, null);
+        if (cursor == null) {
+            throw new IOException("Can't query the stocks to reorder");
+        }
+
+        List<File> orders = new ArrayList<>();
+        Set<String> fileNames = new HashSet<>();
+        int lines = 0;
+        String supplier = null;
+        CsvWriter writer = null;
+        try {
+            while (cursor.moveToNext()) {
+                // The rows are sorted by supplier, so a new supplier starts a new order
+                String rowSupplier = cursor.getString(SUPPLIER);
+                if (writer == null || !rowSupplier.equals(supplier)) {
+                    if (writer != null) {
+                        writer.close();
+                    }
+                    supplier = rowSupplier;
+                    File order = new File(directory, getFileName(supplier, fileNames));
+                    writer = openOrder(order);
+                    orders.add(order);
+                }
+
+                for (int column = 0; column < COLUMNS.length; column++) {
+                    if (cursor.getType(column) == Cursor.FIELD_TYPE_INTEGER) {
+                        writer.writeField(cursor.getLong(column));
+                    } else {
+                        writer.writeField(cursor.getString(column));
+                    }
+                }
+                writer.endRecord();
+                lines++;
+            }
+        } finally {
+            cursor.close();
+            if (writer != null) {
+                writer.close();
+            }
+        }
+
+        Log.i(LOG_TAG, "Wrote " + orders.size() + " purchase orders for " + lines + " stocks");
+        return new Result(orders, lines);
+    }
+
+    /**
+     * Open a new order document and write its header.
+     */
+    private static CsvWriter openOrder(File order) throws IOException {
+        CsvWriter writer = new CsvWriter(new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(order), "UTF-8")), ',');
+        for (String column : COLUMNS) {
+            writer.writeField(column);
+        }
+        writer.endRecord();
+        return writer;
+    }
+
+    /**
+     * Returns a file name for the order of the given supplier that is safe to use on any file
+     * system and different from the names already used.
+     */
+    private String getFileName(String supplier, Set<String> used) {
+        if (TextUtils.isEmpty(supplier)) {
+            supplier = mUnknownSupplier;
+        }
+        String base = "order-" + supplier.replaceAll("[^\\p{L}\\p{N}_-]+", "_")
+                .toLowerCase(Locale.US);
+        String name = base + ".csv";
+        for (int i = 2; !used.add(name); i++) {
+            name = base + "-" + i + ".csv";
+        }
+        return name;
+    }
+}
@@ -0,0 +1,215 @@
+package com.example.android.shopit.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+import com.example.android.shopit.data.StockContract.SaleEntry;
+
+import java.util.Calendar;
+
+/**
+ * Keeps the sales ledger of {@link StockProvider} bounded.
+ * <p>
+ * Sales are appended to {@link SaleEntry#TABLE_NAME} as they are made. Once a day, or sooner
+ * after {@link #COMPACT_EVERY_SALES} sales, the sales older than {@link #LEDGER_DAYS} days are
+ * rolled up into {@link SaleEntry#DAILY_TABLE_NAME} on a background thread, and daily totals
+ * older than {@link SaleEntry#RETENTION_DAYS} are dropped. The ledger then holds at most a few
+ * days of sales plus one row per stock and day sold, and "sales in the last days" queries only
+ * read those. The sales of a stock are deleted along with it, by a trigger.
+ * <p>
+ * The background thread runs until {@link #quit()} is called.
+ */
+final class SalesLedger {
+
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = SalesLedger.class.getSimpleName();
+
+    /**
+     * Number of days, today included, whose sales are kept one by one
+     */
+    private static final int LEDGER_DAYS = 7;
+
+    /**
+     * The ledger is compacted at least once every this many sales
+     */
+    private static final int COMPACT_EVERY_SALES = 1000;
+
+    /**
+     * SQL used to add the sales before a day (the first argument) to the daily totals
+     */
+    private static final String SQL_ROLL_UP = "INSERT OR REPLACE INTO "
+            + SaleEntry.DAILY_TABLE_NAME + " ("
+            + SaleEntry.COLUMN_STOCK_ID + ", "
+            + SaleEntry.COLUMN_DAY + ", "
+            + SaleEntry.COLUMN_QUANTITY + ") SELECT "
+            + "sales." + SaleEntry.COLUMN_STOCK_ID + ", "
+            + "sales." + SaleEntry.COLUMN_DAY + ", "
+            + "sales." + SaleEntry.COLUMN_QUANTITY + " + IFNULL(daily."
+            + SaleEntry.COLUMN_QUANTITY + ", 0) FROM (SELECT "
+            + SaleEntry.COLUMN_STOCK_ID + ", "
+            + SaleEntry.COLUMN_DAY + ", "
+            + "SUM(" + SaleEntry.COLUMN_QUANTITY + ") AS " + SaleEntry.COLUMN_QUANTITY
+            + " FROM " + SaleEntry.TABLE_NAME
+            + " WHERE " + SaleEntry.COLUMN_DAY + " < ?"
+            + " GROUP BY " + SaleEntry.COLUMN_STOCK_ID + ", " + SaleEntry.COLUMN_DAY
+            + ") AS sales LEFT JOIN " + SaleEntry.DAILY_TABLE_NAME + " AS daily ON "
+            + "daily." + SaleEntry.COLUMN_STOCK_ID + " = sales." + SaleEntry.COLUMN_STOCK_ID
+            + " AND daily." + SaleEntry.COLUMN_DAY + " = sales." + SaleEntry.COLUMN_DAY;
+
+    private final StockDbHelper mDbHelper;
+    private final Handler mHandler;
+
+    /**
+     * Calendar used to work out days. Guarded by this.
+     */
+    private final Calendar mCalendar = Calendar.getInstance();
+
+    /**
+     * Today as yyyymmdd and the times it starts and ends at. Guarded by this.
+     */
+    private int mToday;
+    private long mTodayStart = Long.MAX_VALUE;
+    private long mTomorrowStart = Long.MIN_VALUE;
+
+    /**
+     * Sales made since the ledger was last compacted. Guarded by this.
+     */
+    private int mSalesSinceCompaction;
+
+    /**
+     * When the ledger is compacted next, whatever the number of sales. Guarded by this.
+     */
+    private long mNextCompaction;
+
+    /**
+     * Whether a compaction has been posted to the background thread and hasn't started yet.
+     * Guarded by this.
+     */
+    private boolean mCompactionPosted;
+
+    private final Runnable mCompact = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (SalesLedger.this) {
+                mCompactionPosted = false;
+            }
+            try {
+                compact();
+            } catch (RuntimeException e) {
+                Log.e(LOG_TAG, "Failed to compact the sales ledger", e);
+            }
+        }
+    };
+
+    SalesLedger(StockDbHelper dbHelper) {
+        mDbHelper = dbHelper;
+
+        HandlerThread thread = new HandlerThread(LOG_TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Returns the local day of the given time, as the number yyyymmdd.
+     */
+    synchronized int getDay(long millis) {
+        if (millis < mTodayStart || millis >= mTomorrowStart) {
+            mCalendar.setTimeInMillis(millis);
+            mToday = toDay(mCalendar);
+            setStartOfDay(mCalendar);
+            mTodayStart = mCalendar.getTimeInMillis();
+            mCalendar.add(Calendar.DAY_OF_MONTH, 1);
+            mTomorrowStart = mCalendar.getTimeInMillis();
+        }
+        return mToday;
+    }
+
+    /**
+     * Returns the local day the given number of days before the day of the given time, as the
+     * number yyyymmdd.
+     */
+    synchronized int getDaysBefore(long millis, int days) {
+        mCalendar.setTimeInMillis(millis);
+        mCalendar.add(Calendar.DAY_OF_MONTH, -days);
+        return toDay(mCalendar);
+    }
+
+    /**
+     * Called after a sale has been recorded. Compacts the ledger in the background when it is
+     * due.
+     */
+    void onSaleRecorded(long millis) {
+        synchronized (this) {
+            mSalesSinceCompaction++;
+            if (mSalesSinceCompaction < COMPACT_EVERY_SALES && millis < mNextCompaction) {
+                return;
+            }
+            mSalesSinceCompaction = 0;
+            getDay(millis);
+            mNextCompaction = mTomorrowStart;
+            mCompactionPosted = true;
+        }
+        mHandler.removeCallbacks(mCompact);
+        mHandler.post(mCompact);
+    }
+
+    /**
+     * Stop the background thread. A compaction that was due but hadn't started yet is run right
+     * away, on the calling thread.
+     */
+    void quit() {
+        boolean due;
+        synchronized (this) {
+            due = mCompactionPosted;
+            mCompactionPosted = false;
+        }
+        mHandler.removeCallbacks(mCompact);
+        mHandler.getLooper().quit();
+        if (due) {
+            compact();
+        }
+    }
+
+    /**
+     * Roll the sales older than {@link #LEDGER_DAYS} days up into the daily totals and drop the
+     * daily totals older than {@link SaleEntry#RETENTION_DAYS}, in one transaction.
+     */
+    void compact() {
+        long now = System.currentTimeMillis();
+        String[] ledgerStart = {String.valueOf(getDaysBefore(now, LEDGER_DAYS - 1))};
+        String[] retentionStart = {String.valueOf(getDaysBefore(now, SaleEntry.RETENTION_DAYS))};
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        int rolledUp;
+        database.beginTransaction();
+        try {
+            database.execSQL(SQL_ROLL_UP, ledgerStart);
+            rolledUp = database.delete(SaleEntry.TABLE_NAME, SaleEntry.COLUMN_DAY + " < ?",
+                    ledgerStart);
+            database.delete(SaleEntry.DAILY_TABLE_NAME, SaleEntry.COLUMN_DAY + " < ?",
+                    retentionStart);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        Log.i(LOG_TAG, "Rolled " + rolledUp + " sales up into daily totals");
+    }
+
+    private static int toDay(Calendar calendar) {
+        return calendar.get(Calendar.YEAR) * 10000
+                + (calendar.get(Calendar.MONTH) + 1) * 100
+                + calendar.get(Calendar.DAY_OF_MONTH);
+    }
+
+    private static void setStartOfDay(Calendar calendar) {
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+    }
+}
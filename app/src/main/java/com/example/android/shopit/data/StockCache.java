@@ -0,0 +1,248 @@
+package com.example.android.shopit.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.util.LruCache;
+
+import com.example.android.shopit.data.StockContract.StockEntry;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Keeps the most recently seen stocks in memory, by {@link StockEntry#_ID}, so opening a stock
+ * that was just on screen doesn't go back to the database.
+ * <p>
+ * Stocks get in from two sides: the list loader adds the rows it has just decoded, and
+ * {@link StockProvider} reads a single stock through the cache when it is queried by its item
+ * URI. {@link StockProvider} drops a stock as soon as it is updated, sold or deleted. A stock
+ * read before such a write may only be added before the write happened, which every add checks
+ * with the generation taken before its read (see {@link #getGeneration()}).
+ */
+public final class StockCache {
+
+    /**
+     * Number of stocks kept, enough for the pages of the list around the screen and a page of
+     * search results
+     */
+    private static final int MAX_SIZE = 500;
+
+    /**
+     * The columns of a cached stock, in the order {@link #readStock(Cursor)} reads them
+     */
+    public static final String[] COLUMNS = {
+            StockEntry._ID,
+            StockEntry.COLUMN_STOCK_VERSION,
+            StockEntry.COLUMN_STOCK_NAME,
+            StockEntry.COLUMN_STOCK_SUPPLIER,
+            StockEntry.COLUMN_STOCK_TYPE,
+            StockEntry.COLUMN_STOCK_QUANTITY,
+            StockEntry.COLUMN_STOCK_PRICE,
+            StockEntry.COLUMN_STOCK_IMAGE};
+
+    private static final List<String> COLUMN_LIST = Arrays.asList(COLUMNS);
+
+    /**
+     * The attributes of a cached stock.
+     */
+    public static final class Stock {
+        public final long id;
+        public final long version;
+        public final String name;
+        public final String supplier;
+        public final int type;
+        public final int quantity;
+        public final int price;
+        public final String image;
+
+        public Stock(long id, long version, String name, String supplier, int type,
+                     int quantity, int price, String image) {
+            this.id = id;
+            this.version = version;
+            this.name = name;
+            this.supplier = supplier;
+            this.type = type;
+            this.quantity = quantity;
+            this.price = price;
+            this.image = image;
+        }
+
+        /**
+         * Returns the value of the given column, one of {@link #COLUMNS}.
+         */
+        private Object getValue(String column) {
+            switch (column) {
+                case StockEntry._ID:
+                    return id;
+                case StockEntry.COLUMN_STOCK_VERSION:
+                    return version;
+                case StockEntry.COLUMN_STOCK_NAME:
+                    return name;
+                case StockEntry.COLUMN_STOCK_SUPPLIER:
+                    return supplier;
+                case StockEntry.COLUMN_STOCK_TYPE:
+                    return type;
+                case StockEntry.COLUMN_STOCK_QUANTITY:
+                    return quantity;
+                case StockEntry.COLUMN_STOCK_PRICE:
+                    return price;
+                case StockEntry.COLUMN_STOCK_IMAGE:
+                    return image;
+                default:
+                    throw new IllegalArgumentException("Column " + column + " isn't cached");
+            }
+        }
+    }
+
+    private static final StockCache sInstance = new StockCache();
+
+    /**
+     * Returns the cache shared by the whole app.
+     */
+    public static StockCache getInstance() {
+        return sInstance;
+    }
+
+    private final LruCache<Long, Stock> mStocks = new LruCache<>(MAX_SIZE);
+
+    /**
+     * Bumped by every write that drops stocks. Guarded by this.
+     */
+    private long mGeneration;
+
+    private StockCache() {
+    }
+
+    /**
+     * Returns whether a query with the given projection can be answered from cached stocks,
+     * which is when it only asks for {@link #COLUMNS}.
+     */
+    public static boolean canServe(String[] projection) {
+        return projection != null && COLUMN_LIST.containsAll(Arrays.asList(projection));
+    }
+
+    /**
+     * Returns whether the rows of a query with the given projection can be cached, which is
+     * when it asks for all of the {@link #COLUMNS}.
+     */
+    public static boolean canFill(String[] projection) {
+        return projection == null || Arrays.asList(projection).containsAll(COLUMN_LIST);
+    }
+
+    /**
+     * Returns the current generation of the cache. Take it before reading stocks to add, and
+     * pass it to {@link #put(Stock, long)} or {@link #putAll(Stock[], long)}, so stocks written
+     * in between are not added as they were before the write.
+     */
+    public synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Returns the cached stock with the given id, or null if it isn't cached. Counts as a hit or
+     * a miss.
+     */
+    public Stock get(long id) {
+        return mStocks.get(id);
+    }
+
+    /**
+     * Add the given stock, unless stocks have been written since the given generation.
+     */
+    public synchronized void put(Stock stock, long generation) {
+        if (generation == mGeneration) {
+            mStocks.put(stock.id, stock);
+        }
+    }
+
+    /**
+     * Add the given stocks, unless stocks have been written since the given generation.
+     */
+    public synchronized void putAll(Stock[] stocks, long generation) {
+        if (generation != mGeneration) {
+            return;
+        }
+        for (Stock stock : stocks) {
+            mStocks.put(stock.id, stock);
+        }
+    }
+
+    /**
+     * Drop the stock with the given id, which has been changed or deleted.
+     */
+    synchronized void invalidate(long id) {
+        mGeneration++;
+        mStocks.remove(id);
+    }
+
+    /**
+     * Drop the stocks with the given ids, which have been changed or deleted.
+     */
+    synchronized void invalidate(long[] ids) {
+        mGeneration++;
+        for (long id : ids) {
+            mStocks.remove(id);
+        }
+    }
+
+    /**
+     * Drop every stock.
+     */
+    synchronized void invalidateAll() {
+        mGeneration++;
+        mStocks.evictAll();
+    }
+
+    /**
+     * Returns the number of stocks in the cache.
+     */
+    public int size() {
+        return mStocks.size();
+    }
+
+    /**
+     * Returns the most stocks the cache keeps.
+     */
+    public int maxSize() {
+        return MAX_SIZE;
+    }
+
+    /**
+     * Returns the number of times {@link #get(long)} found the stock.
+     */
+    public int getHitCount() {
+        return mStocks.hitCount();
+    }
+
+    /**
+     * Returns the number of times {@link #get(long)} didn't find the stock.
+     */
+    public int getMissCount() {
+        return mStocks.missCount();
+    }
+
+    /**
+     * Read the current row of a cursor with the {@link #COLUMNS}, in order.
+     */
+    static Stock readStock(Cursor cursor) {
+        return new Stock(cursor.getLong(0), cursor.getLong(1), cursor.getString(2),
+                cursor.getString(3), cursor.getInt(4), cursor.getInt(5), cursor.getInt(6),
+                cursor.getString(7));
+    }
+
+    /**
+     * Returns a cursor with the given columns of the given stock, or no rows if it is null.
+     * The projection must pass {@link #canServe(String[])}.
+     */
+    static Cursor newCursor(String[] projection, Stock stock) {
+        MatrixCursor cursor = new MatrixCursor(projection, stock == null ? 0 : 1);
+        if (stock != null) {
+            Object[] row = new Object[projection.length];
+            for (int i = 0; i < projection.length; i++) {
+                row[i] = stock.getValue(projection[i]);
+            }
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+}
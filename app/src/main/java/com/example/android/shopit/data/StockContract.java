@@ -22,6 +22,12 @@ public final class StockContract {
      */
     public static final Uri BASE_CONTENT_URI = Uri.parse("content://" + CONTENT_AUTHORITY);
     public static final String PATH_STOCK = "stock";
+    public static final String PATH_SEARCH = "search";
+    public static final String PATH_SUMMARY = "summary";
+    public static final String PATH_TYPE = "type";
+    public static final String PATH_REORDER = "reorder";
+    public static final String PATH_SALES = "sales";
+    public static final String PATH_RECENT = "recent";
 
 
     // To prevent someone from accidentally instantiating the contract class,
@@ -40,6 +46,184 @@ public final class StockContract {
          */
         public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_STOCK);
 
+        /**
+         * The content URI to search the stocks by name and supplier. The search text is appended
+         * as the last path segment, see {@link #buildSearchUri(String)}.
+         */
+        public static final Uri SEARCH_URI = Uri.withAppendedPath(CONTENT_URI, PATH_SEARCH);
+
+        /**
+         * The content URI for the stocks that need reordering, those with fewer items than their
+         * {@link #COLUMN_STOCK_REORDER_THRESHOLD}. Besides the stock columns each row has the
+         * {@link #COLUMN_ORDER_QUANTITY} to order. Stocks without a supplier have an empty
+         * {@link #COLUMN_STOCK_SUPPLIER}. Sorted by supplier then name unless asked otherwise, so
+         * the stocks of each supplier come together.
+         */
+        public static final Uri REORDER_URI = Uri.withAppendedPath(CONTENT_URI, PATH_REORDER);
+
+        /**
+         * Query parameter on {@link #CONTENT_URI} that limits the number of stocks returned.
+         * Also accepted by {@link #SEARCH_URI}.
+         */
+        public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+        /**
+         * Query parameter on {@link #CONTENT_URI} that skips the given number of stocks. Prefer
+         * {@link #QUERY_PARAMETER_AFTER_ID}, which doesn't have to step over the skipped rows.
+         */
+        public static final String QUERY_PARAMETER_OFFSET = "offset";
+
+        /**
+         * Query parameter on {@link #CONTENT_URI} that only returns stocks with an {@link #_ID}
+         * greater than the given one, in {@link #_ID} order. Used to fetch the stock list one page
+         * at a time: each page starts after the last {@link #_ID} of the page before it.
+         * <p>
+         * When the stocks are sorted with {@link #QUERY_PARAMETER_SORT}, the page starts after
+         * the stock with the given {@link #_ID} in that order instead, and
+         * {@link #QUERY_PARAMETER_AFTER_VALUE} must hold the value that stock is sorted by.
+         */
+        public static final String QUERY_PARAMETER_AFTER_ID = "after_id";
+
+        /**
+         * Query parameter on {@link #CONTENT_URI} holding the value of the sort column of the
+         * stock given by {@link #QUERY_PARAMETER_AFTER_ID}, when paging through sorted stocks.
+         * Left out if that value is null.
+         */
+        public static final String QUERY_PARAMETER_AFTER_VALUE = "after_value";
+
+        /**
+         * Query parameter on {@link #CONTENT_URI} that sorts the stocks by the given column:
+         * {@link #_ID}, {@link #COLUMN_STOCK_NAME}, {@link #COLUMN_STOCK_SUPPLIER},
+         * {@link #COLUMN_STOCK_QUANTITY} or {@link #COLUMN_STOCK_PRICE}. Names and suppliers are
+         * sorted regardless of case, and stocks that sort the same come in {@link #_ID} order.
+         * Every one of these orders is read from an index. Can't be combined with a sort order.
+         */
+        public static final String QUERY_PARAMETER_SORT = "sort";
+
+        /**
+         * Query parameter on {@link #CONTENT_URI} that reverses {@link #QUERY_PARAMETER_SORT}
+         * when "true".
+         */
+        public static final String QUERY_PARAMETER_DESCENDING = "descending";
+
+        /**
+         * Query parameter on {@link #CONTENT_URI} that only returns stocks of the given
+         * {@link #COLUMN_STOCK_TYPE}.
+         */
+        public static final String QUERY_PARAMETER_TYPE = "type";
+
+        /**
+         * Query parameter on {@link #CONTENT_URI} that only returns stocks of the given
+         * {@link #COLUMN_STOCK_SUPPLIER}, regardless of case.
+         */
+        public static final String QUERY_PARAMETER_SUPPLIER = "supplier";
+
+        /**
+         * Query parameter on {@link #CONTENT_URI} that only returns stocks with items left when
+         * "true".
+         */
+        public static final String QUERY_PARAMETER_IN_STOCK = "in_stock";
+
+        /**
+         * Provider method, passed to {@link ContentResolver#call}, that sells some of a stock.
+         * The argument is the {@link #_ID} of the stock and the extras may hold the number of
+         * items sold in {@link #EXTRA_COUNT} (1 if missing). If there are fewer items left than
+         * that, the ones left are sold. The result holds the number of items sold in
+         * {@link #EXTRA_SOLD} and, if the stock exists, its new quantity in
+         * {@link #EXTRA_QUANTITY}.
+         */
+        public static final String METHOD_SELL = "sell";
+
+        /**
+         * Extra for {@link #METHOD_SELL}: the number of items sold.
+         * <p>
+         * Type: int
+         */
+        public static final String EXTRA_COUNT = "count";
+
+        /**
+         * Result of {@link #METHOD_SELL}: the number of items sold, fewer than asked for if the
+         * stock ran out and 0 if there was none left.
+         * <p>
+         * Type: int
+         */
+        public static final String EXTRA_SOLD = "sold";
+
+        /**
+         * Result of {@link #METHOD_SELL}: the quantity left in stock, or -1 if there is no such
+         * stock.
+         * <p>
+         * Type: int
+         */
+        public static final String EXTRA_QUANTITY = "quantity";
+
+        /**
+         * Provider method, passed to {@link ContentResolver#call}, that sells some of several
+         * stocks in one transaction, each as {@link #METHOD_SELL} would. The argument is unused
+         * and the extras hold the {@link #_ID}s of the stocks in {@link #EXTRA_IDS} and the
+         * number of items of each sold in {@link #EXTRA_COUNTS}. The result holds, in the same
+         * order, the number of items sold in {@link #EXTRA_SOLD_COUNTS} and the quantities left
+         * in {@link #EXTRA_QUANTITIES}, -1 for a stock that doesn't exist.
+         */
+        public static final String METHOD_SELL_ALL = "sell_all";
+
+        /**
+         * Extra for {@link #METHOD_SELL_ALL}: the number of items sold of each stock.
+         * <p>
+         * Type: int[]
+         */
+        public static final String EXTRA_COUNTS = "counts";
+
+        /**
+         * Result of {@link #METHOD_SELL_ALL}: the number of items sold of each stock, as
+         * {@link #EXTRA_SOLD}.
+         * <p>
+         * Type: int[]
+         */
+        public static final String EXTRA_SOLD_COUNTS = "sold_counts";
+
+        /**
+         * Provider method, passed to {@link ContentResolver#call}, that takes the stocks which have
+         * gone below their {@link #COLUMN_STOCK_REORDER_THRESHOLD} since the last call. Each stock
+         * is only returned once per time it goes below its threshold, and stocks that are back
+         * above it by the time of the call are left out. The argument is the maximum number of
+         * stocks to describe, or null for all of them. The result holds {@link #EXTRA_TOTAL} and
+         * the stocks in {@link #EXTRA_IDS}, {@link #EXTRA_NAMES} and {@link #EXTRA_QUANTITIES},
+         * sorted by name.
+         */
+        public static final String METHOD_TAKE_LOW_STOCK = "take_low_stock";
+
+        /**
+         * Result of {@link #METHOD_TAKE_LOW_STOCK}: the number of stocks that went low, which
+         * may be more than the number described.
+         * <p>
+         * Type: int
+         */
+        public static final String EXTRA_TOTAL = "total";
+
+        /**
+         * Result of {@link #METHOD_TAKE_LOW_STOCK} and extra for {@link #METHOD_SELL_ALL}: the
+         * ids of the stocks.
+         * <p>
+         * Type: long[]
+         */
+        public static final String EXTRA_IDS = "ids";
+
+        /**
+         * Result of {@link #METHOD_TAKE_LOW_STOCK}: the names of the stocks.
+         * <p>
+         * Type: String[]
+         */
+        public static final String EXTRA_NAMES = "names";
+
+        /**
+         * Result of {@link #METHOD_TAKE_LOW_STOCK} and {@link #METHOD_SELL_ALL}: the quantities
+         * of the stocks.
+         * <p>
+         * Type: int[]
+         */
+        public static final String EXTRA_QUANTITIES = "quantities";
+
         /**
          * The MIME type of the {@link #CONTENT_URI} for a list of stocks.
          */
@@ -109,12 +293,43 @@ public final class StockContract {
         public static final int TYPE_ONE = 1;
         public static final int TYPE_TWO = 2;
         /**
-         * Image of the item
+         * Image of the item: the hash of a picture in the {@link StockImageStore}, or for stocks
+         * saved before the store existed, the URI of the original picture
          * <p>
-         * TYPE: BYTE
+         * TYPE: TEXT
          */
         public final static String COLUMN_STOCK_IMAGE = "image";
 
+        /**
+         * Version of the stock row. Starts at 0 and goes up by one every time the stock is
+         * updated, so two reads of the same stock can be compared without comparing every column.
+         * Maintained by the database, it can't be written through the provider.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_STOCK_VERSION = "version";
+
+        /**
+         * Reorder threshold of the stock. The stock is low on stock, and should be reordered,
+         * once it has fewer items than this. Defaults to {@link #DEFAULT_REORDER_THRESHOLD}.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_STOCK_REORDER_THRESHOLD = "reorder_threshold";
+
+        /**
+         * Number of items to order to bring the stock back up to twice its reorder threshold.
+         * Only available from {@link #REORDER_URI}.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_ORDER_QUANTITY = "order_quantity";
+
+        /**
+         * Reorder threshold of stocks that don't set their own
+         */
+        public static final int DEFAULT_REORDER_THRESHOLD = 5;
+
         /**
          * Returns whether or not the given type is {@link #TYPE_UNKNOWN}, {@link #TYPE_ONE},
          * or {@link #TYPE_TWO}.
@@ -129,6 +344,181 @@ public final class StockContract {
         public static boolean quantityNotZero(int quantity) {
             return quantity >= 0;
         }
+
+        /**
+         * Returns the content URI that searches for stocks whose name or supplier contains words
+         * starting with the words of the given text. Stocks matching on name come first.
+         */
+        public static Uri buildSearchUri(String query) {
+            return SEARCH_URI.buildUpon().appendPath(query).build();
+        }
+
+        /**
+         * Returns the content URI for a page of at most {@code limit} stocks that come after the
+         * stock with the given {@link #_ID}. Pass 0 for {@code afterId} to get the first page.
+         */
+        public static Uri buildPageUri(long afterId, int limit) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_AFTER_ID, String.valueOf(afterId))
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+    }
+
+    /**
+     * Inner class that defines constant values for the inventory summary. The summary table holds
+     * one row of running totals per stock type, kept up to date by triggers on the stocks table,
+     * so reading it costs the same however many stocks there are. It is read only.
+     */
+    public static final class SummaryEntry {
+
+        /**
+         * The content URI for the totals of the whole inventory, a single row with the
+         * {@link #COLUMN_STOCK_COUNT}, {@link #COLUMN_TOTAL_QUANTITY}, {@link #COLUMN_TOTAL_VALUE}
+         * and {@link #COLUMN_LOW_STOCK_COUNT} columns.
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_SUMMARY);
+
+        /**
+         * The content URI for the totals of each stock type, one row per type that has ever had a
+         * stock, with the {@link #COLUMN_TYPE} column on top of the columns of
+         * {@link #CONTENT_URI}.
+         */
+        public static final Uri TYPE_URI = Uri.withAppendedPath(CONTENT_URI, PATH_TYPE);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for the totals of the inventory.
+         */
+        public static final String CONTENT_ITEM_TYPE = ContentResolver.CURSOR_ITEM_BASE_TYPE
+                + "/" + CONTENT_AUTHORITY + "/" + PATH_SUMMARY;
+
+        /**
+         * The MIME type of the {@link #TYPE_URI} for the totals of each stock type.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SUMMARY;
+
+        /**
+         * Name of database table for the summary
+         */
+        public final static String TABLE_NAME = "stock_summary";
+
+        /**
+         * Type of stock the totals are for, see {@link StockEntry#COLUMN_STOCK_TYPE}.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_TYPE = StockEntry.COLUMN_STOCK_TYPE;
+
+        /**
+         * Number of stocks.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_STOCK_COUNT = "stock_count";
+
+        /**
+         * Number of items in stock, summed over all stocks.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_TOTAL_QUANTITY = "total_quantity";
+
+        /**
+         * Value of the items in stock, the price times the quantity summed over all stocks.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_TOTAL_VALUE = "total_value";
+
+        /**
+         * Number of stocks with fewer items than their
+         * {@link StockEntry#COLUMN_STOCK_REORDER_THRESHOLD}.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_LOW_STOCK_COUNT = "low_stock_count";
+    }
+
+    /**
+     * Inner class that defines constant values for the sales ledger. Every sale made with
+     * {@link StockEntry#METHOD_SELL} appends a row to the sales table in the same transaction
+     * as the quantity goes down. Sales older than a few days are regularly rolled up into daily
+     * totals per stock, and daily totals older than {@link #RETENTION_DAYS} are dropped, so the
+     * ledger stays small however busy the till is. The sales of a stock are deleted along with
+     * the stock. It is read only.
+     */
+    public static final class SaleEntry implements BaseColumns {
+
+        /**
+         * The content URI for the number of items of each stock sold in the last days, one row
+         * per stock with sales, with the {@link #COLUMN_STOCK_ID} and {@link #COLUMN_QUANTITY}
+         * columns. The number of days, today included, is given by
+         * {@link #QUERY_PARAMETER_DAYS}. Sorted by the quantity sold, highest first, unless asked
+         * otherwise.
+         */
+        public static final Uri RECENT_URI = BASE_CONTENT_URI.buildUpon()
+                .appendPath(PATH_SALES).appendPath(PATH_RECENT).build();
+
+        /**
+         * Query parameter on {@link #RECENT_URI} giving the number of days to add up, between 1
+         * and {@link #RETENTION_DAYS}. Defaults to {@link #DEFAULT_RECENT_DAYS}.
+         */
+        public static final String QUERY_PARAMETER_DAYS = "days";
+
+        /**
+         * Number of days added up by {@link #RECENT_URI} unless the URI asks otherwise
+         */
+        public static final int DEFAULT_RECENT_DAYS = 30;
+
+        /**
+         * Number of days the daily totals are kept for
+         */
+        public static final int RETENTION_DAYS = 400;
+
+        /**
+         * The MIME type of the {@link #RECENT_URI}.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SALES;
+
+        /**
+         * Name of database table for the sales not rolled up yet
+         */
+        public final static String TABLE_NAME = "sales";
+
+        /**
+         * Name of database table for the daily totals of each stock
+         */
+        public final static String DAILY_TABLE_NAME = "daily_sales";
+
+        /**
+         * {@link StockEntry#_ID} of the stock sold.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_STOCK_ID = "stock_id";
+
+        /**
+         * Number of items sold.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_QUANTITY = "quantity";
+
+        /**
+         * Time of the sale in milliseconds since the epoch. Only in {@link #TABLE_NAME}.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_TIMESTAMP = "timestamp";
+
+        /**
+         * Local day of the sale, as the number yyyymmdd (20170720 for 20 July 2017).
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_DAY = "day";
     }
 
 }
\ No newline at end of file
@@ -1,10 +1,14 @@
 package com.example.android.shopit.data;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
 
+import com.example.android.shopit.data.StockContract.SaleEntry;
 import com.example.android.shopit.data.StockContract.StockEntry;
+import com.example.android.shopit.data.StockContract.SummaryEntry;
 
 /**
  * Database helper for ShopIt app. Manages database creation and version management.
@@ -17,9 +21,48 @@ public class StockDbHelper extends SQLiteOpenHelper {
     private static final String DATABASE_NAME = "inventory.db";
 
     /**
-     * Database version. If you change the database schema, you must increment the database version.
+     * Database version. If you change the database schema, you must increment the database version
+     * and add the matching upgrade step to {@link #upgradeFrom(SQLiteDatabase, int)}.
      */
-    private static final int DATABASE_VERSION = 1;
+    static final int DATABASE_VERSION = 9;
+
+    /**
+     * Names of the indexes on the stocks table
+     */
+    private static final String INDEX_NAME = "stocks_name_index";
+    private static final String INDEX_SUPPLIER = "stocks_supplier_index";
+    private static final String INDEX_TYPE = "stocks_type_index";
+    private static final String INDEX_QUANTITY = "stocks_quantity_index";
+    private static final String INDEX_PRICE = "stocks_price_index";
+
+    /**
+     * Name of the full-text search table that mirrors the name and supplier of every stock. The
+     * docid of each row is the {@link StockEntry#_ID} of the stock it belongs to.
+     */
+    static final String SEARCH_TABLE_NAME = "stocks_search";
+
+    /**
+     * Name of the table that queues the stocks which have gone below their reorder threshold,
+     * until they are taken by {@link StockEntry#METHOD_TAKE_LOW_STOCK}. Filled by triggers.
+     */
+    static final String LOW_STOCK_QUEUE_TABLE_NAME = "low_stock_queue";
+
+    /**
+     * Column of {@link #LOW_STOCK_QUEUE_TABLE_NAME} holding the {@link StockEntry#_ID} of the stock
+     */
+    static final String COLUMN_QUEUE_STOCK_ID = "stock_id";
+
+    /**
+     * Number of pages the write-ahead log may grow to before SQLite checkpoints it back into the
+     * database file on its own.
+     */
+    private static final int WAL_AUTOCHECKPOINT_PAGES = 500;
+
+    /**
+     * Size in bytes the write-ahead log file is truncated to after a checkpoint, so a burst of
+     * writes doesn't leave a large file behind on a busy till.
+     */
+    private static final long WAL_SIZE_LIMIT_BYTES = 1024 * 1024;
 
     /**
      * Constructs a new instance of {@link StockDbHelper}.
@@ -28,14 +71,68 @@ public class StockDbHelper extends SQLiteOpenHelper {
      */
     public StockDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+
+        // Open the database in write-ahead-logging mode. Readers then get their own connections
+        // from the pool and no longer wait for a write (such as a sale) to finish.
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLoggingEnabled(true);
+        }
+    }
+
+    /**
+     * This is called every time the database is opened, after it has been created or upgraded.
+     */
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (db.isReadOnly()) {
+            return;
+        }
+
+        // Before Jelly Bean write-ahead logging can only be switched on once the database is open
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            db.enableWriteAheadLogging();
+        }
+
+        // These settings apply to the primary connection, which is the one every write goes
+        // through. In WAL mode NORMAL only syncs at checkpoints and is still safe against
+        // corruption, a power loss can at most roll back the last few committed sales.
+        runPragma(db, "PRAGMA synchronous = NORMAL");
+        runPragma(db, "PRAGMA wal_autocheckpoint = " + WAL_AUTOCHECKPOINT_PAGES);
+        runPragma(db, "PRAGMA journal_size_limit = " + WAL_SIZE_LIMIT_BYTES);
+    }
+
+    /**
+     * Copy the write-ahead log back into the database file and truncate it. Called after large
+     * batches of writes so the log doesn't stay large until the next automatic checkpoint.
+     */
+    static void checkpoint(SQLiteDatabase db) {
+        runPragma(db, "PRAGMA wal_checkpoint(TRUNCATE)");
+    }
+
+    /**
+     * Run a PRAGMA statement. Most pragmas report their new value as a row, which
+     * {@link SQLiteDatabase#execSQL(String)} refuses, so they are run as a query instead.
+     */
+    private static void runPragma(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery(pragma, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
     }
 
     /**
      * This is called when the database is created for the first time.
+     * <p>
+     * The version 1 schema is created and then every upgrade step is replayed, so a new database
+     * always ends up with exactly the same schema as one that has been upgraded in place.
      */
     @Override
     public void onCreate(SQLiteDatabase db) {
         // Create a String that contains the SQL statement to create the stocks table
+        // as it was in version 1 of the database.
         String SQL_CREATE_STOCKS_TABLE = "CREATE TABLE " + StockEntry.TABLE_NAME + " ("
                 + StockEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
                 + StockEntry.COLUMN_STOCK_NAME + " TEXT NOT NULL, "
@@ -47,13 +144,403 @@ public class StockDbHelper extends SQLiteOpenHelper {
 
         // Execute the SQL statement
         db.execSQL(SQL_CREATE_STOCKS_TABLE);
+
+        // Bring the new database up to the current version
+        onUpgrade(db, 1, DATABASE_VERSION);
     }
 
     /**
-     * This is called when the database needs to be upgraded.
+     * This is called when the database needs to be upgraded. Each version is upgraded to the
+     * next one in order, inside the transaction opened by {@link SQLiteOpenHelper}, so an
+     * upgrade either completes fully or leaves the database untouched.
      */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // The database is still at version 1, so there's nothing to do be done here.
+        for (int version = oldVersion; version < newVersion; version++) {
+            upgradeFrom(db, version);
+        }
+    }
+
+    /**
+     * Upgrade the database from the given version to the one right after it.
+     */
+    private static void upgradeFrom(SQLiteDatabase db, int version) {
+        switch (version) {
+            case 1:
+                upgradeToVersion2(db);
+                break;
+            case 2:
+                upgradeToVersion3(db);
+                break;
+            case 3:
+                upgradeToVersion4(db);
+                break;
+            case 4:
+                upgradeToVersion5(db);
+                break;
+            case 5:
+                upgradeToVersion6(db);
+                break;
+            case 6:
+                upgradeToVersion7(db);
+                break;
+            case 7:
+                upgradeToVersion8(db);
+                break;
+            case 8:
+                upgradeToVersion9(db);
+                break;
+            default:
+                throw new IllegalStateException("No upgrade step from database version " + version);
+        }
+    }
+
+    /**
+     * Version 2 fixes the quantity column, which version 1 declared as
+     * "INTEGER,NTEGER NOT NULL DEFAULT 0" (a nullable quantity plus a stray NTEGER column),
+     * and adds the indexes used to filter and sort the stock list.
+     */
+    private static void upgradeToVersion2(SQLiteDatabase db) {
+        // SQLite can't change a column definition, so rebuild the table and copy the rows over.
+        // The _id values are copied as they are, so existing stock URIs stay valid.
+        String tempTable = StockEntry.TABLE_NAME + "_v2";
+        db.execSQL("CREATE TABLE " + tempTable + " ("
+                + StockEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + StockEntry.COLUMN_STOCK_NAME + " TEXT NOT NULL, "
+                + StockEntry.COLUMN_STOCK_SUPPLIER + " TEXT, "
+                + StockEntry.COLUMN_STOCK_TYPE + " INTEGER NOT NULL, "
+                + StockEntry.COLUMN_STOCK_QUANTITY + " INTEGER NOT NULL DEFAULT 0, "
+                + StockEntry.COLUMN_STOCK_IMAGE + " TEXT, "
+                + StockEntry.COLUMN_STOCK_PRICE + " INTEGER NOT NULL DEFAULT 0);");
+        db.execSQL("INSERT INTO " + tempTable + " ("
+                + StockEntry._ID + ", "
+                + StockEntry.COLUMN_STOCK_NAME + ", "
+                + StockEntry.COLUMN_STOCK_SUPPLIER + ", "
+                + StockEntry.COLUMN_STOCK_TYPE + ", "
+                + StockEntry.COLUMN_STOCK_QUANTITY + ", "
+                + StockEntry.COLUMN_STOCK_IMAGE + ", "
+                + StockEntry.COLUMN_STOCK_PRICE + ") SELECT "
+                + StockEntry._ID + ", "
+                + StockEntry.COLUMN_STOCK_NAME + ", "
+                + StockEntry.COLUMN_STOCK_SUPPLIER + ", "
+                + StockEntry.COLUMN_STOCK_TYPE + ", "
+                + "IFNULL(" + StockEntry.COLUMN_STOCK_QUANTITY + ", 0), "
+                + StockEntry.COLUMN_STOCK_IMAGE + ", "
+                + StockEntry.COLUMN_STOCK_PRICE
+                + " FROM " + StockEntry.TABLE_NAME + ";");
+
+        // Carry the AUTOINCREMENT counter over as well, so ids of deleted stocks are never reused,
+        // even when every stock has been deleted and the copy has no counter of its own yet.
+        // sqlite_sequence has no unique key on the name, so the copy's counter is replaced by
+        // deleting it first rather than with INSERT OR REPLACE.
+        db.execSQL("DELETE FROM sqlite_sequence WHERE name = '" + tempTable + "';");
+        db.execSQL("INSERT INTO sqlite_sequence (name, seq) SELECT '" + tempTable + "', seq"
+                + " FROM sqlite_sequence WHERE name = '" + StockEntry.TABLE_NAME + "';");
+        db.execSQL("DROP TABLE " + StockEntry.TABLE_NAME + ";");
+        db.execSQL("ALTER TABLE " + tempTable + " RENAME TO " + StockEntry.TABLE_NAME + ";");
+
+        // Index the columns the stock list filters and sorts on
+        db.execSQL("CREATE INDEX " + INDEX_NAME + " ON " + StockEntry.TABLE_NAME
+                + " (" + StockEntry.COLUMN_STOCK_NAME + " COLLATE NOCASE);");
+        db.execSQL("CREATE INDEX " + INDEX_SUPPLIER + " ON " + StockEntry.TABLE_NAME
+                + " (" + StockEntry.COLUMN_STOCK_SUPPLIER + ");");
+        db.execSQL("CREATE INDEX " + INDEX_TYPE + " ON " + StockEntry.TABLE_NAME
+                + " (" + StockEntry.COLUMN_STOCK_TYPE + ");");
+        db.execSQL("CREATE INDEX " + INDEX_QUANTITY + " ON " + StockEntry.TABLE_NAME
+                + " (" + StockEntry.COLUMN_STOCK_QUANTITY + ", " + StockEntry._ID + ");");
+    }
+
+    /**
+     * Version 3 adds the full-text search table over stock names and suppliers, kept in sync with
+     * the stocks table by triggers.
+     */
+    private static void upgradeToVersion3(SQLiteDatabase db) {
+        db.execSQL("CREATE VIRTUAL TABLE " + SEARCH_TABLE_NAME + " USING fts4("
+                + StockEntry.COLUMN_STOCK_NAME + ", "
+                + StockEntry.COLUMN_STOCK_SUPPLIER + ");");
+        db.execSQL("INSERT INTO " + SEARCH_TABLE_NAME + " (docid, "
+                + StockEntry.COLUMN_STOCK_NAME + ", "
+                + StockEntry.COLUMN_STOCK_SUPPLIER + ") SELECT "
+                + StockEntry._ID + ", "
+                + StockEntry.COLUMN_STOCK_NAME + ", "
+                + StockEntry.COLUMN_STOCK_SUPPLIER
+                + " FROM " + StockEntry.TABLE_NAME + ";");
+
+        db.execSQL("CREATE TRIGGER " + StockEntry.TABLE_NAME + "_search_insert AFTER INSERT ON "
+                + StockEntry.TABLE_NAME + " BEGIN "
+                + "INSERT INTO " + SEARCH_TABLE_NAME + " (docid, "
+                + StockEntry.COLUMN_STOCK_NAME + ", "
+                + StockEntry.COLUMN_STOCK_SUPPLIER + ") VALUES (NEW." + StockEntry._ID + ", NEW."
+                + StockEntry.COLUMN_STOCK_NAME + ", NEW." + StockEntry.COLUMN_STOCK_SUPPLIER + "); "
+                + "END;");
+        // Only a change to the name or supplier needs the search row rewritten, so a sale
+        // (which only changes the quantity) doesn't touch the search index at all.
+        db.execSQL("CREATE TRIGGER " + StockEntry.TABLE_NAME + "_search_update AFTER UPDATE OF "
+                + StockEntry.COLUMN_STOCK_NAME + ", " + StockEntry.COLUMN_STOCK_SUPPLIER + " ON "
+                + StockEntry.TABLE_NAME + " BEGIN "
+                + "UPDATE " + SEARCH_TABLE_NAME + " SET "
+                + StockEntry.COLUMN_STOCK_NAME + " = NEW." + StockEntry.COLUMN_STOCK_NAME + ", "
+                + StockEntry.COLUMN_STOCK_SUPPLIER + " = NEW." + StockEntry.COLUMN_STOCK_SUPPLIER
+                + " WHERE docid = OLD." + StockEntry._ID + "; "
+                + "END;");
+        db.execSQL("CREATE TRIGGER " + StockEntry.TABLE_NAME + "_search_delete AFTER DELETE ON "
+                + StockEntry.TABLE_NAME + " BEGIN "
+                + "DELETE FROM " + SEARCH_TABLE_NAME + " WHERE docid = OLD." + StockEntry._ID + "; "
+                + "END;");
+    }
+
+    /**
+     * Version 4 adds the row version column, bumped by a trigger whenever any other column of
+     * the stock changes.
+     */
+    private static void upgradeToVersion4(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + StockEntry.TABLE_NAME + " ADD COLUMN "
+                + StockEntry.COLUMN_STOCK_VERSION + " INTEGER NOT NULL DEFAULT 0;");
+
+        // The trigger doesn't fire for its own update of the version column, so it can't loop
+        db.execSQL("CREATE TRIGGER " + StockEntry.TABLE_NAME + "_version_update AFTER UPDATE OF "
+                + StockEntry.COLUMN_STOCK_NAME + ", "
+                + StockEntry.COLUMN_STOCK_SUPPLIER + ", "
+                + StockEntry.COLUMN_STOCK_TYPE + ", "
+                + StockEntry.COLUMN_STOCK_QUANTITY + ", "
+                + StockEntry.COLUMN_STOCK_IMAGE + ", "
+                + StockEntry.COLUMN_STOCK_PRICE + " ON " + StockEntry.TABLE_NAME + " BEGIN "
+                + "UPDATE " + StockEntry.TABLE_NAME + " SET " + StockEntry.COLUMN_STOCK_VERSION
+                + " = OLD." + StockEntry.COLUMN_STOCK_VERSION + " + 1 WHERE "
+                + StockEntry._ID + " = OLD." + StockEntry._ID + "; "
+                + "END;");
+    }
+
+    /**
+     * Version 5 adds the summary table, holding running totals per stock type. It is filled from
+     * the existing stocks once, and from then on triggers add each inserted, updated or deleted
+     * stock to the totals of its type, so the totals never have to be recomputed.
+     */
+    private static void upgradeToVersion5(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + SummaryEntry.TABLE_NAME + " ("
+                + SummaryEntry.COLUMN_TYPE + " INTEGER PRIMARY KEY, "
+                + SummaryEntry.COLUMN_STOCK_COUNT + " INTEGER NOT NULL DEFAULT 0, "
+                + SummaryEntry.COLUMN_TOTAL_QUANTITY + " INTEGER NOT NULL DEFAULT 0, "
+                + SummaryEntry.COLUMN_TOTAL_VALUE + " INTEGER NOT NULL DEFAULT 0, "
+                + SummaryEntry.COLUMN_LOW_STOCK_COUNT + " INTEGER NOT NULL DEFAULT 0);");
+        db.execSQL("INSERT INTO " + SummaryEntry.TABLE_NAME + " ("
+                + SummaryEntry.COLUMN_TYPE + ", "
+                + SummaryEntry.COLUMN_STOCK_COUNT + ", "
+                + SummaryEntry.COLUMN_TOTAL_QUANTITY + ", "
+                + SummaryEntry.COLUMN_TOTAL_VALUE + ", "
+                + SummaryEntry.COLUMN_LOW_STOCK_COUNT + ") SELECT "
+                + StockEntry.COLUMN_STOCK_TYPE + ", "
+                + "COUNT(*), "
+                + "SUM(" + StockEntry.COLUMN_STOCK_QUANTITY + "), "
+                + "SUM(" + StockEntry.COLUMN_STOCK_PRICE + " * "
+                + StockEntry.COLUMN_STOCK_QUANTITY + "), "
+                + "SUM(" + isLowStockVersion5("") + ")"
+                + " FROM " + StockEntry.TABLE_NAME
+                + " GROUP BY " + StockEntry.COLUMN_STOCK_TYPE + ";");
+
+        db.execSQL("CREATE TRIGGER " + StockEntry.TABLE_NAME + "_summary_insert AFTER INSERT ON "
+                + StockEntry.TABLE_NAME + " BEGIN "
+                + addToSummary("NEW", "+", isLowStockVersion5("NEW."))
+                + "END;");
+        // A sale only changes the quantity, so it only costs one update of one summary row
+        db.execSQL("CREATE TRIGGER " + StockEntry.TABLE_NAME + "_summary_update AFTER UPDATE OF "
+                + StockEntry.COLUMN_STOCK_TYPE + ", "
+                + StockEntry.COLUMN_STOCK_QUANTITY + ", "
+                + StockEntry.COLUMN_STOCK_PRICE + " ON " + StockEntry.TABLE_NAME + " BEGIN "
+                + addToSummary("OLD", "-", isLowStockVersion5("OLD."))
+                + addToSummary("NEW", "+", isLowStockVersion5("NEW."))
+                + "END;");
+        db.execSQL("CREATE TRIGGER " + StockEntry.TABLE_NAME + "_summary_delete AFTER DELETE ON "
+                + StockEntry.TABLE_NAME + " BEGIN "
+                + addToSummary("OLD", "-", isLowStockVersion5("OLD."))
+                + "END;");
+    }
+
+    /**
+     * Version 6 adds the reorder threshold column, counts a stock as low on stock once it goes
+     * below its own threshold rather than a fixed quantity, and adds the queue of stocks that
+     * have just gone low, which lets the low-stock watcher look at only those stocks.
+     */
+    private static void upgradeToVersion6(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + StockEntry.TABLE_NAME + " ADD COLUMN "
+                + StockEntry.COLUMN_STOCK_REORDER_THRESHOLD + " INTEGER NOT NULL DEFAULT "
+                + StockEntry.DEFAULT_REORDER_THRESHOLD + ";");
+
+        // The threshold is part of the stock, so changing it bumps the row version too
+        db.execSQL("DROP TRIGGER " + StockEntry.TABLE_NAME + "_version_update;");
+        db.execSQL("CREATE TRIGGER " + StockEntry.TABLE_NAME + "_version_update AFTER UPDATE OF "
+                + StockEntry.COLUMN_STOCK_NAME + ", "
+                + StockEntry.COLUMN_STOCK_SUPPLIER + ", "
+                + StockEntry.COLUMN_STOCK_TYPE + ", "
+                + StockEntry.COLUMN_STOCK_QUANTITY + ", "
+                + StockEntry.COLUMN_STOCK_IMAGE + ", "
+                + StockEntry.COLUMN_STOCK_PRICE + ", "
+                + StockEntry.COLUMN_STOCK_REORDER_THRESHOLD + " ON " + StockEntry.TABLE_NAME
+                + " BEGIN "
+                + "UPDATE " + StockEntry.TABLE_NAME + " SET " + StockEntry.COLUMN_STOCK_VERSION
+                + " = OLD." + StockEntry.COLUMN_STOCK_VERSION + " + 1 WHERE "
+                + StockEntry._ID + " = OLD." + StockEntry._ID + "; "
+                + "END;");
+
+        // Recount the low stocks against their thresholds and keep counting them that way
+        db.execSQL("DROP TRIGGER " + StockEntry.TABLE_NAME + "_summary_insert;");
+        db.execSQL("DROP TRIGGER " + StockEntry.TABLE_NAME + "_summary_update;");
+        db.execSQL("DROP TRIGGER " + StockEntry.TABLE_NAME + "_summary_delete;");
+        db.execSQL("UPDATE " + SummaryEntry.TABLE_NAME + " SET "
+                + SummaryEntry.COLUMN_LOW_STOCK_COUNT + " = (SELECT COUNT(*) FROM "
+                + StockEntry.TABLE_NAME + " WHERE " + StockEntry.COLUMN_STOCK_TYPE + " = "
+                + SummaryEntry.TABLE_NAME + "." + SummaryEntry.COLUMN_TYPE + " AND "
+                + isLowStock("") + ");");
+        db.execSQL("CREATE TRIGGER " + StockEntry.TABLE_NAME + "_summary_insert AFTER INSERT ON "
+                + StockEntry.TABLE_NAME + " BEGIN "
+                + addToSummary("NEW", "+", isLowStock("NEW."))
+                + "END;");
+        db.execSQL("CREATE TRIGGER " + StockEntry.TABLE_NAME + "_summary_update AFTER UPDATE OF "
+                + StockEntry.COLUMN_STOCK_TYPE + ", "
+                + StockEntry.COLUMN_STOCK_QUANTITY + ", "
+                + StockEntry.COLUMN_STOCK_PRICE + ", "
+                + StockEntry.COLUMN_STOCK_REORDER_THRESHOLD + " ON " + StockEntry.TABLE_NAME
+                + " BEGIN "
+                + addToSummary("OLD", "-", isLowStock("OLD."))
+                + addToSummary("NEW", "+", isLowStock("NEW."))
+                + "END;");
+        db.execSQL("CREATE TRIGGER " + StockEntry.TABLE_NAME + "_summary_delete AFTER DELETE ON "
+                + StockEntry.TABLE_NAME + " BEGIN "
+                + addToSummary("OLD", "-", isLowStock("OLD."))
+                + "END;");
+
+        // Queue every stock as it goes from enough stock to low stock. The stocks that are
+        // already low are queued once as well, so they get reported after the upgrade.
+        db.execSQL("CREATE TABLE " + LOW_STOCK_QUEUE_TABLE_NAME + " ("
+                + COLUMN_QUEUE_STOCK_ID + " INTEGER PRIMARY KEY);");
+        db.execSQL("INSERT INTO " + LOW_STOCK_QUEUE_TABLE_NAME + " (" + COLUMN_QUEUE_STOCK_ID
+                + ") SELECT " + StockEntry._ID + " FROM " + StockEntry.TABLE_NAME
+                + " WHERE " + isLowStock("") + ";");
+        db.execSQL("CREATE TRIGGER " + StockEntry.TABLE_NAME + "_low_stock_insert AFTER INSERT ON "
+                + StockEntry.TABLE_NAME + " WHEN " + isLowStock("NEW.") + " BEGIN "
+                + queueLowStock()
+                + "END;");
+        db.execSQL("CREATE TRIGGER " + StockEntry.TABLE_NAME + "_low_stock_update AFTER UPDATE OF "
+                + StockEntry.COLUMN_STOCK_QUANTITY + ", "
+                + StockEntry.COLUMN_STOCK_REORDER_THRESHOLD + " ON " + StockEntry.TABLE_NAME
+                + " WHEN " + isLowStock("NEW.") + " AND NOT " + isLowStock("OLD.") + " BEGIN "
+                + queueLowStock()
+                + "END;");
+        db.execSQL("CREATE TRIGGER " + StockEntry.TABLE_NAME + "_low_stock_delete AFTER DELETE ON "
+                + StockEntry.TABLE_NAME + " BEGIN "
+                + "DELETE FROM " + LOW_STOCK_QUEUE_TABLE_NAME + " WHERE "
+                + COLUMN_QUEUE_STOCK_ID + " = OLD." + StockEntry._ID + "; "
+                + "END;");
+    }
+
+    /**
+     * Version 7 adds the sales ledger: the table every sale is appended to, and the table of
+     * daily totals per stock that old sales are rolled up into. Both are indexed by day for the
+     * "sales in the last days" queries and for rolling up.
+     */
+    private static void upgradeToVersion7(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + SaleEntry.TABLE_NAME + " ("
+                + SaleEntry._ID + " INTEGER PRIMARY KEY, "
+                + SaleEntry.COLUMN_STOCK_ID + " INTEGER NOT NULL, "
+                + SaleEntry.COLUMN_QUANTITY + " INTEGER NOT NULL, "
+                + SaleEntry.COLUMN_TIMESTAMP + " INTEGER NOT NULL, "
+                + SaleEntry.COLUMN_DAY + " INTEGER NOT NULL);");
+        db.execSQL("CREATE INDEX " + SaleEntry.TABLE_NAME + "_day_index ON "
+                + SaleEntry.TABLE_NAME + " (" + SaleEntry.COLUMN_DAY + ");");
+
+        db.execSQL("CREATE TABLE " + SaleEntry.DAILY_TABLE_NAME + " ("
+                + SaleEntry.COLUMN_STOCK_ID + " INTEGER NOT NULL, "
+                + SaleEntry.COLUMN_DAY + " INTEGER NOT NULL, "
+                + SaleEntry.COLUMN_QUANTITY + " INTEGER NOT NULL, "
+                + "PRIMARY KEY (" + SaleEntry.COLUMN_STOCK_ID + ", "
+                + SaleEntry.COLUMN_DAY + "));");
+        db.execSQL("CREATE INDEX " + SaleEntry.DAILY_TABLE_NAME + "_day_index ON "
+                + SaleEntry.DAILY_TABLE_NAME + " (" + SaleEntry.COLUMN_DAY + ");");
+    }
+
+    /**
+     * Version 8 indexes every column the stock list can be sorted by, in the order it is sorted
+     * in (see {@link StockListQuery}): suppliers are now indexed regardless of case, and prices
+     * get an index.
+     */
+    private static void upgradeToVersion8(SQLiteDatabase db) {
+        db.execSQL("DROP INDEX " + INDEX_SUPPLIER + ";");
+        db.execSQL("CREATE INDEX " + INDEX_SUPPLIER + " ON " + StockEntry.TABLE_NAME
+                + " (" + StockEntry.COLUMN_STOCK_SUPPLIER + " COLLATE NOCASE);");
+        db.execSQL("CREATE INDEX " + INDEX_PRICE + " ON " + StockEntry.TABLE_NAME
+                + " (" + StockEntry.COLUMN_STOCK_PRICE + ");");
+    }
+
+    /**
+     * Version 9 deletes the sales of a stock, one by one and rolled up, together with the stock.
+     * The sales of stocks deleted before are dropped, and the ledger gets an index by stock so
+     * the trigger finds the sales of a stock without reading the whole ledger.
+     */
+    private static void upgradeToVersion9(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX " + SaleEntry.TABLE_NAME + "_stock_index ON "
+                + SaleEntry.TABLE_NAME + " (" + SaleEntry.COLUMN_STOCK_ID + ");");
+        for (String table : new String[]{SaleEntry.TABLE_NAME, SaleEntry.DAILY_TABLE_NAME}) {
+            db.execSQL("DELETE FROM " + table + " WHERE " + SaleEntry.COLUMN_STOCK_ID
+                    + " NOT IN (SELECT " + StockEntry._ID + " FROM " + StockEntry.TABLE_NAME
+                    + ");");
+        }
+        db.execSQL("CREATE TRIGGER " + StockEntry.TABLE_NAME + "_sales_delete AFTER DELETE ON "
+                + StockEntry.TABLE_NAME + " BEGIN "
+                + "DELETE FROM " + SaleEntry.TABLE_NAME + " WHERE "
+                + SaleEntry.COLUMN_STOCK_ID + " = OLD." + StockEntry._ID + "; "
+                + "DELETE FROM " + SaleEntry.DAILY_TABLE_NAME + " WHERE "
+                + SaleEntry.COLUMN_STOCK_ID + " = OLD." + StockEntry._ID + "; "
+                + "END;");
+    }
+
+    /**
+     * Returns the trigger statement that queues the NEW row of the stocks table as low on stock.
+     */
+    private static String queueLowStock() {
+        return "INSERT OR IGNORE INTO " + LOW_STOCK_QUEUE_TABLE_NAME + " ("
+                + COLUMN_QUEUE_STOCK_ID + ") VALUES (NEW." + StockEntry._ID + "); ";
+    }
+
+    /**
+     * Returns the trigger statements that add ("+") or remove ("-") the given row of the stocks
+     * table ("NEW" or "OLD") to or from the totals of its type, given the expression telling
+     * whether that row is low on stock. The row of the type is created the first time a stock of
+     * that type is added.
+     */
+    private static String addToSummary(String row, String sign, String lowStock) {
+        String type = row + "." + StockEntry.COLUMN_STOCK_TYPE;
+        String quantity = row + "." + StockEntry.COLUMN_STOCK_QUANTITY;
+        String price = row + "." + StockEntry.COLUMN_STOCK_PRICE;
+        return "INSERT OR IGNORE INTO " + SummaryEntry.TABLE_NAME + " ("
+                + SummaryEntry.COLUMN_TYPE + ") VALUES (" + type + "); "
+                + "UPDATE " + SummaryEntry.TABLE_NAME + " SET "
+                + SummaryEntry.COLUMN_STOCK_COUNT + " = "
+                + SummaryEntry.COLUMN_STOCK_COUNT + " " + sign + " 1, "
+                + SummaryEntry.COLUMN_TOTAL_QUANTITY + " = "
+                + SummaryEntry.COLUMN_TOTAL_QUANTITY + " " + sign + " " + quantity + ", "
+                + SummaryEntry.COLUMN_TOTAL_VALUE + " = "
+                + SummaryEntry.COLUMN_TOTAL_VALUE + " " + sign + " "
+                + price + " * " + quantity + ", "
+                + SummaryEntry.COLUMN_LOW_STOCK_COUNT + " = "
+                + SummaryEntry.COLUMN_LOW_STOCK_COUNT + " " + sign + " " + lowStock
+                + " WHERE " + SummaryEntry.COLUMN_TYPE + " = " + type + "; ";
+    }
+
+    /**
+     * Returns the SQL expression that is 1 if the stock is low on stock and 0 otherwise, for the
+     * stock columns with the given prefix.
+     */
+    private static String isLowStock(String prefix) {
+        return "(" + prefix + StockEntry.COLUMN_STOCK_QUANTITY + " < "
+                + prefix + StockEntry.COLUMN_STOCK_REORDER_THRESHOLD + ")";
+    }
+
+    /**
+     * Returns {@link #isLowStock(String)} as it was in version 5, before stocks had their own
+     * reorder threshold and every stock used the default one.
+     */
+    private static String isLowStockVersion5(String prefix) {
+        return "(" + prefix + StockEntry.COLUMN_STOCK_QUANTITY + " < "
+                + StockEntry.DEFAULT_REORDER_THRESHOLD + ")";
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,292 @@
+package com.example.android.shopit.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.util.JsonWriter;
+import android.util.Log;
+
+import com.example.android.shopit.data.StockContract.StockEntry;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Exports every stock to a CSV or JSON document, optionally gzip compressed.
+ * <p>
+ * The stocks table is walked in windows of {@link #WINDOW_SIZE} rows in {@link StockEntry#_ID}
+ * order, each window starting right after the last id of the one before. Only one window is
+ * held in memory at a time and its rows are streamed straight into the output, so exporting
+ * takes the same amount of memory however many stocks there are.
+ */
+public final class StockExporter {
+
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = StockExporter.class.getSimpleName();
+
+    /**
+     * Possible formats of the exported document
+     */
+    public static final int FORMAT_CSV = 0;
+    public static final int FORMAT_JSON = 1;
+
+    /**
+     * Number of stocks read from the provider at a time
+     */
+    public static final int WINDOW_SIZE = 500;
+
+    /**
+     * The exported columns, in the order they are written
+     */
+    private static final String[] COLUMNS = {
+            StockEntry._ID,
+            StockEntry.COLUMN_STOCK_NAME,
+            StockEntry.COLUMN_STOCK_SUPPLIER,
+            StockEntry.COLUMN_STOCK_QUANTITY,
+            StockEntry.COLUMN_STOCK_PRICE,
+            StockEntry.COLUMN_STOCK_TYPE,
+            StockEntry.COLUMN_STOCK_IMAGE};
+
+    /**
+     * Interface for following the progress of an export.
+     */
+    public interface ProgressListener {
+        /**
+         * Called on the exporting thread after every window of stocks.
+         *
+         * @param exported the number of stocks written so far
+         * @param total    the number of stocks there were when the export started
+         */
+        void onProgress(int exported, int total);
+    }
+
+    /**
+     * The outcome of an export.
+     */
+    public static final class Result {
+        /**
+         * Number of stocks that were written
+         */
+        public final int exported;
+
+        /**
+         * How long the export took
+         */
+        public final long elapsedMillis;
+
+        /**
+         * Whether the export was cancelled before all stocks were written
+         */
+        public final boolean cancelled;
+
+        Result(int exported, long elapsedMillis, boolean cancelled) {
+            this.exported = exported;
+            this.elapsedMillis = elapsedMillis;
+            this.cancelled = cancelled;
+        }
+
+        /**
+         * Returns the number of stocks written per second.
+         */
+        public double getRowsPerSecond() {
+            return elapsedMillis == 0 ? exported * 1000.0 : exported * 1000.0 / elapsedMillis;
+        }
+    }
+
+    private final ContentResolver mResolver;
+    private volatile boolean mCancelled;
+
+    public StockExporter(Context context) {
+        mResolver = context.getContentResolver();
+    }
+
+    /**
+     * Stop the export running on another thread. The output is left incomplete.
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    /**
+     * Write all stocks to the given output, which is closed afterwards. Must not be called on
+     * the main thread.
+     *
+     * @param output   where to write the document
+     * @param format   {@link #FORMAT_CSV} or {@link #FORMAT_JSON}
+     * @param gzip     whether to compress the document
+     * @param listener receives progress updates, may be null
+     * @throws IOException if the document can't be written
+     */
+    public Result export(OutputStream output, int format, boolean gzip, ProgressListener listener)
+            throws IOException {
+        if (format != FORMAT_CSV && format != FORMAT_JSON) {
+            throw new IllegalArgumentException("Unknown export format " + format);
+        }
+
+        long start = SystemClock.elapsedRealtime();
+        int total = queryCount();
+        int exported = 0;
+
+        if (gzip) {
+            output = new GZIPOutputStream(output, 8192);
+        }
+        Writer writer = new BufferedWriter(new OutputStreamWriter(output, "UTF-8"));
+        RowWriter rows = format == FORMAT_CSV ? new CsvRowWriter(writer) : new JsonRowWriter(writer);
+        try {
+            rows.begin();
+
+            long afterId = 0;
+            while (!mCancelled) {
+                Cursor cursor = mResolver.query(StockEntry.buildPageUri(afterId, WINDOW_SIZE),
+                        COLUMNS, null, null, null);
+                if (cursor == null) {
+                    throw new IOException("Can't query the stocks");
+                }
+
+                int count;
+                try {
+                    count = cursor.getCount();
+                    while (cursor.moveToNext() && !mCancelled) {
+                        rows.write(cursor);
+                        afterId = cursor.getLong(0);
+                        exported++;
+                    }
+                } finally {
+                    cursor.close();
+                }
+
+                if (listener != null) {
+                    listener.onProgress(exported, Math.max(total, exported));
+                }
+
+                // A window that isn't full is the last one
+                if (count < WINDOW_SIZE) {
+                    break;
+                }
+            }
+
+            rows.end();
+        } finally {
+            writer.close();
+        }
+
+        Result result = new Result(exported, SystemClock.elapsedRealtime() - start, mCancelled);
+        Log.i(LOG_TAG, "Exported " + exported + " stocks in " + result.elapsedMillis + " ms ("
+                + (int) result.getRowsPerSecond() + " rows/s)" + (mCancelled ? ", cancelled" : ""));
+        return result;
+    }
+
+    /**
+     * Returns the number of stocks, used to report progress.
+     */
+    private int queryCount() {
+        Cursor cursor = mResolver.query(StockEntry.CONTENT_URI, new String[]{"COUNT(*)"},
+                null, null, null);
+        if (cursor == null) {
+            return 0;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Writes the rows of {@link #COLUMNS} in one of the export formats.
+     */
+    private interface RowWriter {
+        void begin() throws IOException;
+
+        void write(Cursor cursor) throws IOException;
+
+        void end() throws IOException;
+    }
+
+    /**
+     * Writes a header with the column names followed by one record per stock.
+     */
+    private static class CsvRowWriter implements RowWriter {
+
+        private final CsvWriter mWriter;
+
+        CsvRowWriter(Writer writer) {
+            mWriter = new CsvWriter(writer, ',');
+        }
+
+        @Override
+        public void begin() throws IOException {
+            for (String column : COLUMNS) {
+                mWriter.writeField(column);
+            }
+            mWriter.endRecord();
+        }
+
+        @Override
+        public void write(Cursor cursor) throws IOException {
+            for (int column = 0; column < COLUMNS.length; column++) {
+                if (cursor.getType(column) == Cursor.FIELD_TYPE_INTEGER) {
+                    mWriter.writeField(cursor.getLong(column));
+                } else {
+                    mWriter.writeField(cursor.getString(column));
+                }
+            }
+            mWriter.endRecord();
+        }
+
+        @Override
+        public void end() throws IOException {
+            mWriter.flush();
+        }
+    }
+
+    /**
+     * Writes an array with one object per stock, keyed by column name.
+     */
+    private static class JsonRowWriter implements RowWriter {
+
+        private final JsonWriter mWriter;
+
+        JsonRowWriter(Writer writer) {
+            mWriter = new JsonWriter(writer);
+        }
+
+        @Override
+        public void begin() throws IOException {
+            mWriter.beginArray();
+        }
+
+        @Override
+        public void write(Cursor cursor) throws IOException {
+            mWriter.beginObject();
+            for (int column = 0; column < COLUMNS.length; column++) {
+                mWriter.name(COLUMNS[column]);
+                switch (cursor.getType(column)) {
+                    case Cursor.FIELD_TYPE_NULL:
+                        mWriter.nullValue();
+                        break;
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        mWriter.value(cursor.getLong(column));
+                        break;
+                    default:
+                        mWriter.value(cursor.getString(column));
+                        break;
+                }
+            }
+            mWriter.endObject();
+        }
+
+        @Override
+        public void end() throws IOException {
+            mWriter.endArray();
+            mWriter.flush();
+        }
+    }
+}
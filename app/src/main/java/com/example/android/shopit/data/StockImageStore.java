@@ -0,0 +1,382 @@
+package com.example.android.shopit.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.example.android.shopit.data.StockContract.StockEntry;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps the stock pictures in app-private storage, named after the SHA-256 hash of the picked
+ * file.
+ * <p>
+ * A picture is imported once, when it is picked: its bytes are hashed while they are copied,
+ * and a master scaled down to {@link #MASTER_SIZE} plus one thumbnail per entry of
+ * {@link #THUMBNAIL_SIZES} are written next to each other. Picking the same picture again, for
+ * another stock or on another day, finds the hash already stored and writes nothing. Stocks
+ * keep the hash in {@link StockEntry#COLUMN_STOCK_IMAGE}, so showing a picture only ever reads
+ * a small local file and never needs a permission for the original.
+ * <p>
+ * An import can outlive the screen that started it, such as an editor recreated on rotation.
+ * The screen detaches its callback when it is destroyed and its next instance attaches a new
+ * one, which gets the hash even if the import finished in between.
+ */
+public final class StockImageStore {
+
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = StockImageStore.class.getSimpleName();
+
+    /**
+     * Name of the directory in the app files that holds the pictures
+     */
+    private static final String STORE_DIR = "images";
+
+    /**
+     * Longest side of the master copy of a picture, in pixels
+     */
+    private static final int MASTER_SIZE = 1280;
+
+    /**
+     * Shortest side of the thumbnails of a picture, in pixels, smallest first. They cover the
+     * list rows and the editor at the densest screens.
+     */
+    private static final int[] THUMBNAIL_SIZES = {192, 540};
+
+    /**
+     * Quality used to compress the stored pictures
+     */
+    private static final int QUALITY = 90;
+
+    /**
+     * Length of a hex encoded SHA-256 hash
+     */
+    private static final int HASH_LENGTH = 64;
+
+    /**
+     * Interface for receiving the outcome of an import.
+     */
+    public interface ImportCallback {
+        /**
+         * Called on the main thread once a picture has been imported.
+         *
+         * @param source the picture that was imported
+         * @param hash   the hash to store in {@link StockEntry#COLUMN_STOCK_IMAGE}, or null if
+         *               the picture couldn't be read
+         */
+        void onImageImported(Uri source, String hash);
+    }
+
+    private static StockImageStore sInstance;
+
+    /**
+     * Returns the image store shared by the whole app.
+     */
+    public static synchronized StockImageStore getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new StockImageStore(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private final ContentResolver mResolver;
+    private final File mStoreDir;
+    private final File mTempDir;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Imports one picture at a time, so the same picture picked twice is only stored once
+     */
+    private final Executor mExecutor = Executors.newSingleThreadExecutor();
+
+    /**
+     * The imports that are running, or have finished while no callback was attached, by
+     * picture. Only used on the main thread.
+     */
+    private final HashMap<Uri, Import> mImports = new HashMap<>();
+
+    private StockImageStore(Context context) {
+        mResolver = context.getContentResolver();
+        mStoreDir = new File(context.getFilesDir(), STORE_DIR);
+        mTempDir = context.getCacheDir();
+    }
+
+    /**
+     * Returns whether the given {@link StockEntry#COLUMN_STOCK_IMAGE} value is the hash of a
+     * stored picture. Stocks saved before the store existed hold the URI of the original instead.
+     */
+    public static boolean isHash(String image) {
+        if (image == null || image.length() != HASH_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < HASH_LENGTH; i++) {
+            if (Character.digit(image.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the stored file of the picture with the given hash that is best for showing it
+     * {@code size} pixels wide and high: the smallest thumbnail that still covers that size, or
+     * the master.
+     */
+    public File getFile(String hash, int size) {
+        for (int thumbnailSize : THUMBNAIL_SIZES) {
+            if (size <= thumbnailSize) {
+                return new File(mStoreDir, hash + "-" + thumbnailSize + ".jpg");
+            }
+        }
+        return getMasterFile(hash);
+    }
+
+    private File getMasterFile(String hash) {
+        return new File(mStoreDir, hash + ".jpg");
+    }
+
+    /**
+     * Import the picture with the given URI in the background. Must be called on the main
+     * thread.
+     *
+     * @param callback receives the hash of the picture, until it is detached
+     */
+    public void importImage(final Uri source, ImportCallback callback) {
+        final Import pending = new Import();
+        pending.callback = callback;
+        mImports.put(source, pending);
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                String hash;
+                try {
+                    hash = importImage(source);
+                } catch (IOException | SecurityException e) {
+                    Log.e(LOG_TAG, "Failed to import image " + source, e);
+                    hash = null;
+                } catch (OutOfMemoryError e) {
+                    Log.e(LOG_TAG, "Not enough memory to import image " + source, e);
+                    hash = null;
+                }
+
+                final String finalHash = hash;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        pending.finished = true;
+                        pending.hash = finalHash;
+                        if (pending.callback == null) {
+                            // Kept for the callback that is attached next, if it is still
+                            // in mImports
+                            return;
+                        }
+                        if (mImports.get(source) == pending) {
+                            mImports.remove(source);
+                        }
+                        pending.callback.onImageImported(source, finalHash);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Attach a callback to the import of the given picture, replacing the one it was started
+     * with. If the import has already finished the callback is called straight away. Must be
+     * called on the main thread.
+     *
+     * @return false if there is no such import, for example because the app has been restarted
+     * since it was started
+     */
+    public boolean attach(Uri source, ImportCallback callback) {
+        Import pending = mImports.get(source);
+        if (pending == null) {
+            return false;
+        }
+        if (pending.finished) {
+            mImports.remove(source);
+            callback.onImageImported(source, pending.hash);
+        } else {
+            pending.callback = callback;
+        }
+        return true;
+    }
+
+    /**
+     * Detach the callback from the import of the given picture, so the import no longer holds
+     * on to it. Must be called on the main thread.
+     *
+     * @param keepResult whether to keep the hash for the callback attached next, rather than
+     *                   forgetting about the import
+     */
+    public void detach(Uri source, boolean keepResult) {
+        Import pending = mImports.get(source);
+        if (pending == null) {
+            return;
+        }
+        pending.callback = null;
+        if (!keepResult) {
+            mImports.remove(source);
+        }
+    }
+
+    /**
+     * Import the picture with the given URI and return its hash. Must not be called on the
+     * main thread.
+     *
+     * @throws IOException if the picture can't be read or stored
+     */
+    private String importImage(Uri source) throws IOException {
+        if (!mStoreDir.isDirectory() && !mStoreDir.mkdirs()) {
+            throw new IOException("Can't create " + mStoreDir);
+        }
+
+        // Read the original once, hashing it while it is copied to a local file to decode from
+        File copy = File.createTempFile("import", ".tmp", mTempDir);
+        try {
+            String hash = copy(source, copy);
+            if (getMasterFile(hash).exists()) {
+                Log.i(LOG_TAG, "Image " + source + " is already stored as " + hash);
+                return hash;
+            }
+
+            // The master is written last, so a stored master means a complete picture
+            for (int thumbnailSize : THUMBNAIL_SIZES) {
+                store(copy, thumbnailSize, true, getFile(hash, thumbnailSize));
+            }
+            store(copy, MASTER_SIZE, false, getMasterFile(hash));
+            Log.i(LOG_TAG, "Stored image " + source + " as " + hash);
+            return hash;
+        } finally {
+            copy.delete();
+        }
+    }
+
+    /**
+     * Copy the picture with the given URI into the given file and return its hex encoded
+     * SHA-256 hash.
+     */
+    private String copy(Uri source, File destination) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Android device has SHA-256
+            throw new IllegalStateException(e);
+        }
+
+        InputStream input = mResolver.openInputStream(source);
+        if (input == null) {
+            throw new IOException("Can't open " + source);
+        }
+        OutputStream output = null;
+        try {
+            input = new DigestInputStream(input, digest);
+            output = new FileOutputStream(destination);
+            byte[] buffer = new byte[16 * 1024];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                output.write(buffer, 0, read);
+            }
+        } finally {
+            input.close();
+            if (output != null) {
+                output.close();
+            }
+        }
+
+        byte[] bytes = digest.digest();
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xf, 16));
+            builder.append(Character.forDigit(b & 0xf, 16));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Write a scaled down copy of the given picture.
+     *
+     * @param size  the size of the copy in pixels
+     * @param cover whether {@code size} is the shortest side of the copy, so it covers a square
+     *              of that size, rather than its longest side
+     */
+    private static void store(File picture, int size, boolean cover, File destination)
+            throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(picture.getPath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            throw new IOException("Not a picture");
+        }
+
+        // Decode a power of two fraction of the picture that is still larger than the copy
+        int side = cover ? Math.min(options.outWidth, options.outHeight)
+                : Math.max(options.outWidth, options.outHeight);
+        int sampleSize = 1;
+        while (side / (sampleSize * 2) >= size) {
+            sampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        Bitmap bitmap = BitmapFactory.decodeFile(picture.getPath(), options);
+        if (bitmap == null) {
+            throw new IOException("Can't decode the picture");
+        }
+
+        // Scale the rest of the way
+        float scale = (float) size / (cover ? Math.min(bitmap.getWidth(), bitmap.getHeight())
+                : Math.max(bitmap.getWidth(), bitmap.getHeight()));
+        if (scale < 1f) {
+            Bitmap scaled = Bitmap.createScaledBitmap(bitmap,
+                    Math.max(1, Math.round(bitmap.getWidth() * scale)),
+                    Math.max(1, Math.round(bitmap.getHeight() * scale)), true);
+            if (scaled != bitmap) {
+                bitmap.recycle();
+            }
+            bitmap = scaled;
+        }
+
+        // Write to a temporary file first, so a half-written picture is never read back
+        File tempFile = new File(destination.getPath() + ".tmp");
+        OutputStream output = new FileOutputStream(tempFile);
+        try {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, QUALITY, output);
+        } finally {
+            output.close();
+            bitmap.recycle();
+        }
+        if (!tempFile.renameTo(destination)) {
+            tempFile.delete();
+            throw new IOException("Can't write " + destination);
+        }
+    }
+
+    /**
+     * An import of a picture, with the callback currently attached to it.
+     */
+    private static class Import {
+        ImportCallback callback;
+        boolean finished;
+        String hash;
+    }
+}
@@ -0,0 +1,440 @@
+package com.example.android.shopit.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.OpenableColumns;
+import android.util.Log;
+
+import com.example.android.shopit.data.StockContract.StockEntry;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+
+/**
+ * Imports stocks from a CSV or TSV document, for example a supplier catalogue.
+ * <p>
+ * The document is streamed through a {@link CsvReader}, so it is never held in memory as a
+ * whole. Valid rows are written through {@link StockProvider#bulkInsert} in chunks of
+ * {@link #CHUNK_SIZE}, each chunk in its own transaction. Rows that fail validation don't stop
+ * the import, they are written to a reject report together with the reason they were rejected.
+ * <p>
+ * If the first row names the columns (name, supplier, quantity, price, type, image, in any order
+ * and case) it is used as the header. Otherwise the columns are expected in that order. The
+ * delimiter (comma, tab or semicolon) is detected from the first line.
+ */
+public final class StockImporter {
+
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = StockImporter.class.getSimpleName();
+
+    /**
+     * Number of rows inserted per transaction
+     */
+    public static final int CHUNK_SIZE = 500;
+
+    /**
+     * Size of the buffer the document is read through
+     */
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    /**
+     * Maximum number of bytes looked at to detect the delimiter
+     */
+    private static final int SNIFF_LENGTH = 4096;
+
+    /**
+     * Delimiters that are detected, the first one is used if none of them are found
+     */
+    private static final char[] DELIMITERS = {',', '\t', ';'};
+
+    /**
+     * The columns that can be imported, in the order used when the document has no header
+     */
+    private static final String[] COLUMNS = {
+            StockEntry.COLUMN_STOCK_NAME,
+            StockEntry.COLUMN_STOCK_SUPPLIER,
+            StockEntry.COLUMN_STOCK_QUANTITY,
+            StockEntry.COLUMN_STOCK_PRICE,
+            StockEntry.COLUMN_STOCK_TYPE,
+            StockEntry.COLUMN_STOCK_IMAGE};
+
+    private static final int NAME = 0;
+    private static final int SUPPLIER = 1;
+    private static final int QUANTITY = 2;
+    private static final int PRICE = 3;
+    private static final int TYPE = 4;
+    private static final int IMAGE = 5;
+
+    /**
+     * Interface for following the progress of an import.
+     */
+    public interface ProgressListener {
+        /**
+         * Called on the importing thread after every {@link #CHUNK_SIZE} rows.
+         *
+         * @param bytesRead  the number of bytes of the document read so far
+         * @param totalBytes the size of the document, or -1 if it isn't known
+         * @param imported   the number of stocks inserted so far
+         * @param rejected   the number of rows rejected so far
+         */
+        void onProgress(long bytesRead, long totalBytes, int imported, int rejected);
+    }
+
+    /**
+     * The outcome of an import.
+     */
+    public static final class Result {
+        /**
+         * Number of stocks that were inserted
+         */
+        public final int imported;
+
+        /**
+         * Number of rows that were rejected
+         */
+        public final int rejected;
+
+        /**
+         * Whether the import was cancelled before the end of the document
+         */
+        public final boolean cancelled;
+
+        /**
+         * The reject report, or null if no rows were rejected
+         */
+        public final File rejectReport;
+
+        Result(int imported, int rejected, boolean cancelled, File rejectReport) {
+            this.imported = imported;
+            this.rejected = rejected;
+            this.cancelled = cancelled;
+            this.rejectReport = rejectReport;
+        }
+    }
+
+    private final ContentResolver mResolver;
+    private final String mDefaultImage;
+    private volatile boolean mCancelled;
+
+    /**
+     * Constructs a new {@link StockImporter}.
+     *
+     * @param defaultImage the picture given to stocks that don't name one
+     */
+    public StockImporter(Context context, String defaultImage) {
+        mResolver = context.getContentResolver();
+        mDefaultImage = defaultImage;
+    }
+
+    /**
+     * Stop the import running on another thread. Chunks that have already been inserted are
+     * kept, the rows read since are dropped.
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    /**
+     * Import the stocks in the given document. Must not be called on the main thread.
+     *
+     * @param source       the CSV or TSV document
+     * @param rejectReport where to write the rows that are rejected, the file is only created if
+     *                     there are any
+     * @param listener     receives progress updates, may be null
+     * @throws IOException if the document can't be read or the report can't be written
+     */
+    public Result importStocks(Uri source, File rejectReport, ProgressListener listener)
+            throws IOException {
+        long totalBytes = querySize(source);
+        InputStream inputStream = mResolver.openInputStream(source);
+        if (inputStream == null) {
+            throw new FileNotFoundException("Can't open " + source);
+        }
+        CountingInputStream countingStream = new CountingInputStream(inputStream);
+        BufferedInputStream bufferedStream = new BufferedInputStream(countingStream, BUFFER_SIZE);
+        char delimiter = detectDelimiter(bufferedStream);
+        CsvReader reader = new CsvReader(new InputStreamReader(bufferedStream, "UTF-8"), delimiter);
+
+        RejectWriter rejects = new RejectWriter(rejectReport);
+        int imported = 0;
+        int rejected = 0;
+        try {
+            if (!reader.nextRecord()) {
+                return new Result(0, 0, false, null);
+            }
+
+            // Use the first row as the header if it names any of the columns
+            int[] fields = readHeader(reader);
+            boolean hasRecord = true;
+            if (fields == null) {
+                fields = new int[COLUMNS.length];
+                for (int column = 0; column < COLUMNS.length; column++) {
+                    fields[column] = column;
+                }
+            } else {
+                hasRecord = reader.nextRecord();
+            }
+
+            ContentValues[] chunk = new ContentValues[CHUNK_SIZE];
+            int chunkSize = 0;
+            int rows = 0;
+            while (hasRecord && !mCancelled) {
+                ContentValues values = new ContentValues(COLUMNS.length);
+                String reason = readStock(reader, fields, values);
+                if (reason == null) {
+                    chunk[chunkSize++] = values;
+                    if (chunkSize == CHUNK_SIZE) {
+                        imported += mResolver.bulkInsert(StockEntry.CONTENT_URI, chunk);
+                        chunkSize = 0;
+                    }
+                } else {
+                    rejects.write(reader, reason);
+                    rejected++;
+                }
+
+                if (++rows % CHUNK_SIZE == 0 && listener != null) {
+                    listener.onProgress(countingStream.mCount, totalBytes, imported, rejected);
+                }
+                hasRecord = reader.nextRecord();
+            }
+
+            if (chunkSize > 0 && !mCancelled) {
+                ContentValues[] lastChunk = new ContentValues[chunkSize];
+                System.arraycopy(chunk, 0, lastChunk, 0, chunkSize);
+                imported += mResolver.bulkInsert(StockEntry.CONTENT_URI, lastChunk);
+            }
+            if (listener != null) {
+                listener.onProgress(countingStream.mCount, totalBytes, imported, rejected);
+            }
+        } finally {
+            reader.close();
+            rejects.close();
+        }
+
+        Log.i(LOG_TAG, "Imported " + imported + " stocks from " + source + ", rejected "
+                + rejected + (mCancelled ? " (cancelled)" : ""));
+        return new Result(imported, rejected, mCancelled, rejected > 0 ? rejectReport : null);
+    }
+
+    /**
+     * Returns the size of the given document in bytes, or -1 if it isn't known.
+     */
+    private long querySize(Uri source) {
+        Cursor cursor = null;
+        try {
+            cursor = mResolver.query(source, new String[]{OpenableColumns.SIZE}, null, null, null);
+            if (cursor != null && cursor.moveToFirst() && !cursor.isNull(0)) {
+                return cursor.getLong(0);
+            }
+        } catch (RuntimeException e) {
+            // Not every provider can be queried, the size is only used for progress
+            Log.w(LOG_TAG, "Can't get the size of " + source, e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the delimiter that occurs most in the first line of the document. The stream is
+     * rewound afterwards.
+     */
+    private static char detectDelimiter(BufferedInputStream inputStream) throws IOException {
+        inputStream.mark(SNIFF_LENGTH);
+        int[] counts = new int[DELIMITERS.length];
+        for (int i = 0; i < SNIFF_LENGTH; i++) {
+            int b = inputStream.read();
+            if (b == -1 || b == '\n' || b == '\r') {
+                break;
+            }
+            for (int d = 0; d < DELIMITERS.length; d++) {
+                if (b == DELIMITERS[d]) {
+                    counts[d]++;
+                }
+            }
+        }
+        inputStream.reset();
+
+        int best = 0;
+        for (int d = 1; d < DELIMITERS.length; d++) {
+            if (counts[d] > counts[best]) {
+                best = d;
+            }
+        }
+        return DELIMITERS[best];
+    }
+
+    /**
+     * If the current record is a header, return the field of each of the {@link #COLUMNS}, -1
+     * for the columns it doesn't have. Returns null if the record isn't a header.
+     */
+    private static int[] readHeader(CsvReader reader) {
+        int[] fields = new int[COLUMNS.length];
+        boolean isHeader = false;
+        for (int column = 0; column < COLUMNS.length; column++) {
+            fields[column] = -1;
+        }
+        for (int field = 0; field < reader.getFieldCount(); field++) {
+            String name = reader.getField(field);
+            for (int column = 0; column < COLUMNS.length; column++) {
+                if (COLUMNS[column].equalsIgnoreCase(name) && fields[column] == -1) {
+                    fields[column] = field;
+                    isHeader = true;
+                }
+            }
+        }
+        return isHeader ? fields : null;
+    }
+
+    /**
+     * Read the stock in the current record into the given values. Returns null if the stock is
+     * valid, or the reason it was rejected.
+     */
+    private String readStock(CsvReader reader, int[] fields, ContentValues values) {
+        if (reader.isTooLong()) {
+            return "Row is longer than " + CsvReader.MAX_RECORD_LENGTH + " characters";
+        }
+
+        int field = fields[NAME];
+        if (field == -1 || reader.isBlank(field)) {
+            return "Stock requires a name";
+        }
+        values.put(StockEntry.COLUMN_STOCK_NAME, reader.getField(field));
+
+        field = fields[SUPPLIER];
+        if (field != -1 && !reader.isBlank(field)) {
+            values.put(StockEntry.COLUMN_STOCK_SUPPLIER, reader.getField(field));
+        }
+
+        field = fields[IMAGE];
+        if (field != -1 && !reader.isBlank(field)) {
+            values.put(StockEntry.COLUMN_STOCK_IMAGE, reader.getField(field));
+        } else {
+            values.put(StockEntry.COLUMN_STOCK_IMAGE, mDefaultImage);
+        }
+
+        // Numbers are parsed straight from the record, missing ones get the usual defaults
+        try {
+            field = fields[QUANTITY];
+            values.put(StockEntry.COLUMN_STOCK_QUANTITY,
+                    field == -1 || reader.isBlank(field) ? 0 : reader.getInt(field));
+        } catch (NumberFormatException e) {
+            return "Invalid quantity";
+        }
+        try {
+            field = fields[PRICE];
+            values.put(StockEntry.COLUMN_STOCK_PRICE,
+                    field == -1 || reader.isBlank(field) ? 0 : reader.getInt(field));
+        } catch (NumberFormatException e) {
+            return "Invalid price";
+        }
+        try {
+            field = fields[TYPE];
+            values.put(StockEntry.COLUMN_STOCK_TYPE,
+                    field == -1 || reader.isBlank(field)
+                            ? StockEntry.TYPE_UNKNOWN : reader.getInt(field));
+        } catch (NumberFormatException e) {
+            return "Invalid type";
+        }
+
+        // Apply the same checks as the provider, so a chunk is never refused as a whole
+        try {
+            StockProvider.checkNewStock(values);
+        } catch (IllegalArgumentException e) {
+            return e.getMessage();
+        }
+        return null;
+    }
+
+    /**
+     * Writes rejected rows to the reject report, as CSV with the line number and reason in front
+     * of the original fields. The report is only created once the first row is rejected.
+     */
+    private static class RejectWriter {
+
+        private final File mFile;
+        private CsvWriter mWriter;
+
+        RejectWriter(File file) {
+            mFile = file;
+        }
+
+        void write(CsvReader reader, String reason) throws IOException {
+            if (mWriter == null) {
+                mWriter = new CsvWriter(new BufferedWriter(new OutputStreamWriter(
+                        new FileOutputStream(mFile), "UTF-8")), ',');
+                mWriter.writeField("line");
+                mWriter.writeField("reason");
+                mWriter.writeField("row");
+                mWriter.endRecord();
+            }
+
+            mWriter.writeField(reader.getLineNumber());
+            mWriter.writeField(reason);
+            if (!reader.isTooLong()) {
+                for (int field = 0; field < reader.getFieldCount(); field++) {
+                    mWriter.writeField(reader.getField(field));
+                }
+            }
+            mWriter.endRecord();
+        }
+
+        void close() throws IOException {
+            if (mWriter != null) {
+                mWriter.close();
+            }
+        }
+    }
+
+    /**
+     * Counts the bytes read from a stream, to report progress through the document.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+
+        long mCount;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                mCount++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int count = super.read(buffer, offset, length);
+            if (count > 0) {
+                mCount += count;
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            mCount += skipped;
+            return skipped;
+        }
+    }
+}
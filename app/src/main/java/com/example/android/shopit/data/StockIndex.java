@@ -0,0 +1,583 @@
+package com.example.android.shopit.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+import com.example.android.shopit.data.StockContract.StockEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An in-memory copy of the stock attributes needed at the till, for looking stocks up without a
+ * query per scan.
+ * <p>
+ * Every stock is a row of primitive arrays: its id, quantity, price and the id of its supplier,
+ * whose names are interned once for all of their stocks. An open addressing hash table from
+ * stock id to row makes a lookup by id O(1), and rows sorted by price and by quantity answer
+ * range queries with a binary search. The sorted rows are only rebuilt when a range query
+ * follows a change.
+ * <p>
+ * The index is optional: it is only built once {@link #start()} is called. From then on it
+ * follows the change notifications of {@link StockProvider}: a change of a single stock
+ * re-reads that stock, any other change reloads the whole index in the background.
+ */
+public final class StockIndex {
+
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = StockIndex.class.getSimpleName();
+
+    /**
+     * The columns read into the index, in the order {@link Table#put(Cursor)} reads them
+     */
+    static final String[] PROJECTION = {
+            StockEntry._ID,
+            StockEntry.COLUMN_STOCK_SUPPLIER,
+            StockEntry.COLUMN_STOCK_QUANTITY,
+            StockEntry.COLUMN_STOCK_PRICE};
+
+    private static StockIndex sInstance;
+
+    /**
+     * Returns the stock index shared by the whole app.
+     */
+    public static synchronized StockIndex getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new StockIndex(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private final ContentResolver mResolver;
+    private final Handler mHandler;
+    private boolean mStarted;
+
+    /**
+     * The indexed stocks. Guarded by this.
+     */
+    private Table mTable = new Table(0);
+
+    /**
+     * Whether the index has been loaded at least once. Guarded by this.
+     */
+    private boolean mLoaded;
+
+    private final Runnable mReload = new Runnable() {
+        @Override
+        public void run() {
+            reload();
+        }
+    };
+
+    private StockIndex(Context context) {
+        mResolver = context.getContentResolver();
+
+        HandlerThread thread = new HandlerThread(LOG_TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Load the index in the background and keep it in sync with the stocks from then on, if not
+     * already started.
+     */
+    public synchronized void start() {
+        if (mStarted) {
+            return;
+        }
+        mStarted = true;
+
+        mResolver.registerContentObserver(StockEntry.CONTENT_URI, true,
+                new ContentObserver(mHandler) {
+                    @Override
+                    public void onChange(boolean selfChange) {
+                        // Before API 16 the changed URI isn't passed along
+                        onChange(selfChange, null);
+                    }
+
+                    @Override
+                    public void onChange(boolean selfChange, Uri uri) {
+                        long id = getStockId(uri);
+                        if (id == -1) {
+                            reload();
+                        } else {
+                            refresh(id);
+                        }
+                    }
+                });
+        mHandler.post(mReload);
+    }
+
+    /**
+     * Returns whether the index has been loaded. Until then every lookup comes back empty.
+     */
+    public synchronized boolean isLoaded() {
+        return mLoaded;
+    }
+
+    /**
+     * Returns the number of indexed stocks.
+     */
+    public synchronized int size() {
+        return mTable.mSize;
+    }
+
+    /**
+     * Returns whether there is a stock with the given id.
+     */
+    public synchronized boolean contains(long id) {
+        return mTable.findRow(id) != -1;
+    }
+
+    /**
+     * Returns the quantity of the stock with the given id, or -1 if there is none.
+     */
+    public synchronized int getQuantity(long id) {
+        int row = mTable.findRow(id);
+        return row == -1 ? -1 : mTable.mQuantities[row];
+    }
+
+    /**
+     * Returns the price of the stock with the given id, or -1 if there is none.
+     */
+    public synchronized int getPrice(long id) {
+        int row = mTable.findRow(id);
+        return row == -1 ? -1 : mTable.mPrices[row];
+    }
+
+    /**
+     * Returns the supplier of the stock with the given id, or null if it has none or there is
+     * no such stock.
+     */
+    public synchronized String getSupplier(long id) {
+        int row = mTable.findRow(id);
+        return row == -1 ? null : mTable.getSupplier(row);
+    }
+
+    /**
+     * Returns the ids of the stocks priced from {@code min} to {@code max}, both included,
+     * cheapest first.
+     */
+    public synchronized long[] findByPrice(int min, int max) {
+        return mTable.findInRange(mTable.getByPrice(), min, max);
+    }
+
+    /**
+     * Returns the ids of the stocks with a quantity from {@code min} to {@code max}, both
+     * included, lowest first.
+     */
+    public synchronized long[] findByQuantity(int min, int max) {
+        return mTable.findInRange(mTable.getByQuantity(), min, max);
+    }
+
+    /**
+     * Returns the number of bytes taken by the arrays of the index. The interned supplier names
+     * are shared with the rest of the app and not counted.
+     */
+    public synchronized long getArrayBytes() {
+        return mTable.getArrayBytes();
+    }
+
+    /**
+     * Returns the id of the stock whose row URI ({@code stock/#}) was notified, or -1 for any
+     * other URI.
+     */
+    private static long getStockId(Uri uri) {
+        if (uri == null) {
+            return -1;
+        }
+        List<String> segments = uri.getPathSegments();
+        List<String> tableSegments = StockEntry.CONTENT_URI.getPathSegments();
+        if (segments.size() != tableSegments.size() + 1
+                || !segments.subList(0, tableSegments.size()).equals(tableSegments)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(uri.getLastPathSegment());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Read every stock into a new table and swap it in. Runs on the index thread.
+     */
+    private void reload() {
+        Cursor cursor;
+        try {
+            cursor = mResolver.query(StockEntry.CONTENT_URI, PROJECTION, null, null, null);
+        } catch (RuntimeException e) {
+            Log.e(LOG_TAG, "Failed to load the stock index", e);
+            return;
+        }
+        if (cursor == null) {
+            return;
+        }
+        try {
+            load(cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Read the stock with the given id again, or drop it if it has been deleted. Runs on the
+     * index thread.
+     */
+    private void refresh(long id) {
+        Cursor cursor;
+        try {
+            cursor = mResolver.query(ContentUris.withAppendedId(StockEntry.CONTENT_URI, id),
+                    PROJECTION, null, null, null);
+        } catch (RuntimeException e) {
+            Log.e(LOG_TAG, "Failed to refresh stock " + id, e);
+            return;
+        }
+        if (cursor == null) {
+            return;
+        }
+        try {
+            if (cursor.moveToFirst()) {
+                put(cursor);
+            } else {
+                remove(id);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Replace the indexed stocks with the rows of the given cursor, which has the columns of
+     * {@link #PROJECTION}. The new table is built before the lock is taken, so lookups carry
+     * on meanwhile.
+     */
+    void load(Cursor cursor) {
+        Table table = new Table(cursor.getCount());
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            table.put(cursor);
+        }
+        synchronized (this) {
+            mTable = table;
+            mLoaded = true;
+        }
+    }
+
+    /**
+     * Add or update the stock in the current row of the given cursor, which has the columns of
+     * {@link #PROJECTION}.
+     */
+    synchronized void put(Cursor cursor) {
+        mTable.put(cursor);
+    }
+
+    /**
+     * Drop the stock with the given id.
+     */
+    synchronized void remove(long id) {
+        mTable.remove(id);
+    }
+
+    /**
+     * The rows of the index, with the hash table and sorted rows that find them. Not thread
+     * safe, {@link StockIndex} guards it.
+     */
+    private static final class Table {
+
+        /**
+         * Marks an empty slot of the hash table. Stock ids start at 1.
+         */
+        private static final long EMPTY = Long.MIN_VALUE;
+
+        /**
+         * Supplier id of stocks without a supplier
+         */
+        private static final int NO_SUPPLIER = -1;
+
+        private static final int MIN_CAPACITY = 16;
+
+        /**
+         * The rows, {@link #mSize} of them in use
+         */
+        private int mSize;
+        private long[] mIds;
+        private int[] mQuantities;
+        private int[] mPrices;
+        private int[] mSupplierIds;
+
+        /**
+         * The supplier names, by supplier id, and their ids
+         */
+        private final List<String> mSuppliers = new ArrayList<>();
+        private final Map<String, Integer> mSupplierIdsByName = new HashMap<>();
+
+        /**
+         * Hash table from stock id to row, with linear probing. Kept at most half full.
+         */
+        private long[] mSlotIds;
+        private int[] mSlotRows;
+
+        /**
+         * Rows sorted by price and by quantity, each entry holding the value in its high and
+         * the row in its low 32 bits, or null when they have to be sorted again
+         */
+        private long[] mByPrice;
+        private long[] mByQuantity;
+
+        Table(int capacity) {
+            capacity = Math.max(capacity, MIN_CAPACITY);
+            mIds = new long[capacity];
+            mQuantities = new int[capacity];
+            mPrices = new int[capacity];
+            mSupplierIds = new int[capacity];
+            allocateSlots(capacity);
+        }
+
+        int findRow(long id) {
+            int mask = mSlotIds.length - 1;
+            for (int slot = getHomeSlot(id, mask); mSlotIds[slot] != EMPTY;
+                 slot = (slot + 1) & mask) {
+                if (mSlotIds[slot] == id) {
+                    return mSlotRows[slot];
+                }
+            }
+            return -1;
+        }
+
+        String getSupplier(int row) {
+            int supplierId = mSupplierIds[row];
+            return supplierId == NO_SUPPLIER ? null : mSuppliers.get(supplierId);
+        }
+
+        void put(Cursor cursor) {
+            long id = cursor.getLong(0);
+            int row = findRow(id);
+            if (row == -1) {
+                if (mSize == mIds.length) {
+                    growRows();
+                }
+                row = mSize++;
+                mIds[row] = id;
+                addSlot(id, row);
+
+                // A new row isn't in the sorted rows yet
+                mByQuantity = null;
+                mByPrice = null;
+            }
+            mSupplierIds[row] = internSupplier(cursor.getString(1));
+            setQuantity(row, cursor.getInt(2));
+            setPrice(row, cursor.getInt(3));
+        }
+
+        void remove(long id) {
+            int mask = mSlotIds.length - 1;
+            int slot = getHomeSlot(id, mask);
+            while (mSlotIds[slot] != id) {
+                if (mSlotIds[slot] == EMPTY) {
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            int row = mSlotRows[slot];
+            removeSlot(slot);
+
+            // Move the last row into the hole
+            int last = --mSize;
+            if (row != last) {
+                mIds[row] = mIds[last];
+                mQuantities[row] = mQuantities[last];
+                mPrices[row] = mPrices[last];
+                mSupplierIds[row] = mSupplierIds[last];
+                mSlotRows[findSlot(mIds[row])] = row;
+            }
+            mByQuantity = null;
+            mByPrice = null;
+        }
+
+        private void setQuantity(int row, int quantity) {
+            if (mQuantities[row] != quantity) {
+                mQuantities[row] = quantity;
+                mByQuantity = null;
+            }
+        }
+
+        private void setPrice(int row, int price) {
+            if (mPrices[row] != price) {
+                mPrices[row] = price;
+                mByPrice = null;
+            }
+        }
+
+        private int internSupplier(String supplier) {
+            if (supplier == null) {
+                return NO_SUPPLIER;
+            }
+            Integer supplierId = mSupplierIdsByName.get(supplier);
+            if (supplierId == null) {
+                supplierId = mSuppliers.size();
+                mSuppliers.add(supplier);
+                mSupplierIdsByName.put(supplier, supplierId);
+            }
+            return supplierId;
+        }
+
+        long[] getByPrice() {
+            if (mByPrice == null) {
+                mByPrice = sortRows(mPrices);
+            }
+            return mByPrice;
+        }
+
+        long[] getByQuantity() {
+            if (mByQuantity == null) {
+                mByQuantity = sortRows(mQuantities);
+            }
+            return mByQuantity;
+        }
+
+        /**
+         * Returns the rows in use sorted by the given values, packed with their value.
+         */
+        private long[] sortRows(int[] values) {
+            long[] sorted = new long[mSize];
+            for (int row = 0; row < mSize; row++) {
+                sorted[row] = ((long) values[row] << 32) | row;
+            }
+            Arrays.sort(sorted);
+            return sorted;
+        }
+
+        /**
+         * Returns the ids of the sorted rows with a value from {@code min} to {@code max}.
+         */
+        long[] findInRange(long[] sorted, int min, int max) {
+            if (min > max) {
+                return new long[0];
+            }
+            // Rows never reach the all ones low bits, so the upper key is past every max value
+            int from = lowerBound(sorted, (long) min << 32);
+            int to = lowerBound(sorted, ((long) max << 32) | 0xFFFFFFFFL);
+            long[] ids = new long[to - from];
+            for (int i = from; i < to; i++) {
+                ids[i - from] = mIds[(int) sorted[i]];
+            }
+            return ids;
+        }
+
+        /**
+         * Returns the first position of the given sorted array holding a value at least the
+         * given key.
+         */
+        private static int lowerBound(long[] sorted, long key) {
+            int low = 0;
+            int high = sorted.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (sorted[middle] < key) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        long getArrayBytes() {
+            long bytes = mIds.length * (8L + 4 + 4 + 4) + mSlotIds.length * (8L + 4);
+            if (mByPrice != null) {
+                bytes += mByPrice.length * 8L;
+            }
+            if (mByQuantity != null) {
+                bytes += mByQuantity.length * 8L;
+            }
+            return bytes;
+        }
+
+        private void growRows() {
+            int capacity = mIds.length + (mIds.length >> 1);
+            mIds = Arrays.copyOf(mIds, capacity);
+            mQuantities = Arrays.copyOf(mQuantities, capacity);
+            mPrices = Arrays.copyOf(mPrices, capacity);
+            mSupplierIds = Arrays.copyOf(mSupplierIds, capacity);
+        }
+
+        /**
+         * Allocate an empty hash table for the given number of rows.
+         */
+        private void allocateSlots(int rows) {
+            int slots = Integer.highestOneBit(rows * 2 - 1) << 1;
+            mSlotIds = new long[slots];
+            mSlotRows = new int[slots];
+            Arrays.fill(mSlotIds, EMPTY);
+        }
+
+        private void addSlot(long id, int row) {
+            if (mSize * 2 > mSlotIds.length) {
+                // Rehash every row in use, the new one included
+                allocateSlots(mSlotIds.length);
+                for (int i = 0; i < mSize; i++) {
+                    insertSlot(mIds[i], i);
+                }
+                return;
+            }
+            insertSlot(id, row);
+        }
+
+        private void insertSlot(long id, int row) {
+            int mask = mSlotIds.length - 1;
+            int slot = getHomeSlot(id, mask);
+            while (mSlotIds[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            mSlotIds[slot] = id;
+            mSlotRows[slot] = row;
+        }
+
+        private int findSlot(long id) {
+            int mask = mSlotIds.length - 1;
+            int slot = getHomeSlot(id, mask);
+            while (mSlotIds[slot] != id) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        /**
+         * Empty the given slot, moving the entries after it back so every entry can still be
+         * found from its home slot without tombstones.
+         */
+        private void removeSlot(int slot) {
+            int mask = mSlotIds.length - 1;
+            int hole = slot;
+            for (int next = (hole + 1) & mask; mSlotIds[next] != EMPTY;
+                 next = (next + 1) & mask) {
+                int home = getHomeSlot(mSlotIds[next], mask);
+                if (((next - home) & mask) >= ((next - hole) & mask)) {
+                    mSlotIds[hole] = mSlotIds[next];
+                    mSlotRows[hole] = mSlotRows[next];
+                    hole = next;
+                }
+            }
+            mSlotIds[hole] = EMPTY;
+        }
+
+        private static int getHomeSlot(long id, int mask) {
+            long hash = id * 0x9E3779B97F4A7C15L;
+            return (int) (hash ^ (hash >>> 32)) & mask;
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package com.example.android.shopit.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.net.Uri;
+import android.text.TextUtils;
+
+import com.example.android.shopit.data.StockContract.StockEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The query of the stocks table asked for by a {@link StockEntry#CONTENT_URI}: the caller's
+ * selection and sort order with the paging, sorting and filtering query parameters of the URI
+ * applied on top.
+ * <p>
+ * Sorting is limited to the columns in {@link #SORT_TERMS}, each of which has an index that
+ * SQLite walks in order, so a sorted page is read straight off the index and never sorted in a
+ * temporary B-tree. Rows that sort the same are ordered by {@link StockEntry#_ID}, which every
+ * index holds as its last key, so a page can continue exactly after the last row of the page
+ * before it (keyset paging). While sorting on a column, the filters are written so SQLite can't
+ * use their own indexes and is left with the sort index: it checks them row by row and stops as
+ * soon as a page is full. Sorted by {@link StockEntry#_ID}, an equality filter is served from its
+ * index, which is in {@link StockEntry#_ID} order within each value.
+ */
+final class StockListQuery {
+
+    /**
+     * The columns stocks can be sorted by with {@link StockEntry#QUERY_PARAMETER_SORT}, and the
+     * expressions that sort them in the order of their index
+     */
+    private static final Map<String, String> SORT_TERMS = new HashMap<>();
+
+    static {
+        SORT_TERMS.put(StockEntry._ID, StockEntry._ID);
+        SORT_TERMS.put(StockEntry.COLUMN_STOCK_NAME,
+                StockEntry.COLUMN_STOCK_NAME + " COLLATE NOCASE");
+        SORT_TERMS.put(StockEntry.COLUMN_STOCK_SUPPLIER,
+                StockEntry.COLUMN_STOCK_SUPPLIER + " COLLATE NOCASE");
+        SORT_TERMS.put(StockEntry.COLUMN_STOCK_QUANTITY, StockEntry.COLUMN_STOCK_QUANTITY);
+        SORT_TERMS.put(StockEntry.COLUMN_STOCK_PRICE, StockEntry.COLUMN_STOCK_PRICE);
+    }
+
+    final String selection;
+    final String[] selectionArgs;
+    final String orderBy;
+    final String limit;
+
+    private StockListQuery(String selection, String[] selectionArgs, String orderBy,
+                           String limit) {
+        this.selection = selection;
+        this.selectionArgs = selectionArgs;
+        this.orderBy = orderBy;
+        this.limit = limit;
+    }
+
+    /**
+     * Returns the query asked for by the given URI together with the given selection and sort
+     * order.
+     *
+     * @throws IllegalArgumentException if a query parameter is invalid, or the sort order of
+     *                                  the URI conflicts with the given one
+     */
+    static StockListQuery fromUri(Uri uri, String selection, String[] selectionArgs,
+                                  String sortOrder) {
+        String limit = StockProvider.getIntQueryParameter(uri, StockEntry.QUERY_PARAMETER_LIMIT);
+        String offset = StockProvider.getIntQueryParameter(uri,
+                StockEntry.QUERY_PARAMETER_OFFSET);
+        String afterId = StockProvider.getIntQueryParameter(uri,
+                StockEntry.QUERY_PARAMETER_AFTER_ID);
+
+        String sortColumn = uri.getQueryParameter(StockEntry.QUERY_PARAMETER_SORT);
+        boolean descending = uri.getBooleanQueryParameter(StockEntry.QUERY_PARAMETER_DESCENDING,
+                false);
+        String sortTerm = null;
+        if (sortColumn != null) {
+            sortTerm = SORT_TERMS.get(sortColumn);
+            if (sortTerm == null) {
+                throw new IllegalArgumentException("Can't sort stocks by " + sortColumn);
+            }
+            if (sortOrder != null) {
+                throw new IllegalArgumentException("Sort order given twice for " + uri);
+            }
+            String direction = descending ? " DESC" : "";
+            sortOrder = sortTerm + direction;
+            if (!sortColumn.equals(StockEntry._ID)) {
+                sortOrder += ", " + StockEntry._ID + direction;
+            }
+        }
+        boolean sortedOnColumn = sortColumn != null && !sortColumn.equals(StockEntry._ID);
+
+        StringBuilder where = new StringBuilder();
+        List<String> args = new ArrayList<>();
+        if (!TextUtils.isEmpty(selection)) {
+            where.append('(').append(selection).append(')');
+            if (selectionArgs != null) {
+                args.addAll(Arrays.asList(selectionArgs));
+            }
+        }
+        addFilters(uri, sortedOnColumn, where, args);
+
+        if (afterId != null) {
+            if (sortedOnColumn) {
+                addKeyset(uri, sortColumn, sortTerm, descending, afterId, where, args);
+            } else {
+                // Keyset paging: the next page starts right after the last _id of the previous
+                // one, so SQLite seeks straight to it instead of skipping rows.
+                if (sortColumn == null && sortOrder != null
+                        && !sortOrder.equals(StockEntry._ID)) {
+                    throw new IllegalArgumentException(
+                            "Paging after an id requires _id sort order");
+                }
+                and(where, StockEntry._ID + (descending ? "<?" : ">?"));
+                args.add(afterId);
+            }
+        }
+
+        if (limit != null || offset != null || afterId != null) {
+            // Pages are only stable if the rows come back in a fixed order
+            if (sortOrder == null) {
+                sortOrder = StockEntry._ID;
+            }
+            if (offset != null) {
+                // SQLite only accepts an offset together with a limit
+                limit = offset + "," + (limit == null ? String.valueOf(Long.MAX_VALUE) : limit);
+            }
+        }
+
+        return new StockListQuery(where.length() == 0 ? null : where.toString(),
+                args.isEmpty() ? null : args.toArray(new String[args.size()]), sortOrder, limit);
+    }
+
+    /**
+     * Add the filters asked for by the query parameters of the given URI.
+     *
+     * @param hideIndexes whether to keep SQLite from using the indexes of the filtered columns,
+     *                    by applying the unary "+" operator to them
+     */
+    private static void addFilters(Uri uri, boolean hideIndexes, StringBuilder where,
+                                   List<String> args) {
+        String prefix = hideIndexes ? "+" : "";
+
+        String type = uri.getQueryParameter(StockEntry.QUERY_PARAMETER_TYPE);
+        if (type != null) {
+            if (!type.equals(String.valueOf(StockEntry.TYPE_UNKNOWN))
+                    && !type.equals(String.valueOf(StockEntry.TYPE_ONE))
+                    && !type.equals(String.valueOf(StockEntry.TYPE_TWO))) {
+                throw new IllegalArgumentException("Invalid type in " + uri);
+            }
+            // Arguments are bound as text, and "+" takes away the integer affinity of the column
+            // that would have converted it
+            and(where, prefix + StockEntry.COLUMN_STOCK_TYPE + "=CAST(? AS INTEGER)");
+            args.add(type);
+        }
+
+        String supplier = uri.getQueryParameter(StockEntry.QUERY_PARAMETER_SUPPLIER);
+        if (supplier != null) {
+            and(where, prefix + StockEntry.COLUMN_STOCK_SUPPLIER + "=? COLLATE NOCASE");
+            args.add(supplier);
+        }
+
+        if (uri.getBooleanQueryParameter(StockEntry.QUERY_PARAMETER_IN_STOCK, false)) {
+            and(where, prefix + StockEntry.COLUMN_STOCK_QUANTITY + ">0");
+        }
+    }
+
+    /**
+     * Start the page right after the stock given by {@link StockEntry#QUERY_PARAMETER_AFTER_ID}
+     * and {@link StockEntry#QUERY_PARAMETER_AFTER_VALUE} in the order of the given sort column.
+     * Only the supplier can be null, and nulls sort before every other value.
+     */
+    private static void addKeyset(Uri uri, String sortColumn, String sortTerm,
+                                  boolean descending, String afterId, StringBuilder where,
+                                  List<String> args) {
+        String afterValue;
+        if (sortColumn.equals(StockEntry.COLUMN_STOCK_QUANTITY)
+                || sortColumn.equals(StockEntry.COLUMN_STOCK_PRICE)) {
+            afterValue = StockProvider.getIntQueryParameter(uri,
+                    StockEntry.QUERY_PARAMETER_AFTER_VALUE);
+        } else {
+            afterValue = uri.getQueryParameter(StockEntry.QUERY_PARAMETER_AFTER_VALUE);
+        }
+        boolean nullable = sortColumn.equals(StockEntry.COLUMN_STOCK_SUPPLIER);
+        if (afterValue == null && !nullable) {
+            throw new IllegalArgumentException("Paging sorted stocks requires "
+                    + StockEntry.QUERY_PARAMETER_AFTER_VALUE + " in " + uri);
+        }
+
+        String op = descending ? "<" : ">";
+        String isNull = sortColumn + " IS NULL";
+        if (afterValue == null) {
+            // The previous page ended among the stocks without a supplier
+            String rest = "(" + isNull + " AND " + StockEntry._ID + op + "?)";
+            and(where, descending ? rest : "(" + rest + " OR " + sortColumn + " IS NOT NULL)");
+            args.add(afterId);
+            return;
+        }
+
+        // The rest of the stocks with the same value, then those past it. Written with a range
+        // on the sort column so SQLite seeks to the value in the index.
+        String keyset = "(" + sortTerm + op + "=? AND (" + sortTerm + op + "? OR "
+                + StockEntry._ID + op + "?))";
+        and(where, descending && nullable ? "(" + keyset + " OR " + isNull + ")" : keyset);
+        args.add(afterValue);
+        args.add(afterValue);
+        args.add(afterId);
+    }
+
+    /**
+     * Add the given condition to the selection being built.
+     */
+    private static void and(StringBuilder where, String condition) {
+        if (where.length() != 0) {
+            where.append(" AND ");
+        }
+        where.append(condition);
+    }
+
+    /**
+     * Run this query on the stocks table.
+     */
+    Cursor query(SQLiteDatabase database, String[] projection) {
+        return database.query(StockEntry.TABLE_NAME, projection, selection, selectionArgs,
+                null, null, orderBy, limit);
+    }
+
+    /**
+     * Returns the SQL of this query, for checking its query plan.
+     */
+    String toSql(String[] projection) {
+        return SQLiteQueryBuilder.buildQueryString(false, StockEntry.TABLE_NAME, projection,
+                selection, null, null, orderBy, limit);
+    }
+}
@@ -1,15 +1,29 @@
 package com.example.android.shopit.data;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
 import android.net.Uri;
+import android.os.Bundle;
+import android.text.TextUtils;
 import android.util.Log;
 
+import com.example.android.shopit.data.StockContract.SaleEntry;
 import com.example.android.shopit.data.StockContract.StockEntry;
+import com.example.android.shopit.data.StockContract.SummaryEntry;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
 
 import static com.example.android.shopit.R.string.quantity;
 
@@ -37,6 +51,31 @@ public class StockProvider extends ContentProvider {
      */
     private static final int STOCK_ID = 101;
 
+    /**
+     * URI matcher code for the content URI to search the stocks table
+     */
+    private static final int STOCK_SEARCH = 102;
+
+    /**
+     * URI matcher code for the content URI for the totals of the inventory
+     */
+    private static final int SUMMARY = 103;
+
+    /**
+     * URI matcher code for the content URI for the totals of each stock type
+     */
+    private static final int SUMMARY_TYPE = 104;
+
+    /**
+     * URI matcher code for the content URI for the stocks that need reordering
+     */
+    private static final int STOCK_REORDER = 105;
+
+    /**
+     * URI matcher code for the content URI for the recent sales of each stock
+     */
+    private static final int SALES_RECENT = 106;
+
     /**
      * UriMatcher object to match a content URI to a corresponding code.
      * The input passed into the constructor represents the code to return for the root URI.
@@ -59,22 +98,209 @@ public class StockProvider extends ContentProvider {
         // For example, "content://com.example.android.shopit/stocks/3" matches, but
         // "content://com.example.android.shopit/stocks" (without a number at the end) doesn't match.
         sUriMatcher.addURI(StockContract.CONTENT_AUTHORITY, StockContract.PATH_STOCK + "/#", STOCK_ID);
+
+        // The content URI of the form "content://com.example.android.shopit/stock/search/<text>"
+        // will map to the integer code {@link #STOCK_SEARCH}, the "*" wildcard matches the text.
+        sUriMatcher.addURI(StockContract.CONTENT_AUTHORITY,
+                StockContract.PATH_STOCK + "/" + StockContract.PATH_SEARCH + "/*", STOCK_SEARCH);
+
+        // The content URI "content://com.example.android.shopit/stock/reorder" maps to
+        // {@link #STOCK_REORDER}. It doesn't clash with "stock/#", which only matches numbers.
+        sUriMatcher.addURI(StockContract.CONTENT_AUTHORITY,
+                StockContract.PATH_STOCK + "/" + StockContract.PATH_REORDER, STOCK_REORDER);
+
+        // The content URI "content://com.example.android.shopit/sales/recent" maps to
+        // {@link #SALES_RECENT}.
+        sUriMatcher.addURI(StockContract.CONTENT_AUTHORITY,
+                StockContract.PATH_SALES + "/" + StockContract.PATH_RECENT, SALES_RECENT);
+
+        // The summary URIs "content://com.example.android.shopit/summary" and
+        // "content://com.example.android.shopit/summary/type" map to {@link #SUMMARY} and
+        // {@link #SUMMARY_TYPE}.
+        sUriMatcher.addURI(StockContract.CONTENT_AUTHORITY, StockContract.PATH_SUMMARY, SUMMARY);
+        sUriMatcher.addURI(StockContract.CONTENT_AUTHORITY,
+                StockContract.PATH_SUMMARY + "/" + StockContract.PATH_TYPE, SUMMARY_TYPE);
     }
 
+    /**
+     * Maximum number of stocks returned by a search, unless the URI asks for a different limit.
+     */
+    private static final int DEFAULT_SEARCH_LIMIT = 100;
+
+    /**
+     * SQL used to search the stocks. The first argument matches words in the name only and the
+     * second matches words in either column, so stocks matching on name rank above stocks that
+     * only match on supplier. Within a rank stocks are sorted by name.
+     */
+    private static final String SQL_SEARCH_STOCKS = " FROM " + StockEntry.TABLE_NAME
+            + " INNER JOIN (SELECT docid, MIN(rank) AS search_rank FROM ("
+            + "SELECT docid, 0 AS rank FROM " + StockDbHelper.SEARCH_TABLE_NAME
+            + " WHERE " + StockDbHelper.SEARCH_TABLE_NAME + " MATCH ?"
+            + " UNION ALL "
+            + "SELECT docid, 1 AS rank FROM " + StockDbHelper.SEARCH_TABLE_NAME
+            + " WHERE " + StockDbHelper.SEARCH_TABLE_NAME + " MATCH ?"
+            + ") GROUP BY docid) AS hits ON " + StockEntry.TABLE_NAME + "." + StockEntry._ID
+            + " = hits.docid ORDER BY hits.search_rank, "
+            + StockEntry.TABLE_NAME + "." + StockEntry.COLUMN_STOCK_NAME + " COLLATE NOCASE"
+            + " LIMIT ?";
+
+    /**
+     * The totals of the whole inventory, added up from the totals of each type. There is one
+     * summary row per stock type, so this costs the same however many stocks there are.
+     */
+    private static final String SQL_SUMMARY_TOTALS = "(SELECT "
+            + "IFNULL(SUM(" + SummaryEntry.COLUMN_STOCK_COUNT + "), 0) AS "
+            + SummaryEntry.COLUMN_STOCK_COUNT + ", "
+            + "IFNULL(SUM(" + SummaryEntry.COLUMN_TOTAL_QUANTITY + "), 0) AS "
+            + SummaryEntry.COLUMN_TOTAL_QUANTITY + ", "
+            + "IFNULL(SUM(" + SummaryEntry.COLUMN_TOTAL_VALUE + "), 0) AS "
+            + SummaryEntry.COLUMN_TOTAL_VALUE + ", "
+            + "IFNULL(SUM(" + SummaryEntry.COLUMN_LOW_STOCK_COUNT + "), 0) AS "
+            + SummaryEntry.COLUMN_LOW_STOCK_COUNT
+            + " FROM " + SummaryEntry.TABLE_NAME + ")";
+
+    /**
+     * The stocks that need reordering, with the quantity to order. Comparing two columns can't
+     * use an index, so this is a single scan of the stocks table.
+     */
+    private static final String SQL_REORDER_STOCKS = "(SELECT "
+            + StockEntry._ID + ", "
+            + StockEntry.COLUMN_STOCK_NAME + ", "
+            + "IFNULL(" + StockEntry.COLUMN_STOCK_SUPPLIER + ", '') AS "
+            + StockEntry.COLUMN_STOCK_SUPPLIER + ", "
+            + StockEntry.COLUMN_STOCK_TYPE + ", "
+            + StockEntry.COLUMN_STOCK_QUANTITY + ", "
+            + StockEntry.COLUMN_STOCK_IMAGE + ", "
+            + StockEntry.COLUMN_STOCK_PRICE + ", "
+            + StockEntry.COLUMN_STOCK_VERSION + ", "
+            + StockEntry.COLUMN_STOCK_REORDER_THRESHOLD + ", "
+            + "2 * " + StockEntry.COLUMN_STOCK_REORDER_THRESHOLD + " - "
+            + StockEntry.COLUMN_STOCK_QUANTITY + " AS " + StockEntry.COLUMN_ORDER_QUANTITY
+            + " FROM " + StockEntry.TABLE_NAME
+            + " WHERE " + StockEntry.COLUMN_STOCK_QUANTITY + " < "
+            + StockEntry.COLUMN_STOCK_REORDER_THRESHOLD + ")";
+
+    /**
+     * Default sort order of the stocks that need reordering, grouping them by supplier
+     */
+    private static final String REORDER_SORT_ORDER = StockEntry.COLUMN_STOCK_SUPPLIER + ", "
+            + StockEntry.COLUMN_STOCK_NAME + " COLLATE NOCASE";
+
+    /**
+     * The number of items of each stock sold since a day, made of the daily totals since that
+     * day (the first argument) and the sales not rolled up yet since that day (the second).
+     * Both tables are indexed by day, and the daily totals hold one row per stock and day at
+     * most, so this stays fast however many sales there have been.
+     */
+    private static final String SQL_RECENT_SALES = "(SELECT "
+            + SaleEntry.COLUMN_STOCK_ID + ", "
+            + "SUM(" + SaleEntry.COLUMN_QUANTITY + ") AS " + SaleEntry.COLUMN_QUANTITY
+            + " FROM (SELECT " + SaleEntry.COLUMN_STOCK_ID + ", " + SaleEntry.COLUMN_QUANTITY
+            + " FROM " + SaleEntry.DAILY_TABLE_NAME + " WHERE " + SaleEntry.COLUMN_DAY + " >= ?"
+            + " UNION ALL SELECT " + SaleEntry.COLUMN_STOCK_ID + ", " + SaleEntry.COLUMN_QUANTITY
+            + " FROM " + SaleEntry.TABLE_NAME + " WHERE " + SaleEntry.COLUMN_DAY + " >= ?)"
+            + " GROUP BY " + SaleEntry.COLUMN_STOCK_ID + ")";
+
+    /**
+     * SQL used to read the queued stocks that are still low on stock, sorted by name
+     */
+    private static final String SQL_LOW_STOCK = "SELECT "
+            + StockEntry.TABLE_NAME + "." + StockEntry._ID + ", "
+            + StockEntry.COLUMN_STOCK_NAME + ", "
+            + StockEntry.COLUMN_STOCK_QUANTITY
+            + " FROM " + StockDbHelper.LOW_STOCK_QUEUE_TABLE_NAME
+            + " INNER JOIN " + StockEntry.TABLE_NAME + " ON " + StockEntry.TABLE_NAME + "."
+            + StockEntry._ID + " = " + StockDbHelper.COLUMN_QUEUE_STOCK_ID
+            + " WHERE " + StockEntry.COLUMN_STOCK_QUANTITY + " < "
+            + StockEntry.COLUMN_STOCK_REORDER_THRESHOLD
+            + " ORDER BY " + StockEntry.COLUMN_STOCK_NAME + " COLLATE NOCASE";
+
+    /**
+     * SQL used to read the quantity of a single stock
+     */
+    private static final String SQL_STOCK_QUANTITY = "SELECT " + StockEntry.COLUMN_STOCK_QUANTITY
+            + " FROM " + StockEntry.TABLE_NAME + " WHERE " + StockEntry._ID + " = ?";
+
+    /**
+     * Batches writing at least this many rows checkpoint the write-ahead log once they commit.
+     */
+    private static final int CHECKPOINT_BATCH_SIZE = 500;
+
     /**
      * Database helper object
      */
     private StockDbHelper mDbHelper;
 
+    /**
+     * Sends the change notifications, coalesced per URI and per transaction
+     */
+    private ChangeNotifier mChangeNotifier;
+
+    /**
+     * The precompiled write statements of each thread writing through this provider
+     */
+    private final ThreadLocal<StockStatements> mStatements = new ThreadLocal<>();
+
+    /**
+     * Every statement set handed out by {@link #getStatements}, to close them on shutdown.
+     * Guarded by itself.
+     */
+    private final List<StockStatements> mAllStatements = new ArrayList<>();
+
+    /**
+     * Works out the days of sales and keeps the sales ledger compacted
+     */
+    private SalesLedger mSalesLedger;
+
+    /**
+     * The stocks recently read, served to queries of a single stock and dropped on every write
+     */
+    private final StockCache mCache = StockCache.getInstance();
+
     @Override
     public boolean onCreate() {
         mDbHelper = new StockDbHelper(getContext());
+        // Stocks cached by an earlier provider may have come from another database
+        mCache.invalidateAll();
+        mSalesLedger = new SalesLedger(mDbHelper);
+        mChangeNotifier = new ChangeNotifier(getContext().getContentResolver(),
+                StockEntry.CONTENT_URI);
         return true;
     }
 
+    /**
+     * Send the notifications still waiting, stop the threads of the {@link ChangeNotifier} and
+     * the {@link SalesLedger}, and close the precompiled statements of every thread along with
+     * the database. Only called by tests, a provider of a running app lives as long as its
+     * process.
+     */
+    @Override
+    public void shutdown() {
+        mChangeNotifier.quit();
+        mSalesLedger.quit();
+        synchronized (mAllStatements) {
+            for (StockStatements statements : mAllStatements) {
+                statements.close();
+            }
+            mAllStatements.clear();
+        }
+        mDbHelper.close();
+        super.shutdown();
+    }
+
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
+        long start = Metrics.begin(Metrics.PROVIDER_QUERY);
+        try {
+            return queryUri(uri, projection, selection, selectionArgs, sortOrder);
+        } finally {
+            Metrics.end(Metrics.PROVIDER_QUERY, start);
+        }
+    }
+
+    private Cursor queryUri(Uri uri, String[] projection, String selection,
+                            String[] selectionArgs, String sortOrder) {
         // Get readable database
         SQLiteDatabase database = mDbHelper.getReadableDatabase();
 
@@ -87,14 +313,19 @@ public class StockProvider extends ContentProvider {
             case STOCKS:
                 // For the STOCKS code, query the stocks table directly with the given
                 // projection, selection, selection arguments, and sort order. The cursor
-                // could contain multiple rows of the stocks table.
-                cursor = database.query(StockEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
+                // could contain multiple rows of the stocks table, or a single page of them
+                // if the URI asks for one.
+                cursor = queryStocks(database, uri, projection, selection, selectionArgs,
+                        sortOrder);
                 break;
             case STOCK_ID:
-                // For the STOCK_ID code, extract out the ID from the URI.
-                //
-                //
+                // For the STOCK_ID code, extract out the ID from the URI. A query for the
+                // cached columns is served from memory, the editor's among them.
+                if (StockCache.canServe(projection)) {
+                    cursor = queryCachedStock(database, ContentUris.parseId(uri), projection);
+                    break;
+                }
+
                 // For every "?" in the selection, we need to have an element in the selection
                 // arguments that will fill in the "?". Since we have 1 question mark in the
                 // selection, we have 1 String in the selection arguments' String array.
@@ -106,6 +337,37 @@ public class StockProvider extends ContentProvider {
                 cursor = database.query(StockEntry.TABLE_NAME, projection, selection, selectionArgs,
                         null, null, sortOrder);
                 break;
+            case STOCK_SEARCH:
+                // For the STOCK_SEARCH code, search the full-text index for the text at the end
+                // of the URI. The results are ranked, so selection and sort order don't apply.
+                cursor = searchStocks(database, uri, projection);
+                break;
+            case STOCK_REORDER:
+                // For the STOCK_REORDER code, return the stocks below their reorder threshold
+                // grouped by supplier
+                if (sortOrder == null) {
+                    sortOrder = REORDER_SORT_ORDER;
+                }
+                cursor = database.query(SQL_REORDER_STOCKS, projection, selection, selectionArgs,
+                        null, null, sortOrder);
+                break;
+            case SALES_RECENT:
+                // For the SALES_RECENT code, add up the sales of each stock over the last days
+                cursor = queryRecentSales(database, uri, projection, sortOrder);
+                break;
+            case SUMMARY:
+                // For the SUMMARY code, add up the totals of every type into a single row
+                cursor = database.query(SQL_SUMMARY_TOTALS, projection, null, null,
+                        null, null, null);
+                break;
+            case SUMMARY_TYPE:
+                // For the SUMMARY_TYPE code, return the totals of each type as they are stored
+                if (sortOrder == null) {
+                    sortOrder = SummaryEntry.COLUMN_TYPE;
+                }
+                cursor = database.query(SummaryEntry.TABLE_NAME, projection, selection,
+                        selectionArgs, null, null, sortOrder);
+                break;
             default:
                 throw new IllegalArgumentException("Cannot query unknown URI " + uri);
         }
@@ -113,14 +375,141 @@ public class StockProvider extends ContentProvider {
         // Set notification URI on the Cursor,
         // so we know what content URI the Cursor was created for.
         // If the data at this URI changes, then we know we need to update the Cursor.
-        cursor.setNotificationUri(getContext().getContentResolver(), uri);
+        // Search results, stocks to reorder, sales and the summary can change with any stock, so
+        // they watch the whole table.
+        cursor.setNotificationUri(getContext().getContentResolver(),
+                match == STOCKS || match == STOCK_ID ? uri : StockEntry.CONTENT_URI);
 
         // Return the cursor
         return cursor;
     }
 
+    /**
+     * Query the given columns of the stock with the given id from the cache, reading it from
+     * the database first if it isn't cached yet.
+     */
+    private Cursor queryCachedStock(SQLiteDatabase database, long id, String[] projection) {
+        StockCache.Stock stock = mCache.get(id);
+        if (stock == null) {
+            long generation = mCache.getGeneration();
+            Cursor cursor = database.query(StockEntry.TABLE_NAME, StockCache.COLUMNS,
+                    StockEntry._ID + "=?", new String[]{String.valueOf(id)}, null, null, null);
+            try {
+                if (cursor.moveToFirst()) {
+                    stock = StockCache.readStock(cursor);
+                    mCache.put(stock, generation);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return StockCache.newCursor(projection, stock);
+    }
+
+    /**
+     * Query the stocks table, applying the paging, sorting and filtering query parameters of the
+     * given URI on top of the given selection and sort order (see {@link StockListQuery}).
+     */
+    private Cursor queryStocks(SQLiteDatabase database, Uri uri, String[] projection,
+                               String selection, String[] selectionArgs, String sortOrder) {
+        return StockListQuery.fromUri(uri, selection, selectionArgs, sortOrder)
+                .query(database, projection);
+    }
+
+    /**
+     * Query the number of items of each stock sold over the days given by the
+     * {@link SaleEntry#QUERY_PARAMETER_DAYS} of the given URI, today included.
+     */
+    private Cursor queryRecentSales(SQLiteDatabase database, Uri uri, String[] projection,
+                                    String sortOrder) {
+        String daysParameter = getIntQueryParameter(uri, SaleEntry.QUERY_PARAMETER_DAYS);
+        int days = daysParameter == null ? SaleEntry.DEFAULT_RECENT_DAYS
+                : (int) Math.min(Long.parseLong(daysParameter), Integer.MAX_VALUE);
+        if (days < 1 || days > SaleEntry.RETENTION_DAYS) {
+            throw new IllegalArgumentException("Invalid " + SaleEntry.QUERY_PARAMETER_DAYS
+                    + " in " + uri);
+        }
+
+        if (sortOrder == null) {
+            sortOrder = SaleEntry.COLUMN_QUANTITY + " DESC";
+        }
+        String since = String.valueOf(
+                mSalesLedger.getDaysBefore(System.currentTimeMillis(), days - 1));
+        return database.query(SQL_RECENT_SALES, projection, null, new String[]{since, since},
+                null, null, sortOrder);
+    }
+
+    /**
+     * Search the stocks for the text in the last segment of the given URI. Every word of the text
+     * is matched as a prefix, so "lor eye" finds "Loreal Eyeliner".
+     */
+    private Cursor searchStocks(SQLiteDatabase database, Uri uri, String[] projection) {
+        StringBuilder nameMatch = new StringBuilder();
+        StringBuilder anyMatch = new StringBuilder();
+        for (String word : uri.getLastPathSegment().split("[^\\p{L}\\p{N}]+")) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            if (anyMatch.length() > 0) {
+                nameMatch.append(' ');
+                anyMatch.append(' ');
+            }
+            nameMatch.append(StockEntry.COLUMN_STOCK_NAME).append(':').append(word).append('*');
+            anyMatch.append(word).append('*');
+        }
+
+        // Nothing to search for, return an empty cursor with the requested columns
+        if (anyMatch.length() == 0) {
+            return database.query(StockEntry.TABLE_NAME, projection, "0", null,
+                    null, null, null);
+        }
+
+        String limit = getIntQueryParameter(uri, StockEntry.QUERY_PARAMETER_LIMIT);
+        if (limit == null) {
+            limit = String.valueOf(DEFAULT_SEARCH_LIMIT);
+        }
+
+        String columns;
+        if (projection == null) {
+            columns = StockEntry.TABLE_NAME + ".*";
+        } else {
+            columns = TextUtils.join(", ", projection);
+        }
+        return database.rawQuery("SELECT " + columns + SQL_SEARCH_STOCKS,
+                new String[]{nameMatch.toString(), anyMatch.toString(), limit});
+    }
+
+    /**
+     * Return the value of the given query parameter, checking that it is a non-negative integer.
+     * Returns null if the URI doesn't have the parameter.
+     */
+    static String getIntQueryParameter(Uri uri, String key) {
+        String value = uri.getQueryParameter(key);
+        if (value == null) {
+            return null;
+        }
+        try {
+            long number = Long.parseLong(value);
+            if (number < 0) {
+                throw new IllegalArgumentException("Negative " + key + " in " + uri);
+            }
+            return String.valueOf(number);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + key + " in " + uri);
+        }
+    }
+
     @Override
     public Uri insert(Uri uri, ContentValues contentValues) {
+        long start = Metrics.begin(Metrics.PROVIDER_INSERT);
+        try {
+            return insertUri(uri, contentValues);
+        } finally {
+            Metrics.end(Metrics.PROVIDER_INSERT, start);
+        }
+    }
+
+    private Uri insertUri(Uri uri, ContentValues contentValues) {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case STOCKS:
@@ -136,9 +525,38 @@ public class StockProvider extends ContentProvider {
      */
     private Uri insertStock(Uri uri, ContentValues values) {
 
+        // Check that the values describe a valid stock
+        checkNewStock(values);
+
         // Get writable database.
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
+        // Insert the new stock with the given values
+        long id;
+        if (StockStatements.canInsert(values)) {
+            id = getStatements(database).insert(values);
+        } else {
+            id = database.insert(StockEntry.TABLE_NAME, null, values);
+        }
+        // If the ID is -1, then the insertion failed. Log an error and return null.
+        if (id == -1) {
+            Log.e(LOG_TAG, "Failed to insert row for " + uri);
+            return null;
+        }
+
+        // Notify all listeners that the data has changed for the new stock
+        Uri stockUri = ContentUris.withAppendedId(StockEntry.CONTENT_URI, id);
+        notifyChange(stockUri);
+
+        // Return the new URI with the ID (of the newly inserted row) appended at the end
+        return stockUri;
+    }
+
+    /**
+     * Check that the given content values describe a stock that can be inserted. Throws an
+     * {@link IllegalArgumentException} if any of the required attributes are missing or invalid.
+     */
+    static void checkNewStock(ContentValues values) {
         // Check that the name is not null
         String name = values.getAsString(StockEntry.COLUMN_STOCK_NAME);
         if (name == null) {
@@ -170,38 +588,115 @@ public class StockProvider extends ContentProvider {
             throw new IllegalArgumentException("Stock requires valid price");
         }
 
+        // If the reorder threshold is provided, check that it's not negative
+        Integer threshold = values.getAsInteger(StockEntry.COLUMN_STOCK_REORDER_THRESHOLD);
+        if (threshold != null && threshold < 0) {
+            throw new IllegalArgumentException("Stock requires valid reorder threshold");
+        }
+
         // No need to check the Supplier, any value is valid (including null).
 
+        // The row version is maintained by the database
+        if (values.containsKey(StockEntry.COLUMN_STOCK_VERSION)) {
+            throw new IllegalArgumentException("Stock version can not be set");
+        }
+    }
 
-        // Insert the new stock with the given values
-        long id = database.insert(StockEntry.TABLE_NAME, null, values);
-        // If the ID is -1, then the insertion failed. Log an error and return null.
-        if (id == -1) {
-            Log.e(LOG_TAG, "Failed to insert row for " + uri);
-            return null;
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        long start = Metrics.begin(Metrics.PROVIDER_BULK_INSERT);
+        try {
+            return bulkInsertUri(uri, values);
+        } finally {
+            Metrics.end(Metrics.PROVIDER_BULK_INSERT, start);
         }
+    }
 
-        // Notify all listeners that the data has changed for the stock content URI
-        getContext().getContentResolver().notifyChange(uri, null);
+    private int bulkInsertUri(Uri uri, ContentValues[] values) {
+        final int match = sUriMatcher.match(uri);
+        switch (match) {
+            case STOCKS:
+                return bulkInsertStocks(uri, values);
+            default:
+                throw new IllegalArgumentException("Insertion is not supported for " + uri);
+        }
+    }
 
-        // Return the new URI with the ID (of the newly inserted row) appended at the end
-        return ContentUris.withAppendedId(uri, id);
+    /**
+     * Insert all of the given stocks in a single transaction using the precompiled insert.
+     * Every row is validated before anything is written, so an invalid row rejects the whole
+     * batch. Listeners are notified once, after the transaction has been committed.
+     * Return the number of rows that were inserted.
+     */
+    private int bulkInsertStocks(Uri uri, ContentValues[] values) {
+        // Validate the whole batch up front so we never leave a partial catalogue behind
+        for (ContentValues value : values) {
+            checkNewStock(value);
+        }
+
+        // Get writable database.
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        int rowsInserted = 0;
+        StockStatements statements = getStatements(database);
+        database.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                long id;
+                if (StockStatements.canInsert(value)) {
+                    id = statements.insert(value);
+                } else {
+                    id = database.insert(StockEntry.TABLE_NAME, null, value);
+                }
+                if (id != -1) {
+                    rowsInserted++;
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        // Fold a large catalogue load back into the database file straight away
+        if (rowsInserted >= CHECKPOINT_BATCH_SIZE) {
+            StockDbHelper.checkpoint(database);
+        }
+
+        // Notify all listeners once for the whole batch
+        if (rowsInserted != 0) {
+            notifyChange(StockEntry.CONTENT_URI);
+        }
+
+        return rowsInserted;
     }
 
     @Override
     public int update(Uri uri, ContentValues contentValues, String selection,
                       String[] selectionArgs) {
+        long start = Metrics.begin(Metrics.PROVIDER_UPDATE);
+        try {
+            return updateUri(uri, contentValues, selection, selectionArgs);
+        } finally {
+            Metrics.end(Metrics.PROVIDER_UPDATE, start);
+        }
+    }
+
+    private int updateUri(Uri uri, ContentValues contentValues, String selection,
+                          String[] selectionArgs) {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case STOCKS:
-                return updateStock(uri, contentValues, selection, selectionArgs);
+                return updateStock(StockEntry.CONTENT_URI, -1, contentValues, selection,
+                        selectionArgs);
             case STOCK_ID:
                 // For the STOCK_ID code, extract out the ID from the URI,
                 // so we know which row to update. Selection will be "_id=?" and selection
                 // arguments will be a String array containing the actual ID.
+                long id = ContentUris.parseId(uri);
                 selection = StockEntry._ID + "=?";
-                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
-                return updateStock(uri, contentValues, selection, selectionArgs);
+                selectionArgs = new String[]{String.valueOf(id)};
+                return updateStock(ContentUris.withAppendedId(StockEntry.CONTENT_URI, id), id,
+                        contentValues, selection, selectionArgs);
             default:
                 throw new IllegalArgumentException("Update is not supported for " + uri);
         }
@@ -209,10 +704,13 @@ public class StockProvider extends ContentProvider {
 
     /**
      * Update stocks in the database with the given content values. Apply the changes to the rows
-     * specified in the selection and selection arguments (which could be 0 or 1 or more stocks).
+     * specified in the selection and selection arguments (which could be 0 or 1 or more stocks),
+     * and notify listeners of the given URI. Updates of a single stock by id (-1 otherwise) that
+     * set only its quantity, or all of its attributes, go through precompiled statements.
      * Return the number of rows that were successfully updated.
      */
-    private int updateStock(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+    private int updateStock(Uri uri, long id, ContentValues values, String selection,
+                            String[] selectionArgs) {
         // If the {@link StockEntry#COLUMN_STOCK_NAME} key is present,
         // check that the name value is not null.
         if (values.containsKey(StockEntry.COLUMN_STOCK_NAME)) {
@@ -258,8 +756,22 @@ public class StockProvider extends ContentProvider {
                 throw new IllegalArgumentException("Item requires valid quantity.");
             }
         }
+
+        // If the {@link StockEntry#COLUMN_STOCK_REORDER_THRESHOLD} key is present,
+        // check that it's greater than or equal to 0.
+        if (values.containsKey(StockEntry.COLUMN_STOCK_REORDER_THRESHOLD)) {
+            Integer threshold = values.getAsInteger(StockEntry.COLUMN_STOCK_REORDER_THRESHOLD);
+            if (threshold == null || threshold < 0) {
+                throw new IllegalArgumentException("Stock requires valid reorder threshold");
+            }
+        }
         // No need to check the supplier any value is valid (including null).
 
+        // The row version is maintained by the database
+        if (values.containsKey(StockEntry.COLUMN_STOCK_VERSION)) {
+            throw new IllegalArgumentException("Stock version can not be updated");
+        }
+
         // If there are no values to update, then don't try to update the database
         if (values.size() == 0) {
             return 0;
@@ -269,12 +781,40 @@ public class StockProvider extends ContentProvider {
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
         // Perform the update on the database and get the number of rows affected
-        int rowsUpdated = database.update(StockEntry.TABLE_NAME, values, selection, selectionArgs);
+        int rowsUpdated;
+        if (id != -1 && StockStatements.isQuantityUpdate(values)) {
+            rowsUpdated = getStatements(database).updateQuantity(id, values);
+        } else if (id != -1 && StockStatements.isFullUpdate(values)) {
+            rowsUpdated = getStatements(database).updateStock(id, values);
+        } else if (id != -1) {
+            rowsUpdated = database.update(StockEntry.TABLE_NAME, values, selection, selectionArgs);
+        } else if (selection == null) {
+            // Every stock was updated
+            rowsUpdated = database.update(StockEntry.TABLE_NAME, values, null, selectionArgs);
+            mCache.invalidateAll();
+        } else {
+            // Find the updated stocks, so only those are dropped from the cache once the
+            // update has been committed
+            long[] ids;
+            database.beginTransaction();
+            try {
+                ids = queryIds(database, selection, selectionArgs);
+                rowsUpdated = database.update(StockEntry.TABLE_NAME, values, selection,
+                        selectionArgs);
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+            mCache.invalidate(ids);
+        }
 
         // If 1 or more rows were updated, then notify all listeners that the data at the
         // given URI has changed
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            if (id != -1) {
+                mCache.invalidate(id);
+            }
+            notifyChange(uri);
         }
 
         // Return the number of rows updated
@@ -283,23 +823,54 @@ public class StockProvider extends ContentProvider {
 
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
+        long start = Metrics.begin(Metrics.PROVIDER_DELETE);
+        try {
+            return deleteUri(uri, selection, selectionArgs);
+        } finally {
+            Metrics.end(Metrics.PROVIDER_DELETE, start);
+        }
+    }
+
+    private int deleteUri(Uri uri, String selection, String[] selectionArgs) {
         // Get writeable database
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
-        // Track the number of rows that were deleted
+        // Track the number of rows that were deleted, and the URI they were under
         int rowsDeleted;
+        Uri changedUri;
 
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case STOCKS:
                 // Delete all rows that match the selection and selection args
-                rowsDeleted = database.delete(StockEntry.TABLE_NAME, selection, selectionArgs);
+                if (selection == null) {
+                    rowsDeleted = database.delete(StockEntry.TABLE_NAME, null, selectionArgs);
+                    mCache.invalidateAll();
+                } else {
+                    // Find the deleted stocks, so only those are dropped from the cache once
+                    // the delete has been committed
+                    long[] ids;
+                    database.beginTransaction();
+                    try {
+                        ids = queryIds(database, selection, selectionArgs);
+                        rowsDeleted = database.delete(StockEntry.TABLE_NAME, selection,
+                                selectionArgs);
+                        database.setTransactionSuccessful();
+                    } finally {
+                        database.endTransaction();
+                    }
+                    mCache.invalidate(ids);
+                }
+                changedUri = StockEntry.CONTENT_URI;
                 break;
             case STOCK_ID:
                 // Delete a single row given by the ID in the URI
+                long id = ContentUris.parseId(uri);
                 selection = StockEntry._ID + "=?";
-                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
+                selectionArgs = new String[]{String.valueOf(id)};
                 rowsDeleted = database.delete(StockEntry.TABLE_NAME, selection, selectionArgs);
+                mCache.invalidate(id);
+                changedUri = ContentUris.withAppendedId(StockEntry.CONTENT_URI, id);
                 break;
             default:
                 throw new IllegalArgumentException("Deletion is not supported for " + uri);
@@ -308,13 +879,290 @@ public class StockProvider extends ContentProvider {
         // If 1 or more rows were deleted, then notify all listeners that the data at the
         // given URI has changed
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(changedUri);
         }
 
         // Return the number of rows deleted
         return rowsDeleted;
     }
 
+    /**
+     * Returns the ids of the stocks matching the given selection.
+     */
+    private static long[] queryIds(SQLiteDatabase database, String selection,
+                                   String[] selectionArgs) {
+        Cursor cursor = database.query(StockEntry.TABLE_NAME, new String[]{StockEntry._ID},
+                selection, selectionArgs, null, null, null);
+        try {
+            long[] ids = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                ids[i] = cursor.getLong(0);
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Apply all of the given operations in a single transaction. Either every operation is
+     * committed or, if any of them fails, none of them are. Listeners are only notified once the
+     * batch has committed, of every URI it changed at most once.
+     * <p>
+     * An operation built with {@link ContentProviderOperation.Builder#withYieldAllowed(boolean)}
+     * marks a yield point: if another thread is waiting for the database the work done so far is
+     * committed there, so very long batches can opt in to giving readers a turn. Work committed
+     * at a yield point stays committed, and is notified, even if a later operation fails.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        // Get writable database
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        mChangeNotifier.beginTransaction();
+        boolean committed = false;
+        database.beginTransaction();
+        try {
+            final int numOperations = operations.size();
+            final ContentProviderResult[] results = new ContentProviderResult[numOperations];
+            for (int i = 0; i < numOperations; i++) {
+                ContentProviderOperation operation = operations.get(i);
+                if (i > 0 && operation.isYieldAllowed() && database.yieldIfContendedSafely()) {
+                    // The operations so far were committed, whatever happens to the rest
+                    mChangeNotifier.commitTransaction();
+                }
+                results[i] = operation.apply(this, results, i);
+            }
+            database.setTransactionSuccessful();
+            committed = true;
+            return results;
+        } finally {
+            database.endTransaction();
+
+            // A stock read while the batch was running was read as it was before the batch and
+            // may have been cached after its operation dropped it
+            mCache.invalidateAll();
+
+            // Send the notifications held back during the batch, or drop them on rollback
+            mChangeNotifier.endTransaction(committed);
+
+            // Fold a large batch back into the database file straight away
+            if (committed && operations.size() >= CHECKPOINT_BATCH_SIZE) {
+                StockDbHelper.checkpoint(database);
+            }
+        }
+    }
+
+    /**
+     * Returns the precompiled write statements of the current thread for the given database.
+     * Each thread gets its own, so a thread waiting on another thread's transaction never holds
+     * a statement that thread needs. Statements compiled for a database that has since been
+     * closed or reopened are closed and compiled again.
+     */
+    private StockStatements getStatements(SQLiteDatabase database) {
+        StockStatements statements = mStatements.get();
+        if (statements != null && statements.database == database && statements.isOpen()) {
+            return statements;
+        }
+
+        StockStatements stale = statements;
+        statements = new StockStatements(database);
+        synchronized (mAllStatements) {
+            if (stale != null) {
+                stale.close();
+                mAllStatements.remove(stale);
+            }
+            mAllStatements.add(statements);
+        }
+        mStatements.set(statements);
+        return statements;
+    }
+
+    /**
+     * Notify all listeners that the data at the given URI has changed. Notifications are
+     * coalesced by {@link ChangeNotifier}, so a burst of writes reaches listeners as one change
+     * per URI, and a batch only reaches them once it has committed.
+     */
+    private void notifyChange(Uri uri) {
+        mChangeNotifier.notifyChange(uri);
+    }
+
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        long start = Metrics.begin(Metrics.PROVIDER_CALL);
+        try {
+            return callMethod(method, arg, extras);
+        } finally {
+            Metrics.end(Metrics.PROVIDER_CALL, start);
+        }
+    }
+
+    private Bundle callMethod(String method, String arg, Bundle extras) {
+        if (StockEntry.METHOD_SELL.equals(method)) {
+            long id;
+            try {
+                id = Long.parseLong(arg);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid stock id " + arg);
+            }
+            int count = extras == null ? 1 : extras.getInt(StockEntry.EXTRA_COUNT, 1);
+            return sellStock(id, count);
+        }
+        if (StockEntry.METHOD_SELL_ALL.equals(method)) {
+            long[] ids = extras == null ? null : extras.getLongArray(StockEntry.EXTRA_IDS);
+            int[] counts = extras == null ? null : extras.getIntArray(StockEntry.EXTRA_COUNTS);
+            if (ids == null || counts == null || ids.length != counts.length) {
+                throw new IllegalArgumentException("Sales require a count for every stock id");
+            }
+            return sellStocks(ids, counts);
+        }
+        if (StockEntry.METHOD_TAKE_LOW_STOCK.equals(method)) {
+            int limit;
+            try {
+                limit = arg == null ? Integer.MAX_VALUE : Integer.parseInt(arg);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid limit " + arg);
+            }
+            return takeLowStock(limit);
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * Sell the given number of items of the stock with the given id, or as many as are left.
+     * Return a bundle with the outcome, as described in {@link StockEntry#METHOD_SELL}.
+     */
+    private Bundle sellStock(long id, int count) {
+        int[] sold = new int[1];
+        int[] quantities = new int[1];
+        sell(new long[]{id}, new int[]{count}, sold, quantities);
+
+        Bundle result = new Bundle();
+        result.putInt(StockEntry.EXTRA_SOLD, sold[0]);
+        result.putInt(StockEntry.EXTRA_QUANTITY, quantities[0]);
+        return result;
+    }
+
+    /**
+     * Sell the given number of items of each of the given stocks, or as many as are left. Return
+     * a bundle with the outcome, as described in {@link StockEntry#METHOD_SELL_ALL}.
+     */
+    private Bundle sellStocks(long[] ids, int[] counts) {
+        int[] sold = new int[ids.length];
+        int[] quantities = new int[ids.length];
+        sell(ids, counts, sold, quantities);
+
+        Bundle result = new Bundle();
+        result.putIntArray(StockEntry.EXTRA_SOLD_COUNTS, sold);
+        result.putIntArray(StockEntry.EXTRA_QUANTITIES, quantities);
+        return result;
+    }
+
+    /**
+     * Sell the given number of items of each of the given stocks, or as many as are left, and
+     * store the number of items sold and the quantity left (-1 if there is no such stock) of
+     * each in the given arrays. The quantities are read, decremented and the sales appended to
+     * the sales ledger in one transaction for all of the stocks.
+     */
+    private void sell(long[] ids, int[] counts, int[] sold, int[] quantities) {
+        for (int count : counts) {
+            if (count < 1) {
+                throw new IllegalArgumentException("Sale requires a positive count");
+            }
+        }
+
+        // Get writable database
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        long now = System.currentTimeMillis();
+        int day = mSalesLedger.getDay(now);
+        StockStatements statements = getStatements(database);
+        database.beginTransaction();
+        try {
+            for (int i = 0; i < ids.length; i++) {
+                int quantity;
+                try {
+                    quantity = (int) DatabaseUtils.longForQuery(database, SQL_STOCK_QUANTITY,
+                            new String[]{String.valueOf(ids[i])});
+                } catch (SQLiteDoneException e) {
+                    // There is no stock with this id
+                    quantity = -1;
+                }
+
+                // Taps combined into one sale may ask for more than is left, sell what there is
+                sold[i] = 0;
+                if (quantity > 0 && statements.sell(ids[i], Math.min(counts[i], quantity)) != 0) {
+                    sold[i] = Math.min(counts[i], quantity);
+                    quantity -= sold[i];
+                    statements.recordSale(ids[i], sold[i], now, day);
+                }
+                quantities[i] = quantity;
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        // Only the sold stocks have changed, so only notify listeners of those stocks
+        for (int i = 0; i < ids.length; i++) {
+            if (sold[i] > 0) {
+                mCache.invalidate(ids[i]);
+                notifyChange(ContentUris.withAppendedId(StockEntry.CONTENT_URI, ids[i]));
+                mSalesLedger.onSaleRecorded(now);
+            }
+        }
+    }
+
+    /**
+     * Take the stocks queued as low on stock by the database triggers, describing at most the
+     * given number of them. The queue is read and emptied in one transaction, so a stock that
+     * goes low meanwhile is kept for the next call. Return a bundle as described in
+     * {@link StockEntry#METHOD_TAKE_LOW_STOCK}.
+     */
+    private Bundle takeLowStock(int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Negative limit " + limit);
+        }
+
+        // Get writable database
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        int total;
+        long[] ids;
+        String[] names;
+        int[] quantities;
+        database.beginTransaction();
+        try {
+            Cursor cursor = database.rawQuery(SQL_LOW_STOCK, null);
+            try {
+                total = cursor.getCount();
+                int count = Math.min(total, limit);
+                ids = new long[count];
+                names = new String[count];
+                quantities = new int[count];
+                for (int i = 0; i < count && cursor.moveToNext(); i++) {
+                    ids[i] = cursor.getLong(0);
+                    names[i] = cursor.getString(1);
+                    quantities[i] = cursor.getInt(2);
+                }
+            } finally {
+                cursor.close();
+            }
+            database.delete(StockDbHelper.LOW_STOCK_QUEUE_TABLE_NAME, null, null);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        Bundle result = new Bundle();
+        result.putInt(StockEntry.EXTRA_TOTAL, total);
+        result.putLongArray(StockEntry.EXTRA_IDS, ids);
+        result.putStringArray(StockEntry.EXTRA_NAMES, names);
+        result.putIntArray(StockEntry.EXTRA_QUANTITIES, quantities);
+        return result;
+    }
+
     @Override
     public String getType(Uri uri) {
         final int match = sUriMatcher.match(uri);
@@ -323,8 +1171,28 @@ public class StockProvider extends ContentProvider {
                 return StockEntry.CONTENT_LIST_TYPE;
             case STOCK_ID:
                 return StockEntry.CONTENT_ITEM_TYPE;
+            case STOCK_SEARCH:
+                return StockEntry.CONTENT_LIST_TYPE;
+            case STOCK_REORDER:
+                return StockEntry.CONTENT_LIST_TYPE;
+            case SALES_RECENT:
+                return SaleEntry.CONTENT_LIST_TYPE;
+            case SUMMARY:
+                return SummaryEntry.CONTENT_ITEM_TYPE;
+            case SUMMARY_TYPE:
+                return SummaryEntry.CONTENT_LIST_TYPE;
             default:
                 throw new IllegalStateException("Unknown URI " + uri + " with match " + match);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Write the metrics of the app, see {@link Metrics}. Run with
+     * {@code adb shell dumpsys activity provider
+     * com.example.android.shopit/.data.StockProvider [--json] [--reset]}.
+     */
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        Metrics.dump(writer, args);
+    }
+}
@@ -0,0 +1,271 @@
+package com.example.android.shopit.data;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.shopit.data.StockContract.SaleEntry;
+import com.example.android.shopit.data.StockContract.StockEntry;
+
+/**
+ * Precompiled statements for the writes {@link StockProvider} makes most often: inserting a
+ * stock, updating just its quantity, updating all of its attributes, selling some of it and
+ * recording the sale in the ledger.
+ * <p>
+ * {@link SQLiteDatabase#insert} and {@link SQLiteDatabase#update} build their SQL from the keys of
+ * the {@link ContentValues} and compile a new statement on every call. These statements are
+ * compiled once and only re-bound, which matters most for the quantity update behind the sale
+ * button.
+ * <p>
+ * A statement holds its bound arguments, so an instance must only be used by one thread at a
+ * time. {@link StockProvider} keeps one per thread, and closes them all when it shuts down.
+ */
+final class StockStatements {
+
+    /**
+     * SQL used to insert a single stock row
+     */
+    static final String SQL_INSERT_STOCK = "INSERT INTO " + StockEntry.TABLE_NAME + " ("
+            + StockEntry.COLUMN_STOCK_NAME + ", "
+            + StockEntry.COLUMN_STOCK_SUPPLIER + ", "
+            + StockEntry.COLUMN_STOCK_TYPE + ", "
+            + StockEntry.COLUMN_STOCK_QUANTITY + ", "
+            + StockEntry.COLUMN_STOCK_IMAGE + ", "
+            + StockEntry.COLUMN_STOCK_PRICE + ") VALUES (?, ?, ?, ?, ?, ?)";
+
+    /**
+     * SQL used to set the quantity of a single stock
+     */
+    static final String SQL_UPDATE_QUANTITY = "UPDATE " + StockEntry.TABLE_NAME
+            + " SET " + StockEntry.COLUMN_STOCK_QUANTITY + " = ?"
+            + " WHERE " + StockEntry._ID + " = ?";
+
+    /**
+     * SQL used to set all attributes of a single stock, in the order of {@link #ROW_COLUMNS}
+     */
+    static final String SQL_UPDATE_STOCK = "UPDATE " + StockEntry.TABLE_NAME + " SET "
+            + StockEntry.COLUMN_STOCK_NAME + " = ?, "
+            + StockEntry.COLUMN_STOCK_SUPPLIER + " = ?, "
+            + StockEntry.COLUMN_STOCK_TYPE + " = ?, "
+            + StockEntry.COLUMN_STOCK_QUANTITY + " = ?, "
+            + StockEntry.COLUMN_STOCK_IMAGE + " = ?, "
+            + StockEntry.COLUMN_STOCK_PRICE + " = ?"
+            + " WHERE " + StockEntry._ID + " = ?";
+
+    /**
+     * SQL used to sell some of a stock. The quantity only goes down if there is enough stock
+     * for the whole sale, and it is decremented in place so concurrent sales can't overwrite
+     * each other.
+     */
+    static final String SQL_SELL_STOCK = "UPDATE " + StockEntry.TABLE_NAME
+            + " SET " + StockEntry.COLUMN_STOCK_QUANTITY + " = "
+            + StockEntry.COLUMN_STOCK_QUANTITY + " - ?"
+            + " WHERE " + StockEntry._ID + " = ? AND " + StockEntry.COLUMN_STOCK_QUANTITY + " >= ?";
+
+    /**
+     * SQL used to append a sale to the sales ledger
+     */
+    static final String SQL_RECORD_SALE = "INSERT INTO " + SaleEntry.TABLE_NAME + " ("
+            + SaleEntry.COLUMN_STOCK_ID + ", "
+            + SaleEntry.COLUMN_QUANTITY + ", "
+            + SaleEntry.COLUMN_TIMESTAMP + ", "
+            + SaleEntry.COLUMN_DAY + ") VALUES (?, ?, ?, ?)";
+
+    /**
+     * The columns a stock row can be written with, in the order of the statements above
+     */
+    private static final String[] ROW_COLUMNS = {
+            StockEntry.COLUMN_STOCK_NAME,
+            StockEntry.COLUMN_STOCK_SUPPLIER,
+            StockEntry.COLUMN_STOCK_TYPE,
+            StockEntry.COLUMN_STOCK_QUANTITY,
+            StockEntry.COLUMN_STOCK_IMAGE,
+            StockEntry.COLUMN_STOCK_PRICE};
+
+    /**
+     * The database the statements are compiled for
+     */
+    final SQLiteDatabase database;
+
+    private SQLiteStatement mInsert;
+    private SQLiteStatement mUpdateQuantity;
+    private SQLiteStatement mUpdateStock;
+    private SQLiteStatement mSell;
+    private SQLiteStatement mRecordSale;
+
+    /**
+     * Whether {@link #close()} was called
+     */
+    private boolean mClosed;
+
+    StockStatements(SQLiteDatabase database) {
+        this.database = database;
+    }
+
+    /**
+     * Returns whether the statements can still be used: they weren't closed and their database
+     * is still open.
+     */
+    boolean isOpen() {
+        return !mClosed && database.isOpen();
+    }
+
+    /**
+     * Release the statements compiled so far. The instance can't be used afterwards.
+     */
+    void close() {
+        mClosed = true;
+        mInsert = close(mInsert);
+        mUpdateQuantity = close(mUpdateQuantity);
+        mUpdateStock = close(mUpdateStock);
+        mSell = close(mSell);
+        mRecordSale = close(mRecordSale);
+    }
+
+    private static SQLiteStatement close(SQLiteStatement statement) {
+        if (statement != null) {
+            statement.close();
+        }
+        return null;
+    }
+
+    /**
+     * Returns whether the given values can be inserted with {@link #insert}, that is whether
+     * they only hold stock row columns.
+     */
+    static boolean canInsert(ContentValues values) {
+        for (String key : values.keySet()) {
+            if (indexOf(key) == -1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether the given values only set the quantity, see {@link #updateQuantity}.
+     */
+    static boolean isQuantityUpdate(ContentValues values) {
+        return values.size() == 1 && values.containsKey(StockEntry.COLUMN_STOCK_QUANTITY);
+    }
+
+    /**
+     * Returns whether the given values set every stock row column, see {@link #updateStock}.
+     */
+    static boolean isFullUpdate(ContentValues values) {
+        if (values.size() != ROW_COLUMNS.length) {
+            return false;
+        }
+        for (String column : ROW_COLUMNS) {
+            if (!values.containsKey(column)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(String column) {
+        for (int i = 0; i < ROW_COLUMNS.length; i++) {
+            if (ROW_COLUMNS[i].equals(column)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Insert a stock, see {@link #bindStock}. Returns the id of the new row, or -1 if it couldn't
+     * be inserted.
+     */
+    long insert(ContentValues values) {
+        if (mInsert == null) {
+            mInsert = database.compileStatement(SQL_INSERT_STOCK);
+        }
+        mInsert.clearBindings();
+        bindStock(mInsert, values);
+        return mInsert.executeInsert();
+    }
+
+    /**
+     * Set the quantity of the stock with the given id. Returns the number of rows updated.
+     */
+    int updateQuantity(long id, ContentValues values) {
+        if (mUpdateQuantity == null) {
+            mUpdateQuantity = database.compileStatement(SQL_UPDATE_QUANTITY);
+        }
+        DatabaseUtils.bindObjectToProgram(mUpdateQuantity, 1,
+                values.get(StockEntry.COLUMN_STOCK_QUANTITY));
+        mUpdateQuantity.bindLong(2, id);
+        return mUpdateQuantity.executeUpdateDelete();
+    }
+
+    /**
+     * Set every attribute of the stock with the given id. The values must hold every column, see
+     * {@link #isFullUpdate}. Returns the number of rows updated.
+     */
+    int updateStock(long id, ContentValues values) {
+        if (mUpdateStock == null) {
+            mUpdateStock = database.compileStatement(SQL_UPDATE_STOCK);
+        }
+        for (int i = 0; i < ROW_COLUMNS.length; i++) {
+            DatabaseUtils.bindObjectToProgram(mUpdateStock, i + 1, values.get(ROW_COLUMNS[i]));
+        }
+        mUpdateStock.bindLong(ROW_COLUMNS.length + 1, id);
+        return mUpdateStock.executeUpdateDelete();
+    }
+
+    /**
+     * Take the given number of items off the stock with the given id, if it has that many.
+     * Returns the number of rows updated, 0 if there wasn't enough stock.
+     */
+    int sell(long id, int count) {
+        if (mSell == null) {
+            mSell = database.compileStatement(SQL_SELL_STOCK);
+        }
+        mSell.bindLong(1, count);
+        mSell.bindLong(2, id);
+        mSell.bindLong(3, count);
+        return mSell.executeUpdateDelete();
+    }
+
+    /**
+     * Append a sale of the given number of items of the stock with the given id, made at the
+     * given time on the given day (yyyymmdd), to the sales ledger.
+     */
+    void recordSale(long id, int count, long timestamp, int day) {
+        if (mRecordSale == null) {
+            mRecordSale = database.compileStatement(SQL_RECORD_SALE);
+        }
+        mRecordSale.bindLong(1, id);
+        mRecordSale.bindLong(2, count);
+        mRecordSale.bindLong(3, timestamp);
+        mRecordSale.bindLong(4, day);
+        mRecordSale.executeInsert();
+    }
+
+    /**
+     * Bind the given stock values to {@link #SQL_INSERT_STOCK}. Missing quantity and price fall
+     * back to 0, the same defaults the table declares.
+     */
+    private static void bindStock(SQLiteStatement statement, ContentValues values) {
+        statement.bindString(1, values.getAsString(StockEntry.COLUMN_STOCK_NAME));
+
+        String supplier = values.getAsString(StockEntry.COLUMN_STOCK_SUPPLIER);
+        if (supplier == null) {
+            statement.bindNull(2);
+        } else {
+            statement.bindString(2, supplier);
+        }
+
+        statement.bindLong(3, values.getAsInteger(StockEntry.COLUMN_STOCK_TYPE));
+
+        Integer quantity = values.getAsInteger(StockEntry.COLUMN_STOCK_QUANTITY);
+        statement.bindLong(4, quantity == null ? 0 : quantity);
+
+        statement.bindString(5, values.getAsString(StockEntry.COLUMN_STOCK_IMAGE));
+
+        Integer price = values.getAsInteger(StockEntry.COLUMN_STOCK_PRICE);
+        statement.bindLong(6, price == null ? 0 : price);
+    }
+}
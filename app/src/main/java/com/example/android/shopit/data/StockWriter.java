@@ -0,0 +1,345 @@
+package com.example.android.shopit.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.util.LongSparseArray;
+import android.util.Log;
+
+import com.example.android.shopit.data.StockContract.StockEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Performs writes to the stocks on a background thread, so the UI never waits for the database.
+ * Results are delivered on the main thread.
+ * <p>
+ * Sales of the same stock that come in while an earlier write is still queued or running are
+ * added together and written as one sale, so rapid taps on a sale button cost a single write and
+ * none of them are lost. If the taps add up to more than is left in stock, the items left are
+ * still sold. The sales of all the stocks waiting to be written are written together, in one
+ * transaction.
+ * <p>
+ * Edits of a stock that come in while an earlier one of the same stock is still queued are
+ * combined with it: a later update is merged into the queued one, a delete replaces a queued
+ * update, and a delete stays queued however many updates come in after it. Every callback is
+ * called, with the outcome of the write its edit ended up in, or as failed if that edit is
+ * never written.
+ */
+public final class StockWriter {
+
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = StockWriter.class.getSimpleName();
+
+    /**
+     * Interface for receiving the outcome of a sale.
+     */
+    public interface SaleCallback {
+        /**
+         * Called on the main thread once a sale has been written.
+         *
+         * @param id       the {@link StockEntry#_ID} of the stock
+         * @param count    the number of items in the sale, taps that were combined are added up
+         * @param sold     the number of items sold, fewer than the count if the stock ran out
+         * @param quantity the quantity left in stock, or -1 if the stock no longer exists
+         */
+        void onSaleFinished(long id, int count, int sold, int quantity);
+    }
+
+    /**
+     * Interface for receiving the outcome of an insert, update or delete.
+     */
+    public interface WriteCallback {
+        /**
+         * Called on the main thread once a write has finished.
+         *
+         * @param uri     the URI of the stock, for an insert the URI of the new stock or null if
+         *                it failed
+         * @param success whether the stock was written, false if it failed or the stock no
+         *                longer exists
+         */
+        void onWriteFinished(Uri uri, boolean success);
+    }
+
+    private static StockWriter sInstance;
+
+    /**
+     * Returns the writer shared by the whole app.
+     */
+    public static synchronized StockWriter getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new StockWriter(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private final ContentResolver mResolver;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Runs the writes one at a time, in the order they were requested
+     */
+    private final Executor mExecutor = Executors.newSingleThreadExecutor();
+
+    /**
+     * Sales that have been requested but not written yet, by stock id. Guarded by this.
+     */
+    private final LongSparseArray<PendingSale> mPendingSales = new LongSparseArray<>();
+
+    /**
+     * Updates and deletes that have been requested but not written yet, by stock id. Guarded by
+     * this.
+     */
+    private final LongSparseArray<PendingEdit> mPendingEdits = new LongSparseArray<>();
+
+    private StockWriter(Context context) {
+        mResolver = context.getContentResolver();
+    }
+
+    /**
+     * Sell one item of the stock with the given id. If a sale of the same stock is already
+     * waiting to be written, this item is added to it.
+     *
+     * @param callback receives the outcome of the sale this item ends up in, may be null
+     */
+    public void sell(long id, SaleCallback callback) {
+        synchronized (this) {
+            PendingSale pending = mPendingSales.get(id);
+            if (pending != null) {
+                pending.count++;
+                pending.callback = callback;
+                return;
+            }
+            pending = new PendingSale();
+            pending.count = 1;
+            pending.callback = callback;
+            mPendingSales.put(id, pending);
+
+            // The sales already waiting are written by a queued task, which takes this one along
+            if (mPendingSales.size() > 1) {
+                return;
+            }
+        }
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                writeSales();
+            }
+        });
+    }
+
+    /**
+     * Write all the pending sales, in one transaction. Runs on the write thread.
+     */
+    private void writeSales() {
+        // Take the sales out of the pending ones, taps from now on start new sales
+        final long[] ids;
+        final PendingSale[] sales;
+        synchronized (this) {
+            int size = mPendingSales.size();
+            ids = new long[size];
+            sales = new PendingSale[size];
+            for (int i = 0; i < size; i++) {
+                ids[i] = mPendingSales.keyAt(i);
+                sales[i] = mPendingSales.valueAt(i);
+            }
+            mPendingSales.clear();
+        }
+
+        int[] counts = new int[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            counts[i] = sales[i].count;
+        }
+        Bundle extras = new Bundle();
+        extras.putLongArray(StockEntry.EXTRA_IDS, ids);
+        extras.putIntArray(StockEntry.EXTRA_COUNTS, counts);
+        int[] sold = new int[ids.length];
+        int[] quantities = new int[ids.length];
+        Arrays.fill(quantities, -1);
+        try {
+            Bundle result = mResolver.call(StockEntry.CONTENT_URI, StockEntry.METHOD_SELL_ALL,
+                    null, extras);
+            if (result != null) {
+                sold = result.getIntArray(StockEntry.EXTRA_SOLD_COUNTS);
+                quantities = result.getIntArray(StockEntry.EXTRA_QUANTITIES);
+            }
+        } catch (RuntimeException e) {
+            Log.e(LOG_TAG, "Failed to sell " + Arrays.toString(counts) + " of stocks "
+                    + Arrays.toString(ids), e);
+        }
+
+        final int[] finalSold = sold;
+        final int[] finalQuantities = quantities;
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < ids.length; i++) {
+                    if (sales[i].callback != null) {
+                        sales[i].callback.onSaleFinished(ids[i], sales[i].count, finalSold[i],
+                                finalQuantities[i]);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Insert a new stock with the given values.
+     *
+     * @param callback receives the URI of the new stock, may be null
+     */
+    public void insert(final ContentValues values, final WriteCallback callback) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Uri uri = null;
+                try {
+                    uri = mResolver.insert(StockEntry.CONTENT_URI, values);
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Failed to insert stock " + values, e);
+                }
+                postResult(callback, uri, uri != null);
+            }
+        });
+    }
+
+    /**
+     * Update the stock with the given URI with the given values, merged into an update of the
+     * same stock that hasn't been written yet. Fails if a delete of the stock is already queued.
+     *
+     * @param callback receives the outcome of the update, may be null
+     */
+    public void update(Uri uri, ContentValues values, WriteCallback callback) {
+        edit(uri, values, callback);
+    }
+
+    /**
+     * Delete the stock with the given URI, replacing an update of the same stock that hasn't
+     * been written yet. The replaced update is reported as failed.
+     *
+     * @param callback receives the outcome of the delete, may be null
+     */
+    public void delete(Uri uri, WriteCallback callback) {
+        edit(uri, null, callback);
+    }
+
+    /**
+     * Queue the update, or the delete if there are no values, of the stock with the given URI.
+     */
+    private void edit(Uri uri, ContentValues values, WriteCallback callback) {
+        final long id = ContentUris.parseId(uri);
+        synchronized (this) {
+            PendingEdit pending = mPendingEdits.get(id);
+            if (pending != null) {
+                if (pending.values == null) {
+                    // The stock is about to be deleted, there is nothing left to update
+                    if (values != null) {
+                        postResult(callback, uri, false);
+                        return;
+                    }
+                } else if (values == null) {
+                    // The queued update is never written
+                    for (WriteCallback replaced : pending.callbacks) {
+                        postResult(replaced, pending.uri, false);
+                    }
+                    pending.callbacks.clear();
+                    pending.values = null;
+                } else {
+                    // Later values win, the ones only the queued update has are still written
+                    pending.values.putAll(values);
+                }
+                pending.uri = uri;
+                if (callback != null) {
+                    pending.callbacks.add(callback);
+                }
+                return;
+            }
+            pending = new PendingEdit();
+            pending.uri = uri;
+            pending.values = values == null ? null : new ContentValues(values);
+            if (callback != null) {
+                pending.callbacks.add(callback);
+            }
+            mPendingEdits.put(id, pending);
+        }
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                writeEdit(id);
+            }
+        });
+    }
+
+    /**
+     * Write the pending edit of the given stock. Runs on the write thread.
+     */
+    private void writeEdit(long id) {
+        // Take the edit out of the pending ones, edits from now on are written after it
+        PendingEdit pending;
+        synchronized (this) {
+            pending = mPendingEdits.get(id);
+            mPendingEdits.remove(id);
+        }
+
+        int rows = 0;
+        try {
+            if (pending.values == null) {
+                rows = mResolver.delete(pending.uri, null, null);
+            } else {
+                rows = mResolver.update(pending.uri, pending.values, null, null);
+            }
+        } catch (RuntimeException e) {
+            Log.e(LOG_TAG, "Failed to " + (pending.values == null ? "delete " : "update ")
+                    + pending.uri, e);
+        }
+        for (WriteCallback callback : pending.callbacks) {
+            postResult(callback, pending.uri, rows > 0);
+        }
+    }
+
+    /**
+     * Call the given callback on the main thread, if there is one.
+     */
+    private void postResult(final WriteCallback callback, final Uri uri, final boolean success) {
+        if (callback == null) {
+            return;
+        }
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onWriteFinished(uri, success);
+            }
+        });
+    }
+
+    /**
+     * A sale waiting to be written, with the callback of its latest tap.
+     */
+    private static class PendingSale {
+        int count;
+        SaleCallback callback;
+    }
+
+    /**
+     * An update or delete waiting to be written, with the callbacks of the edits combined into
+     * it.
+     */
+    private static class PendingEdit {
+        Uri uri;
+        ContentValues values;
+        final List<WriteCallback> callbacks = new ArrayList<>();
+    }
+}
@@ -0,0 +1,227 @@
+package com.example.android.shopit;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.shopit.benchmark.BenchmarkResults;
+import com.example.android.shopit.data.StockContract;
+import com.example.android.shopit.data.StockContract.StockEntry;
+import com.example.android.shopit.data.StockExporter;
+import com.example.android.shopit.data.StockProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Measures how long reads of single stocks take while another thread keeps writing, next to
+ * how long they take with no writes at all. This is what write-ahead logging and the
+ * checkpoint policy of {@link com.example.android.shopit.data.StockDbHelper} are for: readers
+ * get their own connections and shouldn't wait for sales or batches to commit. Only runs when
+ * the {@code shopit.benchmark} property is set, with
+ * {@code ./gradlew testDebugUnitTest -Pshopit.benchmark=true}, and writes its results as
+ * {@code ConcurrentReadBenchmark.json} (see {@link BenchmarkResults}).
+ * <p>
+ * The writer sells one item at a time, as the sale buttons do, and every so often updates a
+ * hundred stocks in one batch, as an import does. Reads ask for a column that isn't cached,
+ * so every one of them goes to the database.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class ConcurrentReadBenchmark {
+
+    private static final int ROWS = 10000;
+
+    /**
+     * Number of reads timed with and without writes
+     */
+    private static final int READS = 5000;
+
+    /**
+     * Number of stocks updated by each batch of the writer
+     */
+    private static final int BATCH_SIZE = 100;
+
+    /**
+     * The writer runs a batch after this many single sales
+     */
+    private static final int SALES_PER_BATCH = 20;
+
+    /**
+     * The columns read, the reorder threshold keeps the reads from being served from memory
+     */
+    private static final String[] PROJECTION = {
+            StockEntry._ID,
+            StockEntry.COLUMN_STOCK_NAME,
+            StockEntry.COLUMN_STOCK_QUANTITY,
+            StockEntry.COLUMN_STOCK_REORDER_THRESHOLD};
+
+    private StockProvider mProvider;
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        assumeTrue(BenchmarkResults.isEnabled());
+
+        mProvider = Robolectric.buildContentProvider(StockProvider.class)
+                .create(StockContract.CONTENT_AUTHORITY).get();
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+
+        ContentValues[] chunk = new ContentValues[StockExporter.WINDOW_SIZE];
+        for (int first = 0; first < ROWS; first += chunk.length) {
+            for (int i = 0; i < chunk.length; i++) {
+                chunk[i] = stock(first + i);
+            }
+            assertEquals(chunk.length, mResolver.bulkInsert(StockEntry.CONTENT_URI, chunk));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        if (mProvider != null) {
+            mProvider.shutdown();
+        }
+    }
+
+    @Test
+    public void readsWhileWriting() throws Exception {
+        BenchmarkResults results = new BenchmarkResults("ConcurrentReadBenchmark");
+
+        // Warm up, then read with nothing else going on
+        read(READS);
+        long[] idle = read(READS);
+
+        Writer writer = new Writer();
+        Thread thread = new Thread(writer, "ConcurrentReadBenchmark-writer");
+        thread.start();
+        long[] busy;
+        long start = System.nanoTime();
+        try {
+            busy = read(READS);
+        } finally {
+            writer.stop = true;
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - start;
+        if (writer.error != null) {
+            throw writer.error;
+        }
+        assertTrue("The writer didn't write while reading", writer.writes > 0);
+
+        results.add("readIdleMedian", ROWS, percentile(idle, 50), "us/op");
+        results.add("readIdleP99", ROWS, percentile(idle, 99), "us/op");
+        results.add("readWritingMedian", ROWS, percentile(busy, 50), "us/op");
+        results.add("readWritingP99", ROWS, percentile(busy, 99), "us/op");
+        results.add("readWritingMax", ROWS, percentile(busy, 100), "us/op");
+        results.add("slowdownMedian", ROWS, percentile(busy, 50) / percentile(idle, 50), "x");
+        results.add("writes", ROWS, BenchmarkResults.perSecond(writer.writes, elapsed),
+                "writes/s");
+        results.write();
+    }
+
+    /**
+     * Read the given number of stocks, spread over the table, one query each. Returns how long
+     * each read took in nanoseconds.
+     */
+    private long[] read(int reads) {
+        long[] nanos = new long[reads];
+        for (int i = 0; i < reads; i++) {
+            long start = System.nanoTime();
+            Cursor cursor = mResolver.query(stockUri(i), PROJECTION, null, null, null);
+            assertNotNull(cursor);
+            try {
+                assertTrue(cursor.moveToFirst());
+            } finally {
+                cursor.close();
+            }
+            nanos[i] = System.nanoTime() - start;
+        }
+        return nanos;
+    }
+
+    /**
+     * Returns the given percentile of the given times in nanoseconds, in microseconds.
+     */
+    private static double percentile(long[] nanos, int percentile) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        int index = Math.min(sorted.length - 1, sorted.length * percentile / 100);
+        return sorted[index] / 1000.0;
+    }
+
+    /**
+     * Sells and updates stocks until it is stopped.
+     */
+    private class Writer implements Runnable {
+        volatile boolean stop;
+        volatile int writes;
+        volatile Exception error;
+
+        @Override
+        public void run() {
+            try {
+                for (int i = 0; !stop; i++) {
+                    if (i % SALES_PER_BATCH == SALES_PER_BATCH - 1) {
+                        mResolver.applyBatch(StockContract.CONTENT_AUTHORITY, batch(i));
+                    } else {
+                        mResolver.call(StockEntry.CONTENT_URI, StockEntry.METHOD_SELL,
+                                String.valueOf(stockId(i * 31)), null);
+                    }
+                    writes++;
+                }
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+
+        private ArrayList<ContentProviderOperation> batch(int i) {
+            ArrayList<ContentProviderOperation> operations = new ArrayList<>(BATCH_SIZE);
+            for (int j = 0; j < BATCH_SIZE; j++) {
+                operations.add(ContentProviderOperation.newUpdate(stockUri(i * BATCH_SIZE + j))
+                        .withValue(StockEntry.COLUMN_STOCK_QUANTITY, 100 + j)
+                        .build());
+            }
+            return operations;
+        }
+    }
+
+    /**
+     * Returns the id of a stock loaded by {@link #setUp()}. Successive reads and writes jump
+     * around the table rather than walking it in order.
+     */
+    private static long stockId(int i) {
+        return (i * 7919L) % ROWS + 1;
+    }
+
+    private static Uri stockUri(int i) {
+        return ContentUris.withAppendedId(StockEntry.CONTENT_URI, stockId(i));
+    }
+
+    private static ContentValues stock(int i) {
+        ContentValues values = new ContentValues();
+        values.put(StockEntry.COLUMN_STOCK_NAME, "Stock " + i);
+        values.put(StockEntry.COLUMN_STOCK_SUPPLIER, "Supplier " + i % 100);
+        values.put(StockEntry.COLUMN_STOCK_TYPE, StockEntry.TYPE_ONE);
+        values.put(StockEntry.COLUMN_STOCK_QUANTITY, 100);
+        values.put(StockEntry.COLUMN_STOCK_IMAGE, "");
+        values.put(StockEntry.COLUMN_STOCK_PRICE, i % 5000);
+        return values;
+    }
+}
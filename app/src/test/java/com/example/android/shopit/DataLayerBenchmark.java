@@ -0,0 +1,277 @@
+package com.example.android.shopit;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.view.ContextThemeWrapper;
+
+import com.example.android.shopit.benchmark.BenchmarkResults;
+import com.example.android.shopit.data.StockContract;
+import com.example.android.shopit.data.StockContract.StockEntry;
+import com.example.android.shopit.data.StockExporter;
+import com.example.android.shopit.data.StockProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.ParameterizedRobolectricTestRunner;
+import org.robolectric.Robolectric;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Measures the data layer the way the app uses it, through the {@link StockProvider} and the
+ * {@link StockCursorAdapter}, with 1k, 10k and 100k stocks in the database. Only runs when the
+ * {@code shopit.benchmark} property is set, with
+ * {@code ./gradlew testDebugUnitTest -Pshopit.benchmark=true}, and writes its results as
+ * {@code DataLayerBenchmark-<rows>.json} (see {@link BenchmarkResults}).
+ * <p>
+ * Runs on the JVM against Robolectric's SQLite, so the numbers are for comparing one change with
+ * the next rather than for predicting how fast a device is.
+ */
+@RunWith(ParameterizedRobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class DataLayerBenchmark {
+
+    /**
+     * Number of single writes and binds timed at every size
+     */
+    private static final int OPERATIONS = 1000;
+
+    /**
+     * Number of times the full list is queried at every size
+     */
+    private static final int LIST_QUERIES = 5;
+
+    @ParameterizedRobolectricTestRunner.Parameters(name = "{0} rows")
+    public static List<Object[]> sizes() {
+        return Arrays.asList(new Object[][]{{1000}, {10000}, {100000}});
+    }
+
+    private final int mRows;
+    private StockProvider mProvider;
+    private ContentResolver mResolver;
+    private BenchmarkResults mResults;
+
+    public DataLayerBenchmark(int rows) {
+        mRows = rows;
+    }
+
+    @Before
+    public void setUp() {
+        assumeTrue(BenchmarkResults.isEnabled());
+
+        mProvider = Robolectric.buildContentProvider(StockProvider.class)
+                .create(StockContract.CONTENT_AUTHORITY).get();
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+        mResults = new BenchmarkResults("DataLayerBenchmark-" + mRows);
+    }
+
+    @After
+    public void tearDown() {
+        if (mProvider != null) {
+            mProvider.shutdown();
+        }
+    }
+
+    @Test
+    public void dataLayer() throws IOException {
+        bulkLoad();
+        insert();
+        updateById();
+        sell();
+        StockList stockList = queryList();
+        bindView(stockList);
+        export();
+        mResults.write();
+    }
+
+    /**
+     * Load the database the way an import does, in chunks of bulk inserts.
+     */
+    private void bulkLoad() {
+        int chunkSize = StockExporter.WINDOW_SIZE;
+        long start = System.nanoTime();
+        for (int first = 0; first < mRows; first += chunkSize) {
+            ContentValues[] chunk = new ContentValues[Math.min(chunkSize, mRows - first)];
+            for (int i = 0; i < chunk.length; i++) {
+                chunk[i] = stock(first + i);
+            }
+            assertEquals(chunk.length, mResolver.bulkInsert(StockEntry.CONTENT_URI, chunk));
+        }
+        mResults.add("bulkLoad", mRows,
+                BenchmarkResults.perSecond(mRows, System.nanoTime() - start), "rows/s");
+    }
+
+    /**
+     * Add stocks one at a time, as the editor does. The rate is also given in rows/s, to
+     * compare with {@link #bulkLoad()}.
+     */
+    private void insert() {
+        long start = System.nanoTime();
+        for (int i = 0; i < OPERATIONS; i++) {
+            assertNotNull(mResolver.insert(StockEntry.CONTENT_URI, stock(mRows + i)));
+        }
+        long elapsed = System.nanoTime() - start;
+        mResults.add("insert", mRows, BenchmarkResults.micros(elapsed, OPERATIONS), "us/op");
+        mResults.add("insertRowByRow", mRows, BenchmarkResults.perSecond(OPERATIONS, elapsed),
+                "rows/s");
+    }
+
+    /**
+     * Change the quantity of stocks spread over the whole table through their item URIs.
+     */
+    private void updateById() {
+        long start = System.nanoTime();
+        for (int i = 0; i < OPERATIONS; i++) {
+            ContentValues values = new ContentValues();
+            values.put(StockEntry.COLUMN_STOCK_QUANTITY, 100 + i % 100);
+            assertEquals(1, mResolver.update(stockUri(i), values, null, null));
+        }
+        mResults.add("updateById", mRows,
+                BenchmarkResults.micros(System.nanoTime() - start, OPERATIONS), "us/op");
+    }
+
+    /**
+     * Sell one item at a time, as the sale button of the list does.
+     */
+    private void sell() {
+        long start = System.nanoTime();
+        for (int i = 0; i < OPERATIONS; i++) {
+            mResolver.call(StockEntry.CONTENT_URI, StockEntry.METHOD_SELL,
+                    String.valueOf(stockId(i)), null);
+        }
+        mResults.add("sell", mRows,
+                BenchmarkResults.micros(System.nanoTime() - start, OPERATIONS), "us/op");
+    }
+
+    /**
+     * Read every stock with the columns of the list into a {@link StockList}.
+     */
+    private StockList queryList() {
+        String[] projection = {
+                StockEntry._ID,
+                StockEntry.COLUMN_STOCK_IMAGE,
+                StockEntry.COLUMN_STOCK_NAME,
+                StockEntry.COLUMN_STOCK_QUANTITY,
+                StockEntry.COLUMN_STOCK_TYPE,
+                StockEntry.COLUMN_STOCK_PRICE,
+                StockEntry.COLUMN_STOCK_SUPPLIER,
+                StockEntry.COLUMN_STOCK_VERSION};
+
+        StockList stockList = null;
+        long start = System.nanoTime();
+        for (int i = 0; i < LIST_QUERIES; i++) {
+            Cursor cursor = mResolver.query(StockEntry.CONTENT_URI, projection, null, null, null);
+            assertNotNull(cursor);
+            try {
+                stockList = StockList.fromCursor(cursor);
+            } finally {
+                cursor.close();
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        assertEquals(mRows + OPERATIONS, stockList.size());
+        mResults.add("listQuery", mRows, BenchmarkResults.micros(elapsed, LIST_QUERIES) / 1000,
+                "ms/op");
+        return stockList;
+    }
+
+    /**
+     * Bind rows spread over the list into a recycled view holder, as scrolling does, timing the
+     * binds and counting the bytes they allocate.
+     */
+    private void bindView(StockList stockList) {
+        Context context = new ContextThemeWrapper(RuntimeEnvironment.application,
+                R.style.AppTheme);
+        RecyclerView parent = new RecyclerView(context);
+        parent.setLayoutManager(new LinearLayoutManager(context));
+
+        StockCursorAdapter adapter = new StockCursorAdapter(context,
+                new StockCursorAdapter.OnStockClickListener() {
+                    @Override
+                    public void onStockClick(long id) {
+                    }
+                });
+        adapter.swapStockList(stockList);
+        StockCursorAdapter.ViewHolder holder = adapter.onCreateViewHolder(parent, 0);
+
+        long allocated = BenchmarkResults.allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < OPERATIONS; i++) {
+            adapter.onBindViewHolder(holder, (int) ((long) i * stockList.size() / OPERATIONS));
+        }
+        long elapsed = System.nanoTime() - start;
+        mResults.add("bindView", mRows, BenchmarkResults.micros(elapsed, OPERATIONS), "us/op");
+
+        // The bytes each bind allocates, where the JVM keeps count
+        if (allocated != -1) {
+            mResults.add("bindViewAllocated", mRows,
+                    (double) (BenchmarkResults.allocatedBytes() - allocated) / OPERATIONS,
+                    "bytes/op");
+        }
+    }
+
+    /**
+     * Export every stock as CSV, throwing the document away.
+     */
+    private void export() throws IOException {
+        OutputStream discard = new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        };
+
+        long start = System.nanoTime();
+        StockExporter.Result result = new StockExporter(RuntimeEnvironment.application)
+                .export(discard, StockExporter.FORMAT_CSV, false, null);
+        long elapsed = System.nanoTime() - start;
+        assertFalse(result.cancelled);
+        mResults.add("exportCsv", mRows, BenchmarkResults.perSecond(result.exported, elapsed),
+                "rows/s");
+    }
+
+    /**
+     * Returns the id of a stock loaded by {@link #bulkLoad()}. Successive operations jump
+     * around the table rather than walking it in order.
+     */
+    private long stockId(int i) {
+        return (i * 7919L) % mRows + 1;
+    }
+
+    private Uri stockUri(int i) {
+        return ContentUris.withAppendedId(StockEntry.CONTENT_URI, stockId(i));
+    }
+
+    private static ContentValues stock(int i) {
+        ContentValues values = new ContentValues();
+        values.put(StockEntry.COLUMN_STOCK_NAME, "Stock " + i);
+        values.put(StockEntry.COLUMN_STOCK_SUPPLIER, "Supplier " + i % 100);
+        values.put(StockEntry.COLUMN_STOCK_TYPE, StockEntry.TYPE_ONE);
+        values.put(StockEntry.COLUMN_STOCK_QUANTITY, i % 100);
+        // No image, so binding measures the row itself and not image decoding
+        values.put(StockEntry.COLUMN_STOCK_IMAGE, "");
+        values.put(StockEntry.COLUMN_STOCK_PRICE, i % 5000);
+        return values;
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.android.shopit.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Collects the measurements of a benchmark and writes them as JSON, so they can be tracked
+ * from one build to the next.
+ * <p>
+ * Benchmarks only run when the {@code shopit.benchmark} system property is set, with
+ * {@code ./gradlew testDebugUnitTest -Pshopit.benchmark=true}. Each benchmark writes
+ * {@code <name>.json} into the directory given by the {@code shopit.benchmark.dir} property,
+ * {@code app/build/benchmark-results} by default:
+ * <pre>
+ * {"benchmark": "DataLayerBenchmark-1000", "timestamp": 1500000000000, "results": [
+ *   {"name": "insert", "rows": 1000, "value": 412.5, "unit": "us/op"}, ...]}
+ * </pre>
+ */
+public final class BenchmarkResults {
+
+    private final String mName;
+    private final List<String> mResults = new ArrayList<>();
+
+    /**
+     * Constructs new {@link BenchmarkResults} for the benchmark with the given name.
+     */
+    public BenchmarkResults(String name) {
+        mName = name;
+    }
+
+    /**
+     * Returns whether benchmarks should run.
+     */
+    public static boolean isEnabled() {
+        return Boolean.getBoolean("shopit.benchmark");
+    }
+
+    /**
+     * Record one measurement, and print it for whoever is watching the build.
+     *
+     * @param name  what was measured
+     * @param rows  the number of stocks in the database while measuring
+     * @param value the measurement
+     * @param unit  the unit of the measurement, such as "us/op" or "rows/s"
+     */
+    public void add(String name, int rows, double value, String unit) {
+        mResults.add(String.format(Locale.US,
+                "{\"name\": \"%s\", \"rows\": %d, \"value\": %.3f, \"unit\": \"%s\"}",
+                name, rows, value, unit));
+        System.out.println(String.format(Locale.US, "%s %s (%d rows): %.3f %s",
+                mName, name, rows, value, unit));
+    }
+
+    /**
+     * Write the measurements recorded so far.
+     */
+    public void write() throws IOException {
+        File dir = new File(System.getProperty("shopit.benchmark.dir", "build/benchmark-results"));
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Can't create " + dir);
+        }
+
+        Writer writer = new OutputStreamWriter(
+                new FileOutputStream(new File(dir, mName + ".json")), "UTF-8");
+        try {
+            writer.write("{\"benchmark\": \"" + mName + "\", \"timestamp\": "
+                    + System.currentTimeMillis() + ", \"results\": [\n");
+            for (int i = 0; i < mResults.size(); i++) {
+                writer.write("  " + mResults.get(i) + (i < mResults.size() - 1 ? ",\n" : "\n"));
+            }
+            writer.write("]}\n");
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Returns the given number of nanoseconds per operation in microseconds.
+     */
+    public static double micros(long nanos, int operations) {
+        return nanos / 1000.0 / operations;
+    }
+
+    /**
+     * Returns the number of rows handled per second, given how long they took in nanoseconds.
+     */
+    public static double perSecond(int rows, long nanos) {
+        return rows * 1e9 / Math.max(nanos, 1);
+    }
+
+    /**
+     * Returns the number of bytes the current thread has allocated so far, or -1 if the JVM
+     * doesn't count them. The JVM counts bytes rather than objects, and under Robolectric that
+     * includes what the shadows allocate, so the figure is for comparing one change with the
+     * next.
+     */
+    public static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+            if (threads.isThreadAllocatedMemorySupported()
+                    && threads.isThreadAllocatedMemoryEnabled()) {
+                return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+}
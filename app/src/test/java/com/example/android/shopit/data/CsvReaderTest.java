@@ -0,0 +1,99 @@
+package com.example.android.shopit.data;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Local unit tests for {@link CsvReader} and {@link CsvWriter}.
+ */
+public class CsvReaderTest {
+
+    @Test
+    public void readsQuotedFieldsAndLineBreaks() throws Exception {
+        CsvReader reader = new CsvReader(new StringReader(
+                "\uFEFFname,quantity\r\nEyeliner, 12\n\n\"Pen, \"\"blue\"\"\nbox\",3\rLast"), ',');
+
+        assertTrue(reader.nextRecord());
+        assertEquals(1, reader.getLineNumber());
+        assertEquals("name", reader.getField(0));
+
+        assertTrue(reader.nextRecord());
+        assertEquals(2, reader.getLineNumber());
+        assertEquals("Eyeliner", reader.getField(0));
+        assertEquals(12, reader.getInt(1));
+
+        // The blank line is skipped, the quoted field keeps its delimiter, quotes and line break
+        assertTrue(reader.nextRecord());
+        assertEquals(4, reader.getLineNumber());
+        assertEquals("Pen, \"blue\"\nbox", reader.getField(0));
+        assertEquals(3, reader.getInt(1));
+
+        assertTrue(reader.nextRecord());
+        assertEquals(6, reader.getLineNumber());
+        assertEquals(1, reader.getFieldCount());
+        assertEquals("Last", reader.getField(0));
+
+        assertFalse(reader.nextRecord());
+    }
+
+    @Test
+    public void parsesIntegersWithinRange() throws Exception {
+        CsvReader reader = new CsvReader(new StringReader(
+                "-2147483648\t2147483647\t2147483648\t12a\t "), '\t');
+        assertTrue(reader.nextRecord());
+        assertEquals(Integer.MIN_VALUE, reader.getInt(0));
+        assertEquals(Integer.MAX_VALUE, reader.getInt(1));
+        for (int field = 2; field <= 5; field++) {
+            try {
+                reader.getInt(field);
+                fail("Field " + field + " is not a valid integer");
+            } catch (NumberFormatException expected) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void flagsRecordsThatAreTooLong() throws Exception {
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i <= CsvReader.MAX_RECORD_LENGTH; i++) {
+            input.append('x');
+        }
+        input.append("\nnext,1\n");
+
+        CsvReader reader = new CsvReader(new StringReader(input.toString()), ',');
+        assertTrue(reader.nextRecord());
+        assertTrue(reader.isTooLong());
+
+        // Reading carries on with the record after it
+        assertTrue(reader.nextRecord());
+        assertFalse(reader.isTooLong());
+        assertEquals("next", reader.getField(0));
+    }
+
+    @Test
+    public void readsWhatTheWriterWrites() throws Exception {
+        StringWriter output = new StringWriter();
+        CsvWriter writer = new CsvWriter(output, ',');
+        writer.writeField("Pen, \"blue\"\nbox");
+        writer.writeField(5);
+        writer.writeField((String) null);
+        writer.endRecord();
+        writer.flush();
+
+        CsvReader reader = new CsvReader(new StringReader(output.toString()), ',');
+        assertTrue(reader.nextRecord());
+        assertEquals(3, reader.getFieldCount());
+        assertEquals("Pen, \"blue\"\nbox", reader.getField(0));
+        assertEquals(5, reader.getInt(1));
+        assertTrue(reader.isBlank(2));
+        assertFalse(reader.nextRecord());
+    }
+}
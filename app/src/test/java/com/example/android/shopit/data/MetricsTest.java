@@ -0,0 +1,48 @@
+package com.example.android.shopit.data;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit tests for the latency histogram of {@link Metrics}.
+ */
+public class MetricsTest {
+
+    @Test
+    public void bucketsCoverEveryValueWithoutGaps() {
+        long previousEnd = -1;
+        for (int bucket = 0; bucket <= Metrics.Histogram.getBucket(Long.MAX_VALUE); bucket++) {
+            long end = Metrics.Histogram.getBucketEnd(bucket);
+            assertTrue(end > previousEnd);
+            assertEquals(bucket, Metrics.Histogram.getBucket(previousEnd + 1));
+            assertEquals(bucket, Metrics.Histogram.getBucket(end));
+            previousEnd = end;
+        }
+        assertEquals(Long.MAX_VALUE, previousEnd);
+    }
+
+    @Test
+    public void percentilesAreWithinAQuarterOfTheValue() {
+        Metrics.Histogram histogram = new Metrics.Histogram();
+        for (long value = 1; value <= 1000; value++) {
+            histogram.record(value * 1000);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000000, histogram.getMax());
+        assertNear(500000, histogram.getPercentile(50));
+        assertNear(990000, histogram.getPercentile(99));
+        assertEquals(1000000, histogram.getPercentile(100));
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(50));
+    }
+
+    private static void assertNear(long expected, long actual) {
+        assertTrue("expected about " + expected + " but was " + actual,
+                actual >= expected && actual <= expected * 5 / 4);
+    }
+}
@@ -0,0 +1,173 @@
+package com.example.android.shopit.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.shopit.BuildConfig;
+import com.example.android.shopit.data.StockContract.StockEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests for {@link StockCache}: queries of a single stock are served from memory once it has
+ * been read, and every write through {@link StockProvider} drops exactly the stocks it changed.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class StockCacheTest {
+
+    /**
+     * The columns the editor asks for
+     */
+    private static final String[] PROJECTION = {
+            StockEntry._ID,
+            StockEntry.COLUMN_STOCK_NAME,
+            StockEntry.COLUMN_STOCK_QUANTITY};
+
+    private StockProvider mProvider;
+    private ContentResolver mResolver;
+    private StockCache mCache;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.buildContentProvider(StockProvider.class)
+                .create(StockContract.CONTENT_AUTHORITY).get();
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+        mCache = StockCache.getInstance();
+    }
+
+    @After
+    public void tearDown() {
+        if (mProvider != null) {
+            mProvider.shutdown();
+        }
+    }
+
+    @Test
+    public void aStockReadOnceIsServedFromMemory() {
+        Uri uri = insertStock("Eyeliner", 10);
+        int hits = mCache.getHitCount();
+        int misses = mCache.getMissCount();
+
+        assertEquals("Eyeliner", readName(uri));
+        assertEquals(misses + 1, mCache.getMissCount());
+        assertEquals("Eyeliner", readName(uri));
+        assertEquals(hits + 1, mCache.getHitCount());
+        assertEquals(misses + 1, mCache.getMissCount());
+    }
+
+    @Test
+    public void updatingAStockDropsIt() {
+        Uri uri = insertStock("Eyeliner", 10);
+        readName(uri);
+
+        ContentValues values = new ContentValues();
+        values.put(StockEntry.COLUMN_STOCK_NAME, "Mascara");
+        assertEquals(1, mResolver.update(uri, values, null, null));
+        assertNull(mCache.get(ContentUris.parseId(uri)));
+        assertEquals("Mascara", readName(uri));
+    }
+
+    @Test
+    public void sellingAStockDropsIt() {
+        Uri uri = insertStock("Eyeliner", 10);
+        readName(uri);
+
+        mResolver.call(StockEntry.CONTENT_URI, StockEntry.METHOD_SELL,
+                String.valueOf(ContentUris.parseId(uri)), null);
+        assertNull(mCache.get(ContentUris.parseId(uri)));
+        assertEquals(9, readQuantity(uri));
+    }
+
+    @Test
+    public void deletingStocksDropsOnlyThose() {
+        Uri kept = insertStock("Eyeliner", 10);
+        Uri deleted = insertStock("Mascara", 0);
+        readName(kept);
+        readName(deleted);
+
+        assertEquals(1, mResolver.delete(StockEntry.CONTENT_URI,
+                StockEntry.COLUMN_STOCK_QUANTITY + "=?", new String[]{"0"}));
+        assertNull(mCache.get(ContentUris.parseId(deleted)));
+        assertNotNull(mCache.get(ContentUris.parseId(kept)));
+        assertEquals(0, count(deleted));
+    }
+
+    @Test
+    public void stocksReadBeforeAWriteAreNotAdded() {
+        Uri uri = insertStock("Eyeliner", 10);
+        long id = ContentUris.parseId(uri);
+        long generation = mCache.getGeneration();
+        StockCache.Stock stock = new StockCache.Stock(id, 0, "Eyeliner", null,
+                StockEntry.TYPE_ONE, 10, 5, "");
+
+        ContentValues values = new ContentValues();
+        values.put(StockEntry.COLUMN_STOCK_QUANTITY, 3);
+        assertEquals(1, mResolver.update(uri, values, null, null));
+
+        mCache.putAll(new StockCache.Stock[]{stock}, generation);
+        assertNull(mCache.get(id));
+        assertEquals(3, readQuantity(uri));
+    }
+
+    private Uri insertStock(String name, int quantity) {
+        ContentValues values = new ContentValues();
+        values.put(StockEntry.COLUMN_STOCK_NAME, name);
+        values.put(StockEntry.COLUMN_STOCK_TYPE, StockEntry.TYPE_ONE);
+        values.put(StockEntry.COLUMN_STOCK_QUANTITY, quantity);
+        values.put(StockEntry.COLUMN_STOCK_IMAGE, "");
+        values.put(StockEntry.COLUMN_STOCK_PRICE, 5);
+        Uri uri = mResolver.insert(StockEntry.CONTENT_URI, values);
+        assertNotNull(uri);
+        return uri;
+    }
+
+    private String readName(Uri uri) {
+        Cursor cursor = query(uri);
+        try {
+            cursor.moveToFirst();
+            return cursor.getString(cursor.getColumnIndex(StockEntry.COLUMN_STOCK_NAME));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int readQuantity(Uri uri) {
+        Cursor cursor = query(uri);
+        try {
+            cursor.moveToFirst();
+            return cursor.getInt(cursor.getColumnIndex(StockEntry.COLUMN_STOCK_QUANTITY));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int count(Uri uri) {
+        Cursor cursor = query(uri);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private Cursor query(Uri uri) {
+        Cursor cursor = mResolver.query(uri, PROJECTION, null, null, null);
+        assertNotNull(cursor);
+        return cursor;
+    }
+}
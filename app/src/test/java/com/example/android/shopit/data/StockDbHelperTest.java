@@ -0,0 +1,289 @@
+package com.example.android.shopit.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.shopit.BuildConfig;
+import com.example.android.shopit.data.StockContract.SaleEntry;
+import com.example.android.shopit.data.StockContract.StockEntry;
+import com.example.android.shopit.data.StockContract.SummaryEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link StockDbHelper}: the database is opened with write-ahead logging and its
+ * checkpoint policy, the sales of a stock go with it, and a database as version 1 of the app created it, malformed quantity
+ * column and all, is brought up to {@link StockDbHelper#DATABASE_VERSION} with its stocks, ids
+ * and totals intact.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class StockDbHelperTest {
+
+    /**
+     * The database file, named as in every version
+     */
+    private static final String DATABASE_NAME = "inventory.db";
+
+    /**
+     * The stocks table exactly as version 1 created it
+     */
+    private static final String SQL_CREATE_STOCKS_TABLE_V1 = "CREATE TABLE stocks ("
+            + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+            + "name TEXT NOT NULL, "
+            + "supplier TEXT, "
+            + "type INTEGER NOT NULL, "
+            + "quantity INTEGER,NTEGER NOT NULL DEFAULT 0, "
+            + "image TEXT, "
+            + "price INTEGER NOT NULL DEFAULT 0);";
+
+    private Context mContext;
+    private StockDbHelper mDbHelper;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        if (mDbHelper != null) {
+            mDbHelper.close();
+        }
+    }
+
+    @Test
+    public void stocksSurviveTheUpgrade() {
+        SQLiteDatabase v1 = createVersion1();
+        insertVersion1(v1, "Eyeliner", "Acme", StockEntry.TYPE_ONE, null, 5);
+        insertVersion1(v1, "Mascara", "Acme", StockEntry.TYPE_ONE, 10, 7);
+        insertVersion1(v1, "Lipstick", null, StockEntry.TYPE_TWO, 3, 4);
+        insertVersion1(v1, "Blush", "Rouge", StockEntry.TYPE_TWO, 8, 9);
+        v1.delete("stocks", "name = ?", new String[]{"Blush"});
+        v1.close();
+
+        SQLiteDatabase db = upgrade();
+
+        // The stray NTEGER column is gone and a missing quantity became 0
+        List<String> columns = columns(db, StockEntry.TABLE_NAME);
+        assertFalse(columns.contains("NTEGER"));
+        assertTrue(columns.contains(StockEntry.COLUMN_STOCK_VERSION));
+        assertTrue(columns.contains(StockEntry.COLUMN_STOCK_REORDER_THRESHOLD));
+        Cursor cursor = db.query(StockEntry.TABLE_NAME, new String[]{StockEntry._ID,
+                        StockEntry.COLUMN_STOCK_NAME, StockEntry.COLUMN_STOCK_QUANTITY}, null,
+                null, null, null, StockEntry._ID);
+        try {
+            assertEquals(3, cursor.getCount());
+            assertRow(cursor, 1, "Eyeliner", 0);
+            assertRow(cursor, 2, "Mascara", 10);
+            assertRow(cursor, 3, "Lipstick", 3);
+        } finally {
+            cursor.close();
+        }
+
+        // Every index of the stock list and the ledger exists
+        List<String> indexes = strings(db, "SELECT name FROM sqlite_master WHERE type = 'index'"
+                + " AND name NOT LIKE 'sqlite_autoindex%' ORDER BY name");
+        assertEquals(Arrays.asList("daily_sales_day_index", "sales_day_index",
+                "sales_stock_index", "stocks_name_index", "stocks_price_index", "stocks_quantity_index",
+                "stocks_supplier_index", "stocks_type_index"), indexes);
+
+        // The search table holds the stocks that were there
+        assertEquals(Arrays.asList("1", "2"), strings(db, "SELECT docid FROM "
+                + StockDbHelper.SEARCH_TABLE_NAME + " WHERE " + StockDbHelper.SEARCH_TABLE_NAME
+                + " MATCH 'acme' ORDER BY docid"));
+
+        // The totals and low-stock counts of each type add up the stocks that were there
+        assertEquals(Arrays.asList("1|2|10|70|1", "2|1|3|12|1"), strings(db, "SELECT "
+                + SummaryEntry.COLUMN_TYPE + " || '|' || "
+                + SummaryEntry.COLUMN_STOCK_COUNT + " || '|' || "
+                + SummaryEntry.COLUMN_TOTAL_QUANTITY + " || '|' || "
+                + SummaryEntry.COLUMN_TOTAL_VALUE + " || '|' || "
+                + SummaryEntry.COLUMN_LOW_STOCK_COUNT
+                + " FROM " + SummaryEntry.TABLE_NAME + " ORDER BY " + SummaryEntry.COLUMN_TYPE));
+        assertEquals(Arrays.asList("1", "3"), strings(db, "SELECT "
+                + StockDbHelper.COLUMN_QUEUE_STOCK_ID + " FROM "
+                + StockDbHelper.LOW_STOCK_QUEUE_TABLE_NAME + " ORDER BY 1"));
+
+        // The id of the deleted stock is never handed out again
+        assertEquals(4, sequence(db));
+        assertEquals(5, insertStock(db));
+    }
+
+    @Test
+    public void idsAreNotReusedAfterEveryStockWasDeleted() {
+        SQLiteDatabase v1 = createVersion1();
+        insertVersion1(v1, "Eyeliner", "Acme", StockEntry.TYPE_ONE, 1, 5);
+        insertVersion1(v1, "Mascara", "Acme", StockEntry.TYPE_ONE, 10, 7);
+        v1.delete("stocks", null, null);
+        v1.close();
+
+        SQLiteDatabase db = upgrade();
+        assertEquals(0, DatabaseUtils.queryNumEntries(db, StockEntry.TABLE_NAME));
+        assertEquals(2, sequence(db));
+        assertEquals(3, insertStock(db));
+    }
+
+    @Test
+    public void anEmptyVersion1DatabaseUpgrades() {
+        createVersion1().close();
+
+        SQLiteDatabase db = upgrade();
+        assertEquals(StockDbHelper.DATABASE_VERSION, db.getVersion());
+        assertEquals(1, insertStock(db));
+        assertTrue(strings(db, "SELECT " + StockDbHelper.COLUMN_QUEUE_STOCK_ID + " FROM "
+                + StockDbHelper.LOW_STOCK_QUEUE_TABLE_NAME).isEmpty());
+    }
+
+    @Test
+    public void theSalesOfAStockAreDeletedWithIt() {
+        mDbHelper = new StockDbHelper(mContext);
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        long kept = insertStock(db);
+        long deleted = insertStock(db);
+        StockStatements statements = new StockStatements(db);
+        for (long id : new long[]{kept, deleted}) {
+            statements.recordSale(id, 2, 0, 20260101);
+            ContentValues daily = new ContentValues();
+            daily.put(SaleEntry.COLUMN_STOCK_ID, id);
+            daily.put(SaleEntry.COLUMN_DAY, 20250101);
+            daily.put(SaleEntry.COLUMN_QUANTITY, 5);
+            db.insertOrThrow(SaleEntry.DAILY_TABLE_NAME, null, daily);
+        }
+
+        db.delete(StockEntry.TABLE_NAME, StockEntry._ID + " = " + deleted, null);
+
+        List<String> expected = Arrays.asList(String.valueOf(kept));
+        assertEquals(expected, strings(db, "SELECT " + SaleEntry.COLUMN_STOCK_ID + " FROM "
+                + SaleEntry.TABLE_NAME));
+        assertEquals(expected, strings(db, "SELECT " + SaleEntry.COLUMN_STOCK_ID + " FROM "
+                + SaleEntry.DAILY_TABLE_NAME));
+    }
+
+    @Test
+    public void theDatabaseIsOpenedWithWriteAheadLogging() {
+        mDbHelper = new StockDbHelper(mContext);
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+
+        assertTrue(db.isWriteAheadLoggingEnabled());
+        assertEquals("wal", DatabaseUtils.stringForQuery(db, "PRAGMA journal_mode", null));
+        // NORMAL
+        assertEquals(1, DatabaseUtils.longForQuery(db, "PRAGMA synchronous", null));
+        assertEquals(500, DatabaseUtils.longForQuery(db, "PRAGMA wal_autocheckpoint", null));
+        assertEquals(1024 * 1024,
+                DatabaseUtils.longForQuery(db, "PRAGMA journal_size_limit", null));
+    }
+
+    /**
+     * Returns a new database as version 1 of the app left it.
+     */
+    private SQLiteDatabase createVersion1() {
+        File file = mContext.getDatabasePath(DATABASE_NAME);
+        file.getParentFile().mkdirs();
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(file, null);
+        db.execSQL(SQL_CREATE_STOCKS_TABLE_V1);
+        db.setVersion(1);
+        return db;
+    }
+
+    /**
+     * Open the database through {@link StockDbHelper}, which upgrades it from version 1.
+     */
+    private SQLiteDatabase upgrade() {
+        mDbHelper = new StockDbHelper(mContext);
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        assertEquals(StockDbHelper.DATABASE_VERSION, db.getVersion());
+        return db;
+    }
+
+    private static void insertVersion1(SQLiteDatabase db, String name, String supplier,
+                                       int type, Integer quantity, int price) {
+        ContentValues values = new ContentValues();
+        values.put("name", name);
+        values.put("supplier", supplier);
+        values.put("type", type);
+        values.put("quantity", quantity);
+        values.put("image", "");
+        values.put("price", price);
+        db.insertOrThrow("stocks", null, values);
+    }
+
+    /**
+     * Insert a stock into the upgraded database and return its id.
+     */
+    private static long insertStock(SQLiteDatabase db) {
+        return new StockStatements(db).insert(stock());
+    }
+
+    private static ContentValues stock() {
+        ContentValues values = new ContentValues();
+        values.put(StockEntry.COLUMN_STOCK_NAME, "Powder");
+        values.put(StockEntry.COLUMN_STOCK_TYPE, StockEntry.TYPE_ONE);
+        values.put(StockEntry.COLUMN_STOCK_QUANTITY, 20);
+        values.put(StockEntry.COLUMN_STOCK_IMAGE, "");
+        values.put(StockEntry.COLUMN_STOCK_PRICE, 6);
+        return values;
+    }
+
+    private static long sequence(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, "SELECT seq FROM sqlite_sequence WHERE name = ?",
+                new String[]{StockEntry.TABLE_NAME});
+    }
+
+    private static void assertRow(Cursor cursor, long id, String name, int quantity) {
+        assertTrue(cursor.moveToNext());
+        assertEquals(id, cursor.getLong(0));
+        assertEquals(name, cursor.getString(1));
+        assertFalse(cursor.isNull(2));
+        assertEquals(quantity, cursor.getInt(2));
+    }
+
+    private static List<String> columns(SQLiteDatabase db, String table) {
+        List<String> columns = new ArrayList<>();
+        Cursor cursor = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+        try {
+            int name = cursor.getColumnIndexOrThrow("name");
+            while (cursor.moveToNext()) {
+                columns.add(cursor.getString(name));
+            }
+        } finally {
+            cursor.close();
+        }
+        return columns;
+    }
+
+    /**
+     * Returns the first column of every row of the given query, as strings.
+     */
+    private static List<String> strings(SQLiteDatabase db, String sql) {
+        List<String> values = new ArrayList<>();
+        Cursor cursor = db.rawQuery(sql, null);
+        try {
+            while (cursor.moveToNext()) {
+                values.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return values;
+    }
+}
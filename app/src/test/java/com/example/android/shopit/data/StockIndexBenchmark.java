@@ -0,0 +1,166 @@
+package com.example.android.shopit.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.example.android.shopit.BuildConfig;
+import com.example.android.shopit.benchmark.BenchmarkResults;
+import com.example.android.shopit.data.StockContract.StockEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Measures the {@link StockIndex} with 100k stocks: how long it takes to load, the memory it
+ * takes per stock, and how long a lookup by id and a range query take next to a query of the
+ * provider per lookup. Only runs when the {@code shopit.benchmark} property is set, with
+ * {@code ./gradlew testDebugUnitTest -Pshopit.benchmark=true}, and writes its results as
+ * {@code StockIndexBenchmark.json} (see {@link BenchmarkResults}).
+ * <p>
+ * The heap growth is measured around the load after a garbage collection, so it is a rough
+ * figure next to the exact size of the arrays.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class StockIndexBenchmark {
+
+    private static final int ROWS = 100000;
+    private static final int LOOKUPS = 1000000;
+    private static final int QUERY_LOOKUPS = 1000;
+    private static final int RANGE_QUERIES = 1000;
+
+    private StockProvider mProvider;
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        assumeTrue(BenchmarkResults.isEnabled());
+
+        mProvider = Robolectric.buildContentProvider(StockProvider.class)
+                .create(StockContract.CONTENT_AUTHORITY).get();
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+
+        ContentValues[] chunk = new ContentValues[StockExporter.WINDOW_SIZE];
+        for (int first = 0; first < ROWS; first += chunk.length) {
+            for (int i = 0; i < chunk.length; i++) {
+                chunk[i] = stock(first + i);
+            }
+            assertEquals(chunk.length, mResolver.bulkInsert(StockEntry.CONTENT_URI, chunk));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        if (mProvider != null) {
+            mProvider.shutdown();
+        }
+    }
+
+    @Test
+    public void stockIndex() throws IOException {
+        BenchmarkResults results = new BenchmarkResults("StockIndexBenchmark");
+        StockIndex index = StockIndex.getInstance(RuntimeEnvironment.application);
+
+        // Load
+        long heapBefore = usedHeap();
+        long start = System.nanoTime();
+        Cursor cursor = mResolver.query(StockEntry.CONTENT_URI, StockIndex.PROJECTION, null,
+                null, null);
+        assertNotNull(cursor);
+        try {
+            index.load(cursor);
+        } finally {
+            cursor.close();
+        }
+        long elapsed = System.nanoTime() - start;
+        long heapAfter = usedHeap();
+        assertEquals(ROWS, index.size());
+        results.add("load", ROWS, elapsed / 1e6, "ms");
+        results.add("arrayBytesPerRow", ROWS, (double) index.getArrayBytes() / ROWS, "bytes");
+        results.add("heapBytesPerRow", ROWS, (double) (heapAfter - heapBefore) / ROWS, "bytes");
+
+        // Lookups by id, in random order so they don't walk the arrays
+        Random random = new Random(42);
+        long[] ids = new long[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            ids[i] = 1 + random.nextInt(ROWS);
+        }
+        long sum = 0;
+        for (int i = 0; i < LOOKUPS / 10; i++) {
+            sum += index.getQuantity(ids[i]);
+        }
+        start = System.nanoTime();
+        for (long id : ids) {
+            sum += index.getQuantity(id);
+        }
+        elapsed = System.nanoTime() - start;
+        assertTrue(sum >= 0);
+        results.add("lookup", ROWS, (double) elapsed / LOOKUPS, "ns/op");
+
+        // The same lookups as one query of the provider each
+        start = System.nanoTime();
+        for (int i = 0; i < QUERY_LOOKUPS; i++) {
+            Cursor stock = mResolver.query(
+                    ContentUris.withAppendedId(StockEntry.CONTENT_URI, ids[i]),
+                    StockIndex.PROJECTION, null, null, null);
+            assertNotNull(stock);
+            try {
+                assertTrue(stock.moveToFirst());
+                sum += stock.getInt(2);
+            } finally {
+                stock.close();
+            }
+        }
+        elapsed = System.nanoTime() - start;
+        results.add("queryLookup", ROWS, (double) elapsed / QUERY_LOOKUPS, "ns/op");
+
+        // Price ranges about a hundred stocks wide
+        start = System.nanoTime();
+        int found = 0;
+        for (int i = 0; i < RANGE_QUERIES; i++) {
+            int min = random.nextInt(5000);
+            found += index.findByPrice(min, min + 4).length;
+        }
+        elapsed = System.nanoTime() - start;
+        assertTrue(found > 0);
+        results.add("priceRange", ROWS, BenchmarkResults.micros(elapsed, RANGE_QUERIES),
+                "us/op");
+
+        results.write();
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static ContentValues stock(int i) {
+        ContentValues values = new ContentValues();
+        values.put(StockEntry.COLUMN_STOCK_NAME, "Stock " + i);
+        values.put(StockEntry.COLUMN_STOCK_SUPPLIER, "Supplier " + i % 100);
+        values.put(StockEntry.COLUMN_STOCK_TYPE, StockEntry.TYPE_ONE);
+        values.put(StockEntry.COLUMN_STOCK_QUANTITY, i % 100);
+        values.put(StockEntry.COLUMN_STOCK_IMAGE, "");
+        values.put(StockEntry.COLUMN_STOCK_PRICE, i % 5000);
+        return values;
+    }
+}
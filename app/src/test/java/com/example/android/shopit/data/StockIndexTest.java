@@ -0,0 +1,104 @@
+package com.example.android.shopit.data;
+
+import android.database.MatrixCursor;
+
+import com.example.android.shopit.BuildConfig;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link StockIndex}: lookups by id, range queries, and rows changing and going away
+ * the way the provider notifications make them.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class StockIndexTest {
+
+    private StockIndex mIndex;
+
+    @Before
+    public void setUp() {
+        mIndex = StockIndex.getInstance(RuntimeEnvironment.application);
+
+        // Stocks 1 to 1000, every tenth without a supplier
+        MatrixCursor cursor = new MatrixCursor(StockIndex.PROJECTION);
+        for (int id = 1; id <= 1000; id++) {
+            cursor.addRow(new Object[]{id, id % 10 == 0 ? null : "Supplier " + id % 7,
+                    id % 50, id * 3 % 1000});
+        }
+        mIndex.load(cursor);
+    }
+
+    @Test
+    public void findsEveryStockById() {
+        assertTrue(mIndex.isLoaded());
+        assertEquals(1000, mIndex.size());
+        for (int id = 1; id <= 1000; id++) {
+            assertEquals(id % 50, mIndex.getQuantity(id));
+            assertEquals(id * 3 % 1000, mIndex.getPrice(id));
+            assertEquals(id % 10 == 0 ? null : "Supplier " + id % 7, mIndex.getSupplier(id));
+        }
+        assertFalse(mIndex.contains(0));
+        assertEquals(-1, mIndex.getQuantity(1001));
+        assertNull(mIndex.getSupplier(1001));
+    }
+
+    @Test
+    public void rangeQueriesAreSortedByValue() {
+        long[] ids = mIndex.findByPrice(10, 19);
+        assertEquals(10, ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals(10 + i, mIndex.getPrice(ids[i]));
+        }
+
+        // Every stock with a quantity of 0 or 1, in row order within each quantity
+        assertArrayEquals(new long[]{50, 100, 150, 200, 250, 300, 350, 400, 450, 500, 550, 600,
+                        650, 700, 750, 800, 850, 900, 950, 1000, 1, 51, 101, 151, 201, 251,
+                        301, 351, 401, 451, 501, 551, 601, 651, 701, 751, 801, 851, 901, 951},
+                mIndex.findByQuantity(0, 1));
+        assertEquals(0, mIndex.findByQuantity(51, Integer.MAX_VALUE).length);
+        assertEquals(0, mIndex.findByPrice(5, 4).length);
+    }
+
+    @Test
+    public void changedStocksAreFoundWithTheirNewValues() {
+        MatrixCursor cursor = new MatrixCursor(StockIndex.PROJECTION);
+        cursor.addRow(new Object[]{7, "Acme", 49, 5000});
+        cursor.addRow(new Object[]{2000, null, 3, 1});
+        while (cursor.moveToNext()) {
+            mIndex.put(cursor);
+        }
+
+        assertEquals(1001, mIndex.size());
+        assertEquals("Acme", mIndex.getSupplier(7));
+        assertArrayEquals(new long[]{7}, mIndex.findByPrice(1000, 5000));
+        assertEquals(3, mIndex.getQuantity(2000));
+        assertArrayEquals(new long[]{1000, 667, 2000}, mIndex.findByPrice(0, 1));
+    }
+
+    @Test
+    public void removedStocksAreGoneAndTheRestStillFound() {
+        for (int id = 1; id <= 1000; id += 2) {
+            mIndex.remove(id);
+        }
+        mIndex.remove(5000);
+
+        assertEquals(500, mIndex.size());
+        for (int id = 1; id <= 1000; id++) {
+            assertEquals(id % 2 == 0, mIndex.contains(id));
+            assertEquals(id % 2 == 0 ? id % 50 : -1, mIndex.getQuantity(id));
+        }
+        assertEquals(500, mIndex.findByQuantity(0, 50).length);
+    }
+}
@@ -0,0 +1,250 @@
+package com.example.android.shopit.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import com.example.android.shopit.BuildConfig;
+import com.example.android.shopit.data.StockContract.StockEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link StockListQuery}: sorted pages must be read off an index rather than sorted in
+ * a temporary B-tree, paging through them must return every stock exactly once, and filters must
+ * return the same stocks whatever the order.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class StockListQueryTest {
+
+    private static final String[] PROJECTION = {StockEntry._ID};
+
+    /**
+     * The index each sort column is expected to be read from
+     */
+    private static final String[][] SORT_INDEXES = {
+            {StockEntry.COLUMN_STOCK_NAME, "stocks_name_index"},
+            {StockEntry.COLUMN_STOCK_SUPPLIER, "stocks_supplier_index"},
+            {StockEntry.COLUMN_STOCK_QUANTITY, "stocks_quantity_index"},
+            {StockEntry.COLUMN_STOCK_PRICE, "stocks_price_index"}};
+
+    private StockDbHelper mDbHelper;
+    private SQLiteDatabase mDatabase;
+
+    @Before
+    public void setUp() {
+        mDbHelper = new StockDbHelper(RuntimeEnvironment.application);
+        mDatabase = mDbHelper.getWritableDatabase();
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+    }
+
+    @Test
+    public void sortedPagesAreReadFromTheSortIndex() {
+        for (String[] sortIndex : SORT_INDEXES) {
+            for (String descending : new String[]{"false", "true"}) {
+                // The first page
+                assertPlan(StockEntry.CONTENT_URI.buildUpon()
+                        .appendQueryParameter(StockEntry.QUERY_PARAMETER_LIMIT, "50")
+                        .appendQueryParameter(StockEntry.QUERY_PARAMETER_SORT, sortIndex[0])
+                        .appendQueryParameter(StockEntry.QUERY_PARAMETER_DESCENDING, descending)
+                        .build(), sortIndex[1]);
+
+                // The pages after it
+                Uri.Builder builder = StockEntry.buildPageUri(0, 50).buildUpon()
+                        .appendQueryParameter(StockEntry.QUERY_PARAMETER_SORT, sortIndex[0])
+                        .appendQueryParameter(StockEntry.QUERY_PARAMETER_DESCENDING, descending)
+                        .appendQueryParameter(StockEntry.QUERY_PARAMETER_AFTER_VALUE, "10");
+                assertPlan(builder.build(), sortIndex[1]);
+
+                // Filters are checked along the way, they don't get an index of their own
+                builder.appendQueryParameter(StockEntry.QUERY_PARAMETER_TYPE,
+                        String.valueOf(StockEntry.TYPE_ONE))
+                        .appendQueryParameter(StockEntry.QUERY_PARAMETER_SUPPLIER, "Acme")
+                        .appendQueryParameter(StockEntry.QUERY_PARAMETER_IN_STOCK, "true");
+                assertPlan(builder.build(), sortIndex[1]);
+            }
+        }
+    }
+
+    @Test
+    public void filteredPagesInIdOrderAreReadFromAnIndex() {
+        assertPlan(StockEntry.buildPageUri(10, 50).buildUpon()
+                .appendQueryParameter(StockEntry.QUERY_PARAMETER_SUPPLIER, "Acme")
+                .build(), "stocks_supplier_index");
+        assertPlan(StockEntry.buildPageUri(10, 50).buildUpon()
+                .appendQueryParameter(StockEntry.QUERY_PARAMETER_TYPE,
+                        String.valueOf(StockEntry.TYPE_TWO))
+                .appendQueryParameter(StockEntry.QUERY_PARAMETER_IN_STOCK, "true")
+                .build(), "stocks_type_index");
+    }
+
+    @Test
+    public void pagingThroughSortedStocksReturnsEveryStockOnce() {
+        String[] suppliers = {null, "Acme", "acme", "Bolt", ""};
+        for (int i = 0; i < 200; i++) {
+            ContentValues values = new ContentValues();
+            values.put(StockEntry.COLUMN_STOCK_NAME, "Stock " + (i * 37 % 50));
+            values.put(StockEntry.COLUMN_STOCK_SUPPLIER, suppliers[i % suppliers.length]);
+            values.put(StockEntry.COLUMN_STOCK_TYPE, StockEntry.TYPE_ONE);
+            values.put(StockEntry.COLUMN_STOCK_QUANTITY, i % 7);
+            values.put(StockEntry.COLUMN_STOCK_PRICE, i * 13 % 20);
+            mDatabase.insert(StockEntry.TABLE_NAME, null, values);
+        }
+
+        for (String[] sortIndex : SORT_INDEXES) {
+            for (boolean descending : new boolean[]{false, true}) {
+                assertPaging(sortIndex[0], descending);
+            }
+        }
+    }
+
+    @Test
+    public void theTypeFilterReturnsTheSameStocksInEveryOrder() {
+        Set<Long> typeTwo = new HashSet<>();
+        for (int i = 0; i < 30; i++) {
+            ContentValues values = new ContentValues();
+            values.put(StockEntry.COLUMN_STOCK_NAME, "Stock " + i);
+            values.put(StockEntry.COLUMN_STOCK_SUPPLIER, i % 2 == 0 ? "Acme" : null);
+            int type = i % 3 == 0 ? StockEntry.TYPE_TWO : StockEntry.TYPE_ONE;
+            values.put(StockEntry.COLUMN_STOCK_TYPE, type);
+            values.put(StockEntry.COLUMN_STOCK_QUANTITY, i % 4);
+            values.put(StockEntry.COLUMN_STOCK_PRICE, i % 5);
+            long id = mDatabase.insert(StockEntry.TABLE_NAME, null, values);
+            if (type == StockEntry.TYPE_TWO) {
+                typeTwo.add(id);
+            }
+        }
+
+        List<String> sortColumns = new ArrayList<>();
+        sortColumns.add(StockEntry._ID);
+        for (String[] sortIndex : SORT_INDEXES) {
+            sortColumns.add(sortIndex[0]);
+        }
+        for (String sortColumn : sortColumns) {
+            for (String descending : new String[]{"false", "true"}) {
+                Uri uri = StockEntry.CONTENT_URI.buildUpon()
+                        .appendQueryParameter(StockEntry.QUERY_PARAMETER_LIMIT, "50")
+                        .appendQueryParameter(StockEntry.QUERY_PARAMETER_SORT, sortColumn)
+                        .appendQueryParameter(StockEntry.QUERY_PARAMETER_DESCENDING, descending)
+                        .appendQueryParameter(StockEntry.QUERY_PARAMETER_TYPE,
+                                String.valueOf(StockEntry.TYPE_TWO))
+                        .build();
+                List<Long> ids = readIds(uri);
+                assertEquals(uri.toString(), typeTwo.size(), ids.size());
+                assertEquals(uri.toString(), typeTwo, new HashSet<>(ids));
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsColumnsWithoutAnIndex() {
+        StockListQuery.fromUri(StockEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(StockEntry.QUERY_PARAMETER_SORT,
+                        StockEntry.COLUMN_STOCK_IMAGE)
+                .build(), null, null, null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsSqlInTheSortColumn() {
+        StockListQuery.fromUri(StockEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(StockEntry.QUERY_PARAMETER_SORT, "name; DROP TABLE stocks")
+                .build(), null, null, null);
+    }
+
+    /**
+     * Check that the query of the given URI is read from the given index, without a sort.
+     */
+    private void assertPlan(Uri uri, String index) {
+        StockListQuery query = StockListQuery.fromUri(uri, null, null, null);
+        StringBuilder plan = new StringBuilder();
+        Cursor cursor = mDatabase.rawQuery("EXPLAIN QUERY PLAN " + query.toSql(PROJECTION),
+                query.selectionArgs);
+        try {
+            while (cursor.moveToNext()) {
+                plan.append(cursor.getString(cursor.getColumnIndex("detail"))).append('\n');
+            }
+        } finally {
+            cursor.close();
+        }
+        assertTrue(uri + " doesn't use " + index + ":\n" + plan, plan.toString().contains(index));
+        assertFalse(uri + " sorts:\n" + plan, plan.toString().contains("TEMP B-TREE"));
+    }
+
+    /**
+     * Page through all stocks in the given order, and check that the pages add up to the stocks
+     * sorted in one go.
+     */
+    private void assertPaging(String sortColumn, boolean descending) {
+        Uri sortedUri = StockEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(StockEntry.QUERY_PARAMETER_SORT, sortColumn)
+                .appendQueryParameter(StockEntry.QUERY_PARAMETER_DESCENDING,
+                        String.valueOf(descending))
+                .build();
+        List<Long> expected = readIds(sortedUri);
+
+        List<Long> paged = new ArrayList<>();
+        Uri pageUri = sortedUri.buildUpon()
+                .appendQueryParameter(StockEntry.QUERY_PARAMETER_LIMIT, "15")
+                .build();
+        List<Long> page = readIds(pageUri);
+        while (!page.isEmpty()) {
+            paged.addAll(page);
+            long lastId = page.get(page.size() - 1);
+            Uri.Builder next = pageUri.buildUpon()
+                    .appendQueryParameter(StockEntry.QUERY_PARAMETER_AFTER_ID,
+                            String.valueOf(lastId));
+            String afterValue = readValue(sortColumn, lastId);
+            if (afterValue != null) {
+                next.appendQueryParameter(StockEntry.QUERY_PARAMETER_AFTER_VALUE, afterValue);
+            }
+            page = readIds(next.build());
+        }
+        assertEquals(sortColumn + (descending ? " descending" : ""), expected, paged);
+    }
+
+    private List<Long> readIds(Uri uri) {
+        StockListQuery query = StockListQuery.fromUri(uri, null, null, null);
+        Cursor cursor = query.query(mDatabase, PROJECTION);
+        List<Long> ids = new ArrayList<>();
+        try {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return ids;
+    }
+
+    private String readValue(String column, long id) {
+        Cursor cursor = mDatabase.query(StockEntry.TABLE_NAME, new String[]{column},
+                StockEntry._ID + "=?", new String[]{String.valueOf(id)}, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
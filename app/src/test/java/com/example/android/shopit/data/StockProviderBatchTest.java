@@ -0,0 +1,196 @@
+package com.example.android.shopit.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import com.example.android.shopit.BuildConfig;
+import com.example.android.shopit.data.StockContract.StockEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowContentResolver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Tests for {@link StockProvider#applyBatch}: the work a batch commits when it yields to another
+ * writer stays committed and reaches observers, even if the batch fails afterwards.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class StockProviderBatchTest {
+
+    /**
+     * How long to wait for the other writer before failing
+     */
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    private ContendedStockProvider mProvider;
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.buildContentProvider(ContendedStockProvider.class)
+                .create(StockContract.CONTENT_AUTHORITY).get();
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @After
+    public void tearDown() {
+        if (mProvider != null) {
+            mProvider.shutdown();
+        }
+    }
+
+    @Test
+    public void workCommittedAtAYieldIsNotifiedWhenTheBatchFailsLater() throws Exception {
+        // Once the first stock is in, another thread waits to write
+        mProvider.contender = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                mResolver.insert(StockEntry.CONTENT_URI, stock("Mascara"));
+            }
+        }, "StockProviderBatchTest-contender");
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newInsert(StockEntry.CONTENT_URI)
+                .withValues(stock("Eyeliner"))
+                .build());
+        operations.add(ContentProviderOperation.newInsert(StockEntry.CONTENT_URI)
+                .withValues(stock("Lipstick"))
+                .withYieldAllowed(true)
+                .build());
+        operations.add(ContentProviderOperation.newInsert(StockEntry.CONTENT_URI)
+                .withValues(stock(null))
+                .build());
+        try {
+            mResolver.applyBatch(StockContract.CONTENT_AUTHORITY, operations);
+            fail("A stock without a name was inserted");
+        } catch (IllegalArgumentException expected) {
+            // The last operation rolls back the work done since the yield
+        }
+        mProvider.contender.join(TIMEOUT_MILLIS);
+        assertFalse(mProvider.contender.isAlive());
+
+        // The first stock was committed when the batch yielded to the other thread
+        assertEquals(Arrays.asList("Eyeliner", "Mascara"), readNames());
+        Uri eyeliner = ContentUris.withAppendedId(StockEntry.CONTENT_URI, readId("Eyeliner"));
+
+        List<Uri> notified = new ArrayList<>();
+        mProvider.shutdown();
+        for (ShadowContentResolver.NotifiedUri uri : shadowOf(mResolver).getNotifiedUris()) {
+            notified.add(uri.uri);
+        }
+        mProvider = null;
+        assertTrue(notified + " misses " + eyeliner, notified.contains(eyeliner));
+    }
+
+    /**
+     * A provider that starts another writer after its first insert, and waits until that writer
+     * is queued for the database, so a batch has someone to yield to.
+     */
+    public static class ContendedStockProvider extends StockProvider {
+
+        /**
+         * The writer started after the first insert, or null
+         */
+        Thread contender;
+
+        @Override
+        public Uri insert(Uri uri, ContentValues values) {
+            Uri inserted = super.insert(uri, values);
+            if (contender != null && contender.getState() == Thread.State.NEW) {
+                contender.start();
+                awaitQueued(contender);
+            }
+            return inserted;
+        }
+
+        /**
+         * Wait until the given thread waits for a connection to the database.
+         */
+        private static void awaitQueued(Thread thread) {
+            long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+            while (!isQueued(thread)) {
+                assertTrue("Timed out waiting for the other writer",
+                        System.currentTimeMillis() < deadline);
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        }
+
+        private static boolean isQueued(Thread thread) {
+            Thread.State state = thread.getState();
+            if (state != Thread.State.WAITING && state != Thread.State.TIMED_WAITING) {
+                return false;
+            }
+            String pool = SQLiteDatabase.class.getPackage().getName() + ".SQLiteConnectionPool";
+            for (StackTraceElement element : thread.getStackTrace()) {
+                if (element.getClassName().equals(pool)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private List<String> readNames() {
+        Cursor cursor = mResolver.query(StockEntry.CONTENT_URI,
+                new String[]{StockEntry.COLUMN_STOCK_NAME}, null, null, StockEntry._ID);
+        assertNotNull(cursor);
+        List<String> names = new ArrayList<>();
+        try {
+            while (cursor.moveToNext()) {
+                names.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return names;
+    }
+
+    private long readId(String name) {
+        Cursor cursor = mResolver.query(StockEntry.CONTENT_URI, new String[]{StockEntry._ID},
+                StockEntry.COLUMN_STOCK_NAME + "=?", new String[]{name}, null);
+        assertNotNull(cursor);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static ContentValues stock(String name) {
+        ContentValues values = new ContentValues();
+        values.put(StockEntry.COLUMN_STOCK_NAME, name);
+        values.put(StockEntry.COLUMN_STOCK_TYPE, StockEntry.TYPE_ONE);
+        values.put(StockEntry.COLUMN_STOCK_QUANTITY, 5);
+        values.put(StockEntry.COLUMN_STOCK_IMAGE, "");
+        values.put(StockEntry.COLUMN_STOCK_PRICE, 3);
+        return values;
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.android.shopit.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteConstraintException;
+
+import com.example.android.shopit.BuildConfig;
+import com.example.android.shopit.data.StockContract.StockEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowContentResolver;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Tests for {@link StockProvider#bulkInsert}: a batch is written in one transaction, reaches
+ * observers as one change, and is rejected as a whole if any of its rows is invalid. How much
+ * faster a batch loads than the same rows inserted one at a time is measured by
+ * {@link com.example.android.shopit.DataLayerBenchmark}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class StockProviderBulkInsertTest {
+
+    /**
+     * Number of stocks in each batch
+     */
+    private static final int ROWS = 400;
+
+    private StockProvider mProvider;
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.buildContentProvider(StockProvider.class)
+                .create(StockContract.CONTENT_AUTHORITY).get();
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @After
+    public void tearDown() {
+        if (mProvider != null) {
+            mProvider.shutdown();
+        }
+    }
+
+    @Test
+    public void aBatchIsInsertedWithOneNotification() {
+        assertEquals(ROWS, mResolver.bulkInsert(StockEntry.CONTENT_URI, stocks(0, ROWS)));
+        assertEquals(ROWS, countStocks());
+
+        List<ShadowContentResolver.NotifiedUri> notified = sendNotifications();
+        assertEquals(1, notified.size());
+        assertEquals(StockEntry.CONTENT_URI, notified.get(0).uri);
+    }
+
+    @Test
+    public void anInvalidRowRejectsTheWholeBatch() {
+        ContentValues[] stocks = stocks(0, ROWS);
+        stocks[ROWS / 2].remove(StockEntry.COLUMN_STOCK_NAME);
+
+        try {
+            mResolver.bulkInsert(StockEntry.CONTENT_URI, stocks);
+            fail("A stock without a name was inserted");
+        } catch (IllegalArgumentException expected) {
+            // The batch is checked before anything is written
+        }
+
+        assertEquals(0, countStocks());
+        assertTrue(sendNotifications().isEmpty());
+    }
+
+    @Test
+    public void aRowTheDatabaseRejectsRollsBackTheWholeBatch() {
+        // A row that passes validation but fails to insert half way through the batch
+        StockDbHelper helper = new StockDbHelper(RuntimeEnvironment.application);
+        try {
+            helper.getWritableDatabase().execSQL("CREATE TRIGGER reject_stock BEFORE INSERT ON "
+                    + StockEntry.TABLE_NAME + " WHEN NEW." + StockEntry.COLUMN_STOCK_NAME
+                    + "='Stock " + ROWS / 2 + "' BEGIN SELECT RAISE(ABORT, 'rejected'); END");
+        } finally {
+            helper.close();
+        }
+
+        try {
+            mResolver.bulkInsert(StockEntry.CONTENT_URI, stocks(0, ROWS));
+            fail("A rejected stock was inserted");
+        } catch (SQLiteConstraintException expected) {
+            // The rows before it were written in the same transaction
+        }
+
+        assertEquals(0, countStocks());
+        assertTrue(sendNotifications().isEmpty());
+    }
+
+    /**
+     * Shut the provider down, which sends the notifications it was still holding back, and
+     * returns every notification sent so far.
+     */
+    private List<ShadowContentResolver.NotifiedUri> sendNotifications() {
+        mProvider.shutdown();
+        mProvider = null;
+        return shadowOf(mResolver).getNotifiedUris();
+    }
+
+    private int countStocks() {
+        Cursor cursor = mResolver.query(StockEntry.CONTENT_URI, new String[]{StockEntry._ID},
+                null, null, null);
+        assertNotNull(cursor);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static ContentValues[] stocks(int first, int count) {
+        ContentValues[] stocks = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            ContentValues values = new ContentValues();
+            values.put(StockEntry.COLUMN_STOCK_NAME, "Stock " + (first + i));
+            values.put(StockEntry.COLUMN_STOCK_SUPPLIER, "Supplier " + i % 10);
+            values.put(StockEntry.COLUMN_STOCK_TYPE, StockEntry.TYPE_ONE);
+            values.put(StockEntry.COLUMN_STOCK_QUANTITY, i % 100);
+            values.put(StockEntry.COLUMN_STOCK_IMAGE, "");
+            values.put(StockEntry.COLUMN_STOCK_PRICE, i % 500);
+            stocks[i] = values;
+        }
+        return stocks;
+    }
+}
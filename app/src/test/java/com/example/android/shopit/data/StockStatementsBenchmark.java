@@ -0,0 +1,182 @@
+package com.example.android.shopit.data;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.shopit.BuildConfig;
+import com.example.android.shopit.benchmark.BenchmarkResults;
+import com.example.android.shopit.data.StockContract.StockEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Compares the {@link StockStatements} write paths with the {@link SQLiteDatabase#insert} and
+ * {@link SQLiteDatabase#update} calls they replace. Only runs when the {@code shopit.benchmark}
+ * property is set, with {@code ./gradlew testDebugUnitTest -Pshopit.benchmark=true}, and writes
+ * its results as {@code StockStatementsBenchmark-<write>.json} (see {@link BenchmarkResults}).
+ * <p>
+ * Every case writes inside one transaction so the numbers show the cost of building and binding
+ * statements rather than of syncing the database file.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class StockStatementsBenchmark {
+
+    private static final int ROWS = 1000;
+    private static final int ITERATIONS = 20000;
+    private static final int WARMUP_ITERATIONS = 2000;
+
+    private StockDbHelper mDbHelper;
+    private SQLiteDatabase mDatabase;
+    private StockStatements mStatements;
+
+    @Before
+    public void setUp() {
+        assumeTrue(BenchmarkResults.isEnabled());
+
+        mDbHelper = new StockDbHelper(RuntimeEnvironment.application);
+        mDatabase = mDbHelper.getWritableDatabase();
+        mStatements = new StockStatements(mDatabase);
+
+        mDatabase.beginTransaction();
+        try {
+            for (int i = 0; i < ROWS; i++) {
+                mStatements.insert(stock(i));
+            }
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        if (mDbHelper != null) {
+            mDbHelper.close();
+        }
+    }
+
+    @Test
+    public void updateQuantity() throws IOException {
+        run("updateQuantity", new Write() {
+            @Override
+            public int generic(int i) {
+                ContentValues values = new ContentValues();
+                values.put(StockEntry.COLUMN_STOCK_QUANTITY, i);
+                return mDatabase.update(StockEntry.TABLE_NAME, values, StockEntry._ID + "=?",
+                        new String[]{String.valueOf(id(i))});
+            }
+
+            @Override
+            public int precompiled(int i) {
+                ContentValues values = new ContentValues();
+                values.put(StockEntry.COLUMN_STOCK_QUANTITY, i);
+                return mStatements.updateQuantity(id(i), values);
+            }
+        });
+    }
+
+    @Test
+    public void updateStock() throws IOException {
+        run("updateStock", new Write() {
+            @Override
+            public int generic(int i) {
+                return mDatabase.update(StockEntry.TABLE_NAME, stock(i), StockEntry._ID + "=?",
+                        new String[]{String.valueOf(id(i))});
+            }
+
+            @Override
+            public int precompiled(int i) {
+                return mStatements.updateStock(id(i), stock(i));
+            }
+        });
+    }
+
+    @Test
+    public void insert() throws IOException {
+        run("insert", new Write() {
+            @Override
+            public int generic(int i) {
+                return mDatabase.insert(StockEntry.TABLE_NAME, null, stock(i)) == -1 ? 0 : 1;
+            }
+
+            @Override
+            public int precompiled(int i) {
+                return mStatements.insert(stock(i)) == -1 ? 0 : 1;
+            }
+        });
+    }
+
+    /**
+     * One of the benchmarked writes, done the generic way and with a precompiled statement.
+     * Both return the number of rows written.
+     */
+    private interface Write {
+        int generic(int i);
+
+        int precompiled(int i);
+    }
+
+    private void run(String name, Write write) throws IOException {
+        time(write, false, WARMUP_ITERATIONS);
+        time(write, true, WARMUP_ITERATIONS);
+
+        long generic = time(write, false, ITERATIONS);
+        long precompiled = time(write, true, ITERATIONS);
+
+        BenchmarkResults results = new BenchmarkResults("StockStatementsBenchmark-" + name);
+        results.add("generic", ROWS, BenchmarkResults.micros(generic, ITERATIONS), "us/op");
+        results.add("precompiled", ROWS, BenchmarkResults.micros(precompiled, ITERATIONS),
+                "us/op");
+        results.add("speedup", ROWS, (double) generic / precompiled, "x");
+        results.write();
+    }
+
+    /**
+     * Returns how many nanoseconds the given number of writes took.
+     */
+    private long time(Write write, boolean precompiled, int iterations) {
+        mDatabase.beginTransaction();
+        try {
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                int rows = precompiled ? write.precompiled(i) : write.generic(i);
+                assertEquals(1, rows);
+            }
+            long elapsed = System.nanoTime() - start;
+            mDatabase.setTransactionSuccessful();
+            return elapsed;
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
+
+    /**
+     * Returns the id of one of the stocks inserted by {@link #setUp()}.
+     */
+    private static long id(int i) {
+        return i % ROWS + 1;
+    }
+
+    private static ContentValues stock(int i) {
+        ContentValues values = new ContentValues();
+        values.put(StockEntry.COLUMN_STOCK_NAME, "Stock " + i);
+        values.put(StockEntry.COLUMN_STOCK_SUPPLIER, "Supplier " + i % 10);
+        values.put(StockEntry.COLUMN_STOCK_TYPE, StockEntry.TYPE_ONE);
+        values.put(StockEntry.COLUMN_STOCK_QUANTITY, i % 100);
+        values.put(StockEntry.COLUMN_STOCK_IMAGE, "android.resource://shopit/" + i);
+        values.put(StockEntry.COLUMN_STOCK_PRICE, i % 5000);
+        return values;
+    }
+}
@@ -0,0 +1,273 @@
+package com.example.android.shopit.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.shopit.BuildConfig;
+import com.example.android.shopit.data.StockContract.SaleEntry;
+import com.example.android.shopit.data.StockContract.StockEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for selling through {@link StockWriter}, {@link StockEntry#METHOD_SELL} and
+ * {@link StockEntry#METHOD_SELL_ALL}: taps that add up to more than is left in stock still sell
+ * every item that is left. Also checks that edits combined while queued never bring a deleted
+ * stock back and report to every caller.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class StockWriterTest {
+
+    /**
+     * How long to wait for the writer before failing
+     */
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    private StockProvider mProvider;
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.buildContentProvider(StockProvider.class)
+                .create(StockContract.CONTENT_AUTHORITY).get();
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @After
+    public void tearDown() {
+        if (mProvider != null) {
+            mProvider.shutdown();
+        }
+    }
+
+    @Test
+    public void aSaleOfMoreThanIsLeftSellsWhatIsLeft() {
+        long id = insertStock(3);
+
+        Bundle result = sell(id, 5);
+        assertEquals(3, result.getInt(StockEntry.EXTRA_SOLD));
+        assertEquals(0, result.getInt(StockEntry.EXTRA_QUANTITY));
+        assertEquals(0, readQuantity(id));
+        assertEquals(3, readSold(id));
+
+        result = sell(id, 1);
+        assertEquals(0, result.getInt(StockEntry.EXTRA_SOLD));
+        assertEquals(0, result.getInt(StockEntry.EXTRA_QUANTITY));
+        assertEquals(3, readSold(id));
+    }
+
+    @Test
+    public void aSaleOfAMissingStockSellsNothing() {
+        Bundle result = sell(12345, 2);
+        assertEquals(0, result.getInt(StockEntry.EXTRA_SOLD));
+        assertEquals(-1, result.getInt(StockEntry.EXTRA_QUANTITY));
+    }
+
+    @Test
+    public void salesOfSeveralStocksAreWrittenTogether() {
+        long first = insertStock(3);
+        long second = insertStock(1);
+
+        Bundle extras = new Bundle();
+        extras.putLongArray(StockEntry.EXTRA_IDS, new long[]{first, 12345, second});
+        extras.putIntArray(StockEntry.EXTRA_COUNTS, new int[]{2, 1, 4});
+        Bundle result = mResolver.call(StockEntry.CONTENT_URI, StockEntry.METHOD_SELL_ALL, null,
+                extras);
+        assertNotNull(result);
+        assertArrayEquals(new int[]{2, 0, 1}, result.getIntArray(StockEntry.EXTRA_SOLD_COUNTS));
+        assertArrayEquals(new int[]{1, -1, 0}, result.getIntArray(StockEntry.EXTRA_QUANTITIES));
+        assertEquals(1, readQuantity(first));
+        assertEquals(2, readSold(first));
+        assertEquals(0, readQuantity(second));
+        assertEquals(1, readSold(second));
+    }
+
+    @Test
+    public void aBurstOfTapsPastTheStockSellsEveryItemLeft() throws InterruptedException {
+        long id = insertStock(3);
+        final int[] taps = new int[1];
+        final int[] sold = new int[1];
+        final int[] quantity = {-1};
+        StockWriter.SaleCallback callback = new StockWriter.SaleCallback() {
+            @Override
+            public void onSaleFinished(long id, int count, int soldCount, int quantityLeft) {
+                taps[0] += count;
+                sold[0] += soldCount;
+                quantity[0] = quantityLeft;
+            }
+        };
+
+        // However the taps end up combined, each of them is reported by exactly one sale
+        StockWriter writer = StockWriter.getInstance(RuntimeEnvironment.application);
+        for (int i = 0; i < 5; i++) {
+            writer.sell(id, callback);
+        }
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (taps[0] < 5) {
+            assertTrue("Timed out waiting for the sales", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+            ShadowLooper.runUiThreadTasks();
+        }
+
+        assertEquals(5, taps[0]);
+        assertEquals(3, sold[0]);
+        assertEquals(0, quantity[0]);
+        assertEquals(0, readQuantity(id));
+        assertEquals(3, readSold(id));
+    }
+
+    @Test
+    public void anUpdateAfterADeleteLeavesTheStockDeleted() throws InterruptedException {
+        long id = insertStock(3);
+        Uri uri = ContentUris.withAppendedId(StockEntry.CONTENT_URI, id);
+        ContentValues values = new ContentValues();
+        values.put(StockEntry.COLUMN_STOCK_QUANTITY, 5);
+
+        StockWriter writer = StockWriter.getInstance(RuntimeEnvironment.application);
+        List<Boolean> outcomes = new ArrayList<>();
+        writer.delete(uri, record(outcomes));
+        writer.update(uri, values, record(outcomes));
+        awaitOutcomes(outcomes, 2);
+
+        // Whether the update was queued with the delete or ran after it, it finds no stock
+        assertTrue(outcomes.contains(true));
+        assertTrue(outcomes.contains(false));
+        Cursor cursor = mResolver.query(uri, null, null, null, null);
+        assertNotNull(cursor);
+        try {
+            assertEquals(0, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void updatesOfTheSameStockAreAllWrittenAndReported() throws InterruptedException {
+        long id = insertStock(3);
+        Uri uri = ContentUris.withAppendedId(StockEntry.CONTENT_URI, id);
+        ContentValues name = new ContentValues();
+        name.put(StockEntry.COLUMN_STOCK_NAME, "Mascara");
+        ContentValues quantity = new ContentValues();
+        quantity.put(StockEntry.COLUMN_STOCK_QUANTITY, 7);
+
+        StockWriter writer = StockWriter.getInstance(RuntimeEnvironment.application);
+        List<Boolean> outcomes = new ArrayList<>();
+        writer.update(uri, name, record(outcomes));
+        writer.update(uri, quantity, record(outcomes));
+        awaitOutcomes(outcomes, 2);
+
+        assertEquals(Arrays.asList(true, true), outcomes);
+        assertEquals(7, readQuantity(id));
+        Cursor cursor = mResolver.query(uri, new String[]{StockEntry.COLUMN_STOCK_NAME}, null,
+                null, null);
+        assertNotNull(cursor);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals("Mascara", cursor.getString(0));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns a callback that adds the outcome of every write to the given list.
+     */
+    private static StockWriter.WriteCallback record(final List<Boolean> outcomes) {
+        return new StockWriter.WriteCallback() {
+            @Override
+            public void onWriteFinished(Uri uri, boolean success) {
+                outcomes.add(success);
+            }
+        };
+    }
+
+    /**
+     * Run the main thread until the given number of outcomes have come in.
+     */
+    private static void awaitOutcomes(List<Boolean> outcomes, int count)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (outcomes.size() < count) {
+            assertTrue("Timed out waiting for the writes", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+            ShadowLooper.runUiThreadTasks();
+        }
+        assertEquals(count, outcomes.size());
+    }
+
+    private Bundle sell(long id, int count) {
+        Bundle extras = new Bundle();
+        extras.putInt(StockEntry.EXTRA_COUNT, count);
+        Bundle result = mResolver.call(StockEntry.CONTENT_URI, StockEntry.METHOD_SELL,
+                String.valueOf(id), extras);
+        assertNotNull(result);
+        return result;
+    }
+
+    private long insertStock(int quantity) {
+        ContentValues values = new ContentValues();
+        values.put(StockEntry.COLUMN_STOCK_NAME, "Eyeliner");
+        values.put(StockEntry.COLUMN_STOCK_TYPE, StockEntry.TYPE_ONE);
+        values.put(StockEntry.COLUMN_STOCK_QUANTITY, quantity);
+        values.put(StockEntry.COLUMN_STOCK_IMAGE, "");
+        values.put(StockEntry.COLUMN_STOCK_PRICE, 5);
+        Uri uri = mResolver.insert(StockEntry.CONTENT_URI, values);
+        assertNotNull(uri);
+        return ContentUris.parseId(uri);
+    }
+
+    private int readQuantity(long id) {
+        Cursor cursor = mResolver.query(ContentUris.withAppendedId(StockEntry.CONTENT_URI, id),
+                new String[]{StockEntry.COLUMN_STOCK_QUANTITY}, null, null, null);
+        assertNotNull(cursor);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the number of items of the given stock recorded in the sales ledger.
+     */
+    private int readSold(long id) {
+        Cursor cursor = mResolver.query(SaleEntry.RECENT_URI,
+                new String[]{SaleEntry.COLUMN_STOCK_ID, SaleEntry.COLUMN_QUANTITY}, null, null,
+                null);
+        assertNotNull(cursor);
+        try {
+            int sold = 0;
+            while (cursor.moveToNext()) {
+                if (cursor.getLong(0) == id) {
+                    sold += cursor.getInt(1);
+                }
+            }
+            return sold;
+        } finally {
+            cursor.close();
+        }
+    }
+}